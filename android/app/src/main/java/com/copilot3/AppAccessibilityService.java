@@ -17,6 +17,7 @@ import android.util.Log;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityNodeInfo;
 import androidx.core.content.FileProvider;
+import com.copilot3.util.MediaTypeClassifier;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -505,10 +506,7 @@ private void handlePostMediaSend(Contact contact) {
     }
 
     private String getMimeType(String path) {
-        if (path.endsWith(".jpg") || path.endsWith(".jpeg")) return "image/jpeg";
-        if (path.endsWith(".png")) return "image/png";
-        if (path.endsWith(".mp4")) return "video/mp4";
-        return "*/*";
+        return MediaTypeClassifier.mimeForName(path);
     }
 
     private AccessibilityNodeInfo findNodeByViewId(AccessibilityNodeInfo root, String viewId) {
@@ -1,13 +1,12 @@
 package com.copilot3
 
 import android.content.Context
-import android.net.Uri
 import android.view.*
 import android.widget.*
 import androidx.recyclerview.widget.RecyclerView
-import com.bumptech.glide.Glide
 import com.copilot3.R
 import com.copilot3.model.MediaItem
+import com.copilot3.util.ThumbnailService
 
 class MediaItemAdapter(
     private val context: Context,
@@ -43,15 +42,21 @@ class MediaItemAdapter(
         private val overlayIcon: TextView = view.findViewById(R.id.overlayIcon)
 
         fun bind(item: MediaItem) {
-            val uri = Uri.parse(item.uri)
-
             overlayIcon.text = when {
                 item.isVideo -> "🎥"
                 item.isAudio -> "🎵"
                 else -> ""
             }
 
-            Glide.with(context).load(uri).centerCrop().into(thumbnail)
+            if (item.isAudio) {
+                thumbnail.tag = null
+                thumbnail.setImageResource(R.drawable.ic_image_placeholder)
+            } else {
+                // The flags are authoritative here; mime may be empty for these items
+                val mime = if (item.isVideo) "video/*" else "image/*"
+                val placeholder = if (item.isVideo) R.drawable.ic_video_placeholder else R.drawable.ic_image_placeholder
+                ThumbnailService.load(thumbnail, item.uri, mime, item.size, item.timestamp, placeholder)
+            }
 
             checkbox.isChecked = selectedItems.contains(item.uri)
             checkbox.setOnClickListener {
@@ -6,6 +6,7 @@ import android.app.DatePickerDialog
 import android.content.Intent
 import android.net.Uri
 import android.os.Bundle
+import android.os.SystemClock
 import android.view.LayoutInflater
 import android.view.MenuItem
 import android.view.View
@@ -13,7 +14,6 @@ import android.view.ViewGroup
 import android.widget.*
 import androidx.appcompat.app.AlertDialog
 import androidx.appcompat.app.AppCompatActivity
-import androidx.documentfile.provider.DocumentFile
 import androidx.lifecycle.lifecycleScope
 import androidx.paging.Pager
 import androidx.paging.PagingConfig
@@ -23,12 +23,18 @@ import androidx.paging.PagingState
 import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.GridLayoutManager
 import androidx.recyclerview.widget.RecyclerView
-import com.bumptech.glide.Glide
 import com.copilot3.databinding.ActivityMessengerMediaBinding
+import com.copilot3.util.MediaTypeClassifier
+import com.copilot3.util.SafScanner
+import com.copilot3.util.ThumbnailService
 import com.google.android.gms.ads.AdRequest
 import com.google.android.gms.ads.AdSize
 import com.google.android.gms.ads.AdView
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.collectLatest
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
 import java.text.SimpleDateFormat
 import java.util.*
 import android.util.Log
@@ -66,7 +72,8 @@ class MessengerMediaActivity : AppCompatActivity() {
         setContentView(binding.root)
 
         // Extract intent extras
-        appKey = intent.getStringExtra("appKey") ?: ""
+        // CLEANUP_PATHS is keyed in lowercase; JS may pass "WhatsApp"
+        appKey = intent.getStringExtra("appKey")?.lowercase() ?: ""
         folderName = intent.getStringExtra("folderName") ?: ""
         minDate = intent.getLongExtra("minDate", 0)
         maxDate = intent.getLongExtra("maxDate", Long.MAX_VALUE)
@@ -99,7 +106,7 @@ class MessengerMediaActivity : AppCompatActivity() {
         binding.recyclerView.adapter = adapter
 
         val pager = Pager(
-            config = PagingConfig(pageSize = 30, enablePlaceholders = false),
+            config = PagingConfig(pageSize = PAGE_SIZE, enablePlaceholders = false),
             pagingSourceFactory = { MediaPagingSource() }
         )
         lifecycleScope.launch {
@@ -131,7 +138,7 @@ class MessengerMediaActivity : AppCompatActivity() {
                     "Size: Big-Small" -> currentSort = Pair("size", true)
                     "Size: Small-Big" -> currentSort = Pair("size", false)
                 }
-                adapter.refresh()
+                invalidateSnapshot()
             }
             override fun onNothingSelected(parent: AdapterView<*>?) {}
         }
@@ -218,7 +225,7 @@ class MessengerMediaActivity : AppCompatActivity() {
                 } else Long.MAX_VALUE
                 minSize = minSizeEdit.text.toString().toLongOrNull()?.times(1024 * 1024) ?: 0
                 maxSize = maxSizeEdit.text.toString().toLongOrNull()?.times(1024 * 1024) ?: Long.MAX_VALUE
-                adapter.refresh()
+                invalidateSnapshot()
             }
             .setNegativeButton("Cancel", null)
             .show()
@@ -280,27 +287,95 @@ class MessengerMediaActivity : AppCompatActivity() {
         binding.selectionCount.visibility = if (selectedUris.isNotEmpty()) View.VISIBLE else View.GONE
     }
 
-    private fun getSelectedFolderUri(appKey: String): Uri {
-        // Replace with your logic to get the base SAF Uri for the appKey
-        // Example: Fetch from SharedPreferences or StatusModule
-        return Uri.parse("content://com.android.externalstorage.documents/tree/primary%3AWhatsApp") // Placeholder
+    // The tree picked through StatusModule's folder picker; one tree covers every app
+    private fun getSelectedFolderUri(): Uri? {
+        val uriStr = getSharedPreferences(StatusModule.PREFS_NAME, MODE_PRIVATE).getString(StatusModule.KEY_URI, null)
+        return uriStr?.let { Uri.parse(it) }
     }
 
-    private fun appKeyToPackageFolder(appKey: String): String {
-        // Map appKey to folder path (e.g., WhatsApp package)
-        return when (appKey) {
-            "whatsapp" -> "com.whatsapp"
-            else -> appKey
+    private data class SnapshotKey(
+        val minDate: Long,
+        val maxDate: Long,
+        val minSize: Long,
+        val maxSize: Long,
+        val sort: Pair<String, Boolean>
+    )
+
+    private fun currentSnapshotKey() = SnapshotKey(minDate, maxDate, minSize, maxSize, currentSort)
+
+    // The folder, filtered and sorted once per filter/sort setting. Parallel arrays keep
+    // 10k entries compact; order holds indices into them in display order.
+    private class FolderSnapshot(
+        val key: SnapshotKey,
+        val uris: Array<String>,
+        val names: Array<String>,
+        val mimes: Array<String>,
+        val sizes: LongArray,
+        val mtimes: LongArray,
+        val order: IntArray
+    ) {
+        val count: Int get() = order.size
+
+        // Media rows plus one ad row after every 17th, the layout the grid always had
+        val displayCount: Int get() = count + count / AD_GROUP
+
+        fun item(position: Int): MediaItem {
+            val group = position / (AD_GROUP + 1)
+            val slot = position % (AD_GROUP + 1)
+            if (slot == AD_GROUP - 1) return MediaItem("", "", 0, 0, "", MediaItem.TYPE_AD)
+            val media = group * AD_GROUP + if (slot == AD_GROUP) AD_GROUP - 1 else slot
+            val i = order[media]
+            return MediaItem(uris[i], names[i], sizes[i], mtimes[i], mimes[i])
         }
     }
 
-    private fun findSubDirByPath(baseDoc: DocumentFile, path: List<String>): DocumentFile? {
-        var currentDoc = baseDoc
-        for (segment in path) {
-            currentDoc = currentDoc.findFile(segment) ?: return null
-            if (!currentDoc.isDirectory) return null
+    @Volatile private var snapshot: FolderSnapshot? = null
+    private val snapshotLock = Mutex()
+
+    // Changing a filter or the sort drops the snapshot; the next load rebuilds it
+    private fun invalidateSnapshot() {
+        snapshot = null
+        adapter.refresh()
+    }
+
+    private suspend fun snapshotFor(key: SnapshotKey): FolderSnapshot {
+        return snapshotLock.withLock {
+            snapshot?.takeIf { it.key == key }
+                ?: withContext(Dispatchers.IO) { buildSnapshot(key) }.also { snapshot = it }
+        }
+    }
+
+    private fun buildSnapshot(key: SnapshotKey): FolderSnapshot {
+        val started = SystemClock.elapsedRealtime()
+        val baseUri = getSelectedFolderUri() ?: throw IllegalStateException("No media folder selected")
+        val root = StatusModule.CLEANUP_PATHS[appKey] ?: throw IllegalStateException("Unknown app: $appKey")
+        val mediaPath = root + folderName.split('/').filter { it.isNotEmpty() }
+        // One children query gives name, mime, size and mtime for the whole folder
+        val children = SafScanner.listChildrenAt(this, baseUri, mediaPath)
+            ?: throw IllegalStateException("Folder not found")
+
+        val files = children.filter { doc ->
+            !doc.isDirectory &&
+                (key.minDate == 0L || doc.lastModified >= key.minDate) &&
+                (key.maxDate == Long.MAX_VALUE || doc.lastModified <= key.maxDate) &&
+                (key.minSize == 0L || doc.size >= key.minSize) &&
+                (key.maxSize == Long.MAX_VALUE || doc.size <= key.maxSize)
         }
-        return currentDoc
+        val n = files.size
+        val uris = Array(n) { files[it].uri.toString() }
+        val names = Array(n) { files[it].name }
+        val mimes = Array(n) { MediaTypeClassifier.classify(files[it].name, files[it].mimeType, folderName)?.mime ?: files[it].mimeType }
+        val sizes = LongArray(n) { files[it].size }
+        val mtimes = LongArray(n) { files[it].lastModified }
+
+        val values = if (key.sort.first == "size") sizes else mtimes
+        val descending = key.sort.second
+        val sorted = (0 until n).sortedWith { a, b ->
+            if (descending) values[b].compareTo(values[a]) else values[a].compareTo(values[b])
+        }
+        val snapshot = FolderSnapshot(key, uris, names, mimes, sizes, mtimes, sorted.toIntArray())
+        Log.d("MediaPagingSource", "Snapshot of $folderName: $n of ${children.size} entries in ${SystemClock.elapsedRealtime() - started}ms")
+        return snapshot
     }
 
     inner class MediaPagingSource : PagingSource<Int, MediaItem>() {
@@ -314,51 +389,15 @@ class MessengerMediaActivity : AppCompatActivity() {
         override suspend fun load(params: LoadParams<Int>): LoadResult<Int, MediaItem> {
             val page = params.key ?: 0
             return try {
-                val baseUri = getSelectedFolderUri(appKey)
-                val baseDoc = DocumentFile.fromTreeUri(this@MessengerMediaActivity, baseUri)
-                if (baseDoc == null || !baseDoc.isDirectory) {
-                    return LoadResult.Error(Exception("Base folder not accessible"))
-                }
-
-                val mediaPath = listOf(appKeyToPackageFolder(appKey), "WhatsApp", "Media", folderName)
-                val folderDoc = findSubDirByPath(baseDoc, mediaPath)
-                if (folderDoc == null || !folderDoc.isDirectory) {
-                    return LoadResult.Error(Exception("Folder not found"))
-                }
-
-                val files: List<DocumentFile> = folderDoc.listFiles().filter { doc: DocumentFile ->
-                    doc.isFile
-                }.filter { doc: DocumentFile ->
-                    minDate == 0L || doc.lastModified() >= minDate
-                }.filter { doc: DocumentFile ->
-                    maxDate == Long.MAX_VALUE || doc.lastModified() <= maxDate
-                }.filter { doc: DocumentFile ->
-                    minSize == 0L || doc.length() >= minSize
-                }.filter { doc: DocumentFile ->
-                    maxSize == Long.MAX_VALUE || doc.length() <= maxSize
-                }.sortedWith(Comparator { a: DocumentFile, b: DocumentFile ->
-                    when (currentSort.first) {
-                        "date" -> if (currentSort.second) b.lastModified().compareTo(a.lastModified()) else a.lastModified().compareTo(b.lastModified())
-                        "size" -> if (currentSort.second) b.length().compareTo(a.length()) else a.length().compareTo(b.length())
-                        else -> 0
-                    }
-                })
-
-                val mediaItems: List<MediaItem> = files.mapIndexed { index: Int, doc: DocumentFile ->
-                    if ((index + 1) % 18 == 0) {
-                        listOf(
-                            MediaItem("", "", 0, 0, "", MediaItem.TYPE_AD),
-                            MediaItem(doc.uri.toString(), doc.name ?: "", doc.length(), doc.lastModified(), doc.type ?: "")
-                        )
-                    } else {
-                        listOf(MediaItem(doc.uri.toString(), doc.name ?: "", doc.length(), doc.lastModified(), doc.type ?: ""))
-                    }
-                }.flatten().drop(page * 30).take(30)
+                val snap = snapshotFor(currentSnapshotKey())
+                val from = page * PAGE_SIZE
+                val to = minOf(from + PAGE_SIZE, snap.displayCount)
+                val mediaItems = if (from < to) (from until to).map { snap.item(it) } else emptyList()
 
                 LoadResult.Page(
                     data = mediaItems,
                     prevKey = if (page == 0) null else page - 1,
-                    nextKey = if (mediaItems.size < 30) null else page + 1
+                    nextKey = if (to >= snap.displayCount) null else page + 1
                 )
             } catch (e: Exception) {
                 Log.e("MediaPagingSource", "Load error", e)
@@ -412,16 +451,15 @@ class MessengerMediaActivity : AppCompatActivity() {
                 sizeText.text = "${(item.size / (1024 * 1024)).toInt()} MB"
 
                 if (item.mimeType.startsWith("image/")) {
-                    Glide.with(imageView.context)
-                        .load(item.uri)
-                        .placeholder(R.drawable.ic_image_placeholder)
-                        .into(imageView)
+                    ThumbnailService.load(imageView, item.uri, item.mimeType, item.size, item.timestamp, R.drawable.ic_image_placeholder)
                     videoIcon.visibility = View.GONE
                 } else if (item.mimeType.startsWith("video/")) {
-                    imageView.setImageResource(R.drawable.ic_video_placeholder)
+                    ThumbnailService.load(imageView, item.uri, item.mimeType, item.size, item.timestamp, R.drawable.ic_video_placeholder)
                     videoIcon.visibility = View.VISIBLE
                     videoIcon.text = "🎥"
                 } else {
+                    // Drop any thumbnail still pending for this recycled view
+                    imageView.tag = null
                     imageView.setImageResource(R.drawable.ic_image_placeholder)
                     videoIcon.visibility = View.VISIBLE
                     videoIcon.text = if (item.mimeType.startsWith("audio/")) "🎵" else "📄"
@@ -455,6 +493,10 @@ class MessengerMediaActivity : AppCompatActivity() {
     }
 
     companion object {
+        private const val PAGE_SIZE = 30
+        // An ad row follows every 17th media item (after 17, before the 18th)
+        private const val AD_GROUP = 18
+
         val DIFF_CALLBACK = object : DiffUtil.ItemCallback<MediaItem>() {
             override fun areItemsTheSame(oldItem: MediaItem, newItem: MediaItem): Boolean {
                 return oldItem.uri == newItem.uri && oldItem.type == newItem.type
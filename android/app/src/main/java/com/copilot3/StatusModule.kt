@@ -7,15 +7,28 @@ import android.media.MediaScannerConnection
 import android.net.Uri
 import android.os.Build
 import android.os.Environment
+import android.os.SystemClock
 import android.provider.DocumentsContract
 import android.util.Log
 import androidx.core.content.FileProvider
 import androidx.documentfile.provider.DocumentFile
 import com.facebook.react.bridge.*
 import com.facebook.react.module.annotations.ReactModule
+import com.facebook.react.modules.core.DeviceEventManagerModule
+import com.copilot3.util.DuplicateFinder
+import com.copilot3.util.MediaDeleter
+import com.copilot3.util.MediaIndexer
+import com.copilot3.util.MediaTypeClassifier
+import com.copilot3.util.ParallelSafScanner
+import com.copilot3.util.SafPathCache
+import com.copilot3.util.SafScanner
+import com.copilot3.util.SimilarImageFinder
+import com.copilot3.util.StorageAnalytics
 import kotlinx.coroutines.*
 import java.io.File
 import java.io.FileOutputStream
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
 
 @ReactModule(name = StatusModule.NAME)
 class StatusModule(private val reactContext: ReactApplicationContext) :
@@ -24,8 +37,18 @@ class StatusModule(private val reactContext: ReactApplicationContext) :
     companion object {
         const val NAME = "StatusModule"
         private const val STATUS_FOLDER_REQUEST = 10001
-        private const val PREFS_NAME = "StatusSaverPrefs"
-        private const val KEY_URI = "persisted_uri"
+        // Also read by MessengerMediaActivity
+        const val PREFS_NAME = "StatusSaverPrefs"
+        const val KEY_URI = "persisted_uri"
+
+        const val EVENT_SCAN_CHUNK = "onCleanupScanChunk"
+        const val EVENT_SCAN_DONE = "onCleanupScanDone"
+        const val EVENT_DUPLICATE_PROGRESS = "onDuplicateScanProgress"
+        const val EVENT_SIMILAR_PROGRESS = "onSimilarScanProgress"
+        const val EVENT_DELETE_PROGRESS = "onDeleteProgress"
+        private const val DEFAULT_CHUNK_SIZE = 200
+        // A partial chunk is still sent once this old, so the first results show up quickly
+        private const val CHUNK_MAX_DELAY_MS = 250L
 
         val APP_PATHS = mapOf(
             "whatsapp" to listOf("com.whatsapp", "WhatsApp", "Media", ".Statuses"),
@@ -55,6 +78,18 @@ class StatusModule(private val reactContext: ReactApplicationContext) :
     private var statusPromise: Promise? = null
     private var selectedScanMode: String = "status"
 
+    // Per-subtree breakdown of the last parallel cleanup scan, for getLastScanStats
+    @Volatile private var lastScan: ParallelSafScanner.ScanResult? = null
+
+    // Running streamed cleanup scans by scan id, for cancelCleanupScan
+    private val cleanupScans = ConcurrentHashMap<String, Job>()
+
+    // The running findDuplicateMedia, if any; a new call replaces it
+    @Volatile private var duplicateJob: Job? = null
+
+    // The running findSimilarImages, if any; a new call replaces it
+    @Volatile private var similarJob: Job? = null
+
     init {
         reactContext.addActivityEventListener(object : BaseActivityEventListener() {
             override fun onActivityResult(activity: Activity?, requestCode: Int, resultCode: Int, data: Intent?) {
@@ -68,6 +103,10 @@ class StatusModule(private val reactContext: ReactApplicationContext) :
     @ReactMethod
     fun openStatusFolderPicker(mode: String, promise: Promise) {
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+            if (mode == "cleanup-stream") {
+                promise.resolve(launchCleanupScan(null, CLEANUP_PATHS, DEFAULT_CHUNK_SIZE))
+                return
+            }
             val result = if (mode == "cleanup") loadLegacyCleanupMedia() else loadFromLegacyStorage()
             promise.resolve(result)
             return
@@ -105,6 +144,7 @@ class StatusModule(private val reactContext: ReactApplicationContext) :
                 val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
                 prefs.edit().putString(KEY_URI, uri.toString()).apply()
                 Log.d("StatusModule", "✅ Persisted URI: ${uri.toString()}")
+                MediaIndexer.refreshAllAsync(context, uri, CLEANUP_PATHS)
 
                 val doc = DocumentFile.fromTreeUri(context, uri)
                 if (doc == null || !doc.isDirectory || !doc.canRead()) {
@@ -114,13 +154,30 @@ class StatusModule(private val reactContext: ReactApplicationContext) :
                     return
                 }
 
-                val result = when (selectedScanMode) {
-                    "cleanup" -> scanAllMediaExceptStatuses(uri)
-                    else -> scanStatusesOnly(uri)
+                // Streaming mode answers with the scan id; results follow as events
+                if (selectedScanMode == "cleanup-stream") {
+                    statusPromise?.resolve(launchCleanupScan(uri, CLEANUP_PATHS, DEFAULT_CHUNK_SIZE))
+                    statusPromise = null
+                    return
                 }
 
-                Log.d("StatusModule", "✅ Folder scan completed: ${result.size()} items")
-                statusPromise?.resolve(result)
+                // Scan off the UI thread; the promise is handed to the coroutine
+                val promise = statusPromise
+                val mode = selectedScanMode
+                CoroutineScope(Dispatchers.IO).launch {
+                    try {
+                        val result = when (mode) {
+                            "cleanup" -> scanAllMediaExceptStatuses(uri)
+                            else -> scanStatusesOnly(uri)
+                        }
+
+                        Log.d("StatusModule", "✅ Folder scan completed: ${result.size()} items")
+                        promise?.resolve(result)
+                    } catch (e: Exception) {
+                        Log.e("StatusModule", "💥 Failed to scan folder: ${e.message}", e)
+                        promise?.reject("PROCESS_FAILED", "Failed to process folder: ${e.message}")
+                    }
+                }
             } catch (e: Exception) {
                 Log.e("StatusModule", "💥 Failed to process folder: ${e.message}", e)
                 statusPromise?.reject("PROCESS_FAILED", "Failed to process folder: ${e.message}")
@@ -209,7 +266,7 @@ class StatusModule(private val reactContext: ReactApplicationContext) :
             }
 
             try {
-                val files = doc.listFiles()
+                val files = SafScanner.listChildren(context, uri, SafScanner.rootDocumentId(uri))
                 Log.d("StatusModule", "✅ URI is valid, found ${files.size} items: $uriString")
                 promise.resolve(true)
             } catch (e: Exception) {
@@ -246,41 +303,57 @@ class StatusModule(private val reactContext: ReactApplicationContext) :
                 }
 
                 val mediaPath = getMediaPathForApp(appKey, folderName)
-                val folderDoc = findSubDirByPath(baseDoc, mediaPath)
+                val app = appKey.lowercase()
+
+                // Filtered and paged in SQL when the folder is in the media index
+                val indexFolder = indexFolderFor(app, mediaPath)
+                val indexed = if (indexFolder != null && ensureIndexed(baseUri, app)) {
+                    MediaIndexer.filesInFolder(
+                        reactContext, app, indexFolder,
+                        minDate.toLong(), maxDate.toLong(), minSize.toLong(), maxSize.toLong(),
+                        offset, limit
+                    )
+                } else null
+
+                val page = indexed ?: run {
+                    val allFiles = SafScanner.listChildrenAt(reactContext, baseUri, mediaPath)
+
+                    if (allFiles == null) {
+                        Log.e("StatusModule", "Folder not found: $appKey/$folderName")
+                        promise.reject("FOLDER_NOT_FOUND", "Could not find folder: $folderName")
+                        return@launch
+                    }
 
-                if (folderDoc == null || !folderDoc.isDirectory) {
-                    Log.e("StatusModule", "Folder not found: $appKey/$folderName")
-                    promise.reject("FOLDER_NOT_FOUND", "Could not find folder: $folderName")
-                    return@launch
+                    Log.d("StatusModule", "Found ${allFiles.size} files in $folderName")
+
+                    val filtered = allFiles
+                        .filter { !it.isDirectory }
+                        .filter { minDate == 0.0 || it.lastModified.toDouble() >= minDate }
+                        .filter { maxDate == 0.0 || it.lastModified.toDouble() <= maxDate }
+                        .filter { minSize == 0.0 || it.size.toDouble() >= minSize }
+                        .filter { maxSize == 0.0 || it.size.toDouble() <= maxSize }
+                        .drop(offset)
+                        .take(limit)
+                    MediaIndexer.FolderPage(filtered, allFiles.size)
                 }
+                val filteredFiles = page.files
 
-                val allFiles = folderDoc.listFiles()
-                Log.d("StatusModule", "Found ${allFiles.size} files in $folderName")
-
-                val filteredFiles = allFiles
-                    .filter { it.isFile }
-                    .filter { minDate == 0.0 || it.lastModified().toDouble() >= minDate }
-                    .filter { maxDate == 0.0 || it.lastModified().toDouble() <= maxDate }
-                    .filter { minSize == 0.0 || it.length().toDouble() >= minSize }
-                    .filter { maxSize == 0.0 || it.length().toDouble() <= maxSize }
-                    .drop(offset)
-                    .take(limit)
-
-                Log.d("StatusModule", "Filtered and paginated: ${filteredFiles.size} items")
+                Log.d("StatusModule", "Filtered and paginated: ${filteredFiles.size} items (indexed=${indexed != null})")
 
                 val items = Arguments.createArray()
                 var totalSize = 0L
 
                 for (file in filteredFiles) {
                     val map = Arguments.createMap()
-                    map.putString("name", file.name ?: "Unknown")
+                    map.putString("name", file.name.ifEmpty { "Unknown" })
                     map.putString("uri", file.uri.toString())
                     map.putString("path", file.uri.toString())
                     map.putBoolean("isDirectory", false)
-                    map.putString("mime", file.type ?: "")
-                    map.putDouble("timestamp", file.lastModified().toDouble())
+                    map.putString("mime", file.mimeType)
+                    map.putString("type", MediaTypeClassifier.classify(file.name, file.mimeType, folderName)?.kind?.label ?: "other")
+                    map.putDouble("timestamp", file.lastModified.toDouble())
 
-                    val size = file.length()
+                    val size = file.size
                     map.putDouble("size", size.toDouble())
                     totalSize += size
 
@@ -290,7 +363,7 @@ class StatusModule(private val reactContext: ReactApplicationContext) :
                 val result = Arguments.createMap()
                 result.putArray("items", items)
                 result.putDouble("totalSize", totalSize.toDouble())
-                result.putInt("totalCount", allFiles.size) // Total before pagination
+                result.putInt("totalCount", page.totalCount) // Total before pagination
                 promise.resolve(result)
             } catch (e: Exception) {
                 Log.e("StatusModule", "❌ getMediaInFolderPaged failed", e)
@@ -323,16 +396,16 @@ class StatusModule(private val reactContext: ReactApplicationContext) :
             val input = reactContext.contentResolver.openInputStream(uri)
                 ?: throw Exception("Failed to open input stream")
 
-            val ext = uriString.substringAfterLast('.', "jpg").take(5).lowercase()
-            val mime = when (ext) {
-                "jpg", "jpeg" -> "image/jpeg"
-                "png", "webp" -> "image/$ext"
-                "mp4" -> "video/mp4"
-                else -> "*/*"
-            }
+            val type = MediaTypeClassifier.classify(reactContext, uri)
+            val ext = type?.extension ?: uriString.substringAfterLast('.', "jpg").take(5).lowercase()
+            val mime = type?.mime ?: "*/*"
 
             val mediaDir = Environment.getExternalStoragePublicDirectory(
-                if (mime.startsWith("video")) Environment.DIRECTORY_MOVIES else Environment.DIRECTORY_PICTURES
+                when {
+                    mime.startsWith("video") -> Environment.DIRECTORY_MOVIES
+                    mime.startsWith("audio") -> Environment.DIRECTORY_MUSIC
+                    else -> Environment.DIRECTORY_PICTURES
+                }
             )
             val subFolder = File(mediaDir, "StatusSaver").apply { mkdirs() }
 
@@ -371,7 +444,8 @@ class StatusModule(private val reactContext: ReactApplicationContext) :
             val input = reactContext.contentResolver.openInputStream(uri)
                 ?: throw Exception("Failed to open URI")
 
-            val ext = uriString.substringAfterLast('.', "jpg").take(5)
+            val type = MediaTypeClassifier.classify(reactContext, uri)
+            val ext = type?.extension ?: uriString.substringAfterLast('.', "jpg").take(5)
             val fileName = "shared_${System.currentTimeMillis()}.$ext"
             val outFile = File(reactContext.cacheDir, fileName)
 
@@ -383,13 +457,7 @@ class StatusModule(private val reactContext: ReactApplicationContext) :
                 outFile
             )
 
-            val mime = when (ext.lowercase()) {
-                "jpg", "jpeg" -> "image/jpeg"
-                "png" -> "image/png"
-                "webp" -> "image/webp"
-                "mp4" -> "video/mp4"
-                else -> "*/*"
-            }
+            val mime = type?.mime ?: "*/*"
 
             val result = WritableNativeMap().apply {
                 putString("uri", outUri.toString())
@@ -432,7 +500,7 @@ class StatusModule(private val reactContext: ReactApplicationContext) :
                     val dir = parts.fold(mediaRoot) { acc, part -> File(acc, part) }
                     if (dir.exists() && dir.isDirectory) {
                         dir.walkTopDown().filter {
-                            it.isFile && it.name.matches(Regex(""".*\.(jpg|jpeg|png|webp|mp4)""", RegexOption.IGNORE_CASE))
+                            it.isFile && MediaTypeClassifier.isVisual(it.name)
                         }.forEach { file ->
                             val map = WritableNativeMap().apply {
                                 putString("app", key)
@@ -456,27 +524,24 @@ class StatusModule(private val reactContext: ReactApplicationContext) :
                 return
             }
 
-            val root = DocumentFile.fromTreeUri(context, Uri.parse(uriStr))
+            val treeUri = Uri.parse(uriStr)
+            val root = DocumentFile.fromTreeUri(context, treeUri)
             if (root == null || !root.isDirectory) {
                 promise.reject("INVALID_ROOT", "SAF root directory is invalid")
                 return
             }
 
-            logDocumentTree(root)
-
-            for ((appKey, parts) in CLEANUP_PATHS) {
-                val mediaFolder = findSubDirByPath(root, parts)
-                if (mediaFolder == null || !mediaFolder.isDirectory) {
-                    Log.d("StatusModule", "❌ Media folder not found for $appKey")
-                    continue
+            CoroutineScope(Dispatchers.IO).launch {
+                try {
+                    val scan = scanCleanupTree(treeUri, skipStatuses = false, limit = 500)
+                    for (file in scan.files) resultArray.pushMap(scannedFileMap(file))
+                    Log.d("StatusModule", "✅ Resolving with ${resultArray.size()} items")
+                    promise.resolve(resultArray)
+                } catch (e: Exception) {
+                    Log.e("StatusModule", "💥 Error in listCleanupMedia: ${e.message}", e)
+                    promise.reject("LOAD_FAILED", e.message)
                 }
-
-                Log.d("StatusModule", "📦 Found Media folder for $appKey: ${mediaFolder.uri}")
-                collectMediaFilesRecursively(mediaFolder, appKey, resultArray, maxFiles = 500)
             }
-
-            Log.d("StatusModule", "✅ Resolving with ${resultArray.size()} items")
-            promise.resolve(resultArray)
         } catch (e: Exception) {
             Log.e("StatusModule", "💥 Error in listCleanupMedia: ${e.message}", e)
             promise.reject("LOAD_FAILED", e.message)
@@ -498,7 +563,7 @@ class StatusModule(private val reactContext: ReactApplicationContext) :
                     val dir = parts.fold(mediaRoot) { acc, part -> File(acc, part) }
                     dir.walkTopDown()
                         .filter {
-                            it.isFile && it.name.matches(Regex(""".*\.(jpg|jpeg|png|webp|mp4)""", RegexOption.IGNORE_CASE))
+                            it.isFile && MediaTypeClassifier.isVisual(it.name)
                         }.forEach { file ->
                             seen[0]++
                             if (seen[0] <= startAt) return@forEach
@@ -528,113 +593,551 @@ class StatusModule(private val reactContext: ReactApplicationContext) :
                 return
             }
 
-            val root = DocumentFile.fromTreeUri(context, Uri.parse(uriStr))
+            val treeUri = Uri.parse(uriStr)
+            val root = DocumentFile.fromTreeUri(context, treeUri)
             if (root == null || !root.isDirectory) {
                 promise.reject("INVALID_ROOT", "SAF root directory is invalid")
                 return
             }
 
-            for ((appKey, parts) in CLEANUP_PATHS) {
-                val mediaFolder = findSubDirByPath(root, parts)
-                if (mediaFolder == null || !mediaFolder.isDirectory) {
-                    Log.d("StatusModule", "❌ Media folder not found for $appKey")
-                    continue
-                }
+            CoroutineScope(Dispatchers.IO).launch {
+                try {
+                    // Paged in SQL from the media index; a full scan only if some app can't be indexed
+                    if (CLEANUP_PATHS.keys.all { ensureIndexed(treeUri, it) }) {
+                        for (file in MediaIndexer.cleanupPage(context, CLEANUP_PATHS.keys, startAt, maxFiles)) {
+                            val map = WritableNativeMap().apply {
+                                putString("uri", file.uri)
+                                putString("name", file.name)
+                                putString("app", file.app)
+                                putDouble("timestamp", file.mtime.toDouble())
+                                putString("folder", file.folder)
+                                putString("type", file.kind ?: "other")
+                            }
+                            resultArray.pushMap(map)
+                        }
+                        Log.d("StatusModule", "✅ Collected ${resultArray.size()} items from index")
+                        promise.resolve(resultArray)
+                        return@launch
+                    }
 
-                Log.d("StatusModule", "📦 Found Media folder for $appKey: ${mediaFolder.uri}")
-                collectMediaFilesRecursivelyPaged(
-                    dir = mediaFolder,
-                    appKey = appKey,
-                    resultArray = resultArray,
-                    currentFolder = "",
-                    startAt = startAt,
-                    maxFiles = maxFiles,
-                    count = collected,
-                    seen = seen
-                )
+                    val scan = scanCleanupTree(treeUri, skipStatuses = false, limit = (startAt.toLong() + maxFiles).coerceAtMost(Int.MAX_VALUE.toLong()).toInt())
+                    for (file in scan.files.drop(startAt)) resultArray.pushMap(scannedFileMap(file))
+                    Log.d("StatusModule", "✅ Collected ${resultArray.size()} items")
+                    promise.resolve(resultArray)
+                } catch (e: Exception) {
+                    Log.e("StatusModule", "💥 Error in listCleanupMediaPaged: ${e.message}", e)
+                    promise.reject("LOAD_FAILED", e.message)
+                }
             }
-
-            Log.d("StatusModule", "✅ Collected ${resultArray.size()} items")
-            promise.resolve(resultArray)
         } catch (e: Exception) {
             Log.e("StatusModule", "💥 Error in listCleanupMediaPaged: ${e.message}", e)
             promise.reject("LOAD_FAILED", e.message)
         }
     }
 
-    private fun collectMediaFilesRecursivelyPaged(
-        dir: DocumentFile?,
-        appKey: String,
-        resultArray: WritableArray,
-        currentFolder: String = "",
-        startAt: Int = 0,
-        maxFiles: Int = 500,
-        count: IntArray,
-        seen: IntArray
-    ) {
-        if (dir == null || !dir.isDirectory) return
+    // Walks every app's cleanup tree in parallel (see ParallelSafScanner) and keeps the
+    // timing breakdown for getLastScanStats. The walk stops once the caps are filled.
+    private suspend fun scanCleanupTree(
+        treeUri: Uri,
+        skipStatuses: Boolean,
+        limit: Int = Int.MAX_VALUE,
+        subtreeLimit: Int = Int.MAX_VALUE
+    ): ParallelSafScanner.ScanResult {
+        val result = ParallelSafScanner.scan(
+            reactContext,
+            treeUri,
+            CLEANUP_PATHS,
+            accept = { MediaTypeClassifier.isVisual(it.name, it.mimeType) },
+            skipDir = { skipStatuses && it == ".Statuses" },
+            rootFiles = !skipStatuses,
+            limit = limit,
+            subtreeLimit = subtreeLimit
+        )
+        lastScan = result
+        return result
+    }
 
-        val files = dir.listFiles()
-        Log.d("StatusModule", "📂 Entering ${dir.name} - ${files.size} items")
+    private fun scannedFileMap(file: ParallelSafScanner.ScannedFile): WritableMap {
+        return WritableNativeMap().apply {
+            putString("uri", file.entry.uri.toString())
+            putString("name", file.entry.name)
+            putString("app", file.app)
+            putDouble("timestamp", file.entry.lastModified.toDouble())
+            putDouble("size", file.entry.size.toDouble())
+            putString("folder", file.folder)
+            putString("type", MediaTypeClassifier.classify(file.entry.name, file.entry.mimeType, file.folder)?.kind?.label ?: "other")
+        }
+    }
 
-        for (file in files) {
-            if (count[0] >= maxFiles) return
+    @ReactMethod
+    fun getLastScanStats(promise: Promise) {
+        val scan = lastScan
+        if (scan == null) {
+            promise.resolve(null)
+            return
+        }
+        val subtrees = Arguments.createArray()
+        for (t in scan.timings.sortedByDescending { it.durationMs }) {
+            subtrees.pushMap(Arguments.createMap().apply {
+                putString("app", t.app)
+                putString("folder", t.folder)
+                putInt("files", t.files)
+                putInt("directories", t.directories)
+                putDouble("durationMs", t.durationMs.toDouble())
+            })
+        }
+        val result = Arguments.createMap()
+        result.putInt("files", scan.fileCount)
+        result.putDouble("durationMs", scan.durationMs.toDouble())
+        result.putArray("subtrees", subtrees)
+        promise.resolve(result)
+    }
 
-            if (file.isDirectory) {
-                collectMediaFilesRecursivelyPaged(file, appKey, resultArray, "$currentFolder/${file.name}", startAt, maxFiles, count, seen)
-            } else if (file.name?.matches(Regex(""".*\.(jpg|jpeg|png|webp|mp4|mov)""", RegexOption.IGNORE_CASE)) == true) {
-                seen[0]++
-                if (seen[0] <= startAt) continue
+    // ====== Streamed cleanup scan ======
+    // Resolves a scan id at once and delivers the whole cleanup tree (or one app's, when
+    // appKey is given) as onCleanupScanChunk events ({scanId, index, items}) followed by one
+    // onCleanupScanDone ({scanId, total, chunks, durationMs, cancelled, error}). Nothing is
+    // capped or held back for the end.
 
-                val map = WritableNativeMap().apply {
-                    putString("uri", file.uri.toString())
-                    putString("name", file.name)
-                    putString("app", appKey)
-                    putDouble("timestamp", file.lastModified().toDouble())
-                    putString("folder", currentFolder)
+    @ReactMethod
+    fun startCleanupScan(appKey: String?, chunkSize: Int, promise: Promise) {
+        try {
+            val roots = if (appKey.isNullOrEmpty()) {
+                CLEANUP_PATHS
+            } else {
+                val key = appKey.lowercase()
+                val path = CLEANUP_PATHS[key]
+                if (path == null) {
+                    promise.reject("INVALID_APP", "Unknown app: $appKey")
+                    return
                 }
-                resultArray.pushMap(map)
-                count[0]++
+                mapOf(key to path)
+            }
+            var treeUri: Uri? = null
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                val uriStr = reactContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).getString(KEY_URI, null)
+                if (uriStr == null) {
+                    promise.reject("NO_URI", "No SAF folder selected")
+                    return
+                }
+                treeUri = Uri.parse(uriStr)
             }
+            promise.resolve(launchCleanupScan(treeUri, roots, if (chunkSize > 0) chunkSize else DEFAULT_CHUNK_SIZE))
+        } catch (e: Exception) {
+            Log.e("StatusModule", "💥 Error in startCleanupScan: ${e.message}", e)
+            promise.reject("SCAN_FAILED", e.message)
         }
     }
 
-    private fun collectMediaFilesRecursively(
-        dir: DocumentFile?,
-        appKey: String,
-        resultArray: WritableArray,
-        currentFolder: String = "",
-        maxFiles: Int = 500,
-        count: IntArray = intArrayOf(0)
-    ) {
-        if (dir == null || !dir.isDirectory) return
+    @ReactMethod
+    fun cancelCleanupScan(scanId: String, promise: Promise) {
+        val job = cleanupScans.remove(scanId)
+        job?.cancel()
+        promise.resolve(job != null)
+    }
 
-        val files = dir.listFiles()
-        Log.d("StatusModule", "📂 Entering ${dir.name} - ${files.size} items")
+    // Required by NativeEventEmitter
+    @ReactMethod
+    fun addListener(eventName: String) {}
 
-        for (file in files) {
-            if (count[0] >= maxFiles) {
-                Log.w("StatusModule", "⚠️ Max file limit reached ($maxFiles)")
-                return
+    @ReactMethod
+    fun removeListeners(count: Int) {}
+
+    // treeUri is null below Android 11, where the media folders are read directly
+    private fun launchCleanupScan(treeUri: Uri?, roots: Map<String, List<String>>, chunkSize: Int): String {
+        val scanId = UUID.randomUUID().toString()
+        val chunker = ScanChunker(scanId, chunkSize)
+        val started = SystemClock.elapsedRealtime()
+        val job = CoroutineScope(Dispatchers.IO).launch(start = CoroutineStart.LAZY) {
+            var error: String? = null
+            try {
+                if (treeUri == null) {
+                    streamLegacyCleanupMedia(roots, chunker)
+                } else {
+                    lastScan = ParallelSafScanner.scan(
+                        reactContext,
+                        treeUri,
+                        roots,
+                        accept = { MediaTypeClassifier.isVisual(it.name, it.mimeType) },
+                        keepFiles = false,
+                        onFiles = { files -> chunker.addAll(files.map { scannedFileMap(it) }) }
+                    )
+                }
+            } catch (e: CancellationException) {
+                Log.d("StatusModule", "⏹️ Cleanup scan $scanId cancelled")
+            } catch (e: Exception) {
+                Log.e("StatusModule", "💥 Cleanup scan $scanId failed: ${e.message}", e)
+                error = e.message ?: "Scan failed"
+            } finally {
+                val cancelled = !isActive
+                if (!cancelled) chunker.flush()
+                cleanupScans.remove(scanId)
+                val done = Arguments.createMap().apply {
+                    putString("scanId", scanId)
+                    putInt("total", chunker.total)
+                    putInt("chunks", chunker.chunks)
+                    putDouble("durationMs", (SystemClock.elapsedRealtime() - started).toDouble())
+                    putBoolean("cancelled", cancelled)
+                    if (error != null) putString("error", error) else putNull("error")
+                }
+                emitEvent(EVENT_SCAN_DONE, done)
+                Log.d("StatusModule", "✅ Cleanup scan $scanId streamed ${chunker.total} items in ${chunker.chunks} chunks")
             }
+        }
+        // Registered before it runs so a cancel right after the promise resolves finds it
+        cleanupScans[scanId] = job
+        job.start()
+        return scanId
+    }
 
-            if (file.isDirectory) {
-                collectMediaFilesRecursively(file, appKey, resultArray, "$currentFolder/${file.name}", maxFiles, count)
-            } else if (file.name?.matches(Regex(""".*\.(jpg|jpeg|png|webp|mp4|mov)""", RegexOption.IGNORE_CASE)) == true) {
-                Log.d("StatusModule", "🖼️ Found: ${file.name} in $currentFolder")
-                val map = WritableNativeMap().apply {
-                    putString("uri", file.uri.toString())
+    // Blocking File walk; checks for cancelCleanupScan between files
+    private suspend fun streamLegacyCleanupMedia(roots: Map<String, List<String>>, chunker: ScanChunker) {
+        val mediaRoot = File(Environment.getExternalStorageDirectory(), "Android/media")
+        for ((key, parts) in roots) {
+            val dir = parts.fold(mediaRoot) { acc, part -> File(acc, part) }
+            if (!dir.exists() || !dir.isDirectory) continue
+            dir.walkTopDown().forEach { file ->
+                currentCoroutineContext().ensureActive()
+                if (!file.isFile || !MediaTypeClassifier.isVisual(file.name)) return@forEach
+                chunker.add(WritableNativeMap().apply {
+                    putString("app", key)
+                    putString("uri", Uri.fromFile(file).toString())
                     putString("name", file.name)
-                    putString("app", appKey)
                     putDouble("timestamp", file.lastModified().toDouble())
-                    putString("folder", currentFolder)
+                    putDouble("size", file.length().toDouble())
+                    putString("folder", file.parentFile?.name ?: "Unknown")
+                })
+            }
+        }
+    }
+
+    // Buffers scan results from the scanner's IO threads and emits them in chunks
+    private inner class ScanChunker(private val scanId: String, private val chunkSize: Int) {
+        private var buffer = ArrayList<WritableMap>(chunkSize)
+        private var lastEmit = SystemClock.elapsedRealtime()
+        var total = 0
+            private set
+        var chunks = 0
+            private set
+
+        fun add(item: WritableMap) = addAll(listOf(item))
+
+        @Synchronized
+        fun addAll(items: List<WritableMap>) {
+            for (item in items) {
+                buffer.add(item)
+                total++
+                if (buffer.size >= chunkSize) emitBuffer()
+            }
+            if (buffer.isNotEmpty() && SystemClock.elapsedRealtime() - lastEmit >= CHUNK_MAX_DELAY_MS) emitBuffer()
+        }
+
+        @Synchronized
+        fun flush() {
+            if (buffer.isNotEmpty()) emitBuffer()
+        }
+
+        private fun emitBuffer() {
+            val items = WritableNativeArray()
+            for (item in buffer) items.pushMap(item)
+            buffer = ArrayList(chunkSize)
+            lastEmit = SystemClock.elapsedRealtime()
+            emitEvent(EVENT_SCAN_CHUNK, Arguments.createMap().apply {
+                putString("scanId", scanId)
+                putInt("index", chunks++)
+                putArray("items", items)
+            })
+        }
+    }
+
+    // ====== Duplicate finder ======
+    // Byte-identical files across the cleanup tree (see DuplicateFinder), largest savings
+    // first. Progress arrives as onDuplicateScanProgress ({phase, done, total}); hashes are
+    // kept, so calling again after a cancel resumes instead of starting over.
+
+    @ReactMethod
+    fun findDuplicateMedia(minSize: Double, promise: Promise) {
+        duplicateJob?.cancel()
+        duplicateJob = CoroutineScope(Dispatchers.IO).launch {
+            try {
+                val min = maxOf(1L, minSize.toLong())
+                val fromIndex: Boolean
+                val candidates: List<MediaIndexer.IndexedFile>
+                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+                    fromIndex = false
+                    candidates = legacyCleanupFiles().filter { it.size >= min }
+                } else {
+                    val uriStr = reactContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).getString(KEY_URI, null)
+                    if (uriStr == null) {
+                        promise.reject("NO_URI", "No SAF folder selected")
+                        return@launch
+                    }
+                    val treeUri = Uri.parse(uriStr)
+                    fromIndex = CLEANUP_PATHS.keys.all { ensureIndexed(treeUri, it) }
+                    candidates = if (fromIndex) {
+                        MediaIndexer.sizeCollisions(reactContext, CLEANUP_PATHS.keys, min)
+                    } else {
+                        ParallelSafScanner.scan(reactContext, treeUri, CLEANUP_PATHS, accept = { it.size >= min })
+                            .files.map { indexedFileOf(it) }
+                    }
                 }
-                resultArray.pushMap(map)
-                count[0] += 1
+
+                val result = DuplicateFinder.find(reactContext, candidates) { phase, done, total ->
+                    emitEvent(EVENT_DUPLICATE_PROGRESS, Arguments.createMap().apply {
+                        putString("phase", phase)
+                        putInt("done", done)
+                        putInt("total", total)
+                    })
+                }
+                if (fromIndex) DuplicateFinder.sweepOrphans(reactContext)
+
+                val groups = Arguments.createArray()
+                for (group in result.groups) {
+                    val files = Arguments.createArray()
+                    for (file in group.files.sortedBy { it.mtime }) files.pushMap(indexedFileMap(file))
+                    groups.pushMap(Arguments.createMap().apply {
+                        putString("hash", group.hash)
+                        putDouble("size", group.size.toDouble())
+                        putDouble("reclaimableBytes", group.reclaimableBytes.toDouble())
+                        putArray("files", files)
+                    })
+                }
+                val map = Arguments.createMap().apply {
+                    putArray("groups", groups)
+                    putDouble("reclaimableBytes", result.reclaimableBytes.toDouble())
+                    putInt("candidates", result.candidates)
+                    putInt("hashed", result.hashed)
+                    putInt("reused", result.reused)
+                    putDouble("durationMs", result.durationMs.toDouble())
+                }
+                Log.d("StatusModule", "✅ Found ${result.groups.size} duplicate groups")
+                promise.resolve(map)
+            } catch (e: CancellationException) {
+                promise.reject("CANCELLED", "Duplicate scan cancelled")
+            } catch (e: Exception) {
+                Log.e("StatusModule", "💥 Error in findDuplicateMedia: ${e.message}", e)
+                promise.reject("DUPLICATE_SCAN_FAILED", e.message)
             }
         }
     }
 
+    @ReactMethod
+    fun cancelDuplicateScan(promise: Promise) {
+        val job = duplicateJob
+        duplicateJob = null
+        job?.cancel()
+        promise.resolve(job != null)
+    }
+
+    // ====== Similar images ======
+    // Clusters of near-identical photos (see SimilarImageFinder). maxDistance is the
+    // Hamming distance between 64-bit hashes still counted as similar (0 = default).
+    // Progress arrives as onSimilarScanProgress ({done, total}).
+
+    @ReactMethod
+    fun findSimilarImages(maxDistance: Int, promise: Promise) {
+        similarJob?.cancel()
+        similarJob = CoroutineScope(Dispatchers.IO).launch {
+            try {
+                val imageKind = MediaTypeClassifier.Kind.IMAGE.label
+                val fromIndex: Boolean
+                val images: List<MediaIndexer.IndexedFile>
+                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+                    fromIndex = false
+                    images = legacyCleanupFiles().filter { it.kind == imageKind }
+                } else {
+                    val uriStr = reactContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).getString(KEY_URI, null)
+                    if (uriStr == null) {
+                        promise.reject("NO_URI", "No SAF folder selected")
+                        return@launch
+                    }
+                    val treeUri = Uri.parse(uriStr)
+                    fromIndex = CLEANUP_PATHS.keys.all { ensureIndexed(treeUri, it) }
+                    images = if (fromIndex) {
+                        MediaIndexer.filesOfKinds(reactContext, CLEANUP_PATHS.keys, listOf(imageKind))
+                    } else {
+                        ParallelSafScanner.scan(reactContext, treeUri, CLEANUP_PATHS, accept = { MediaTypeClassifier.isVisual(it.name, it.mimeType) })
+                            .files.map { indexedFileOf(it) }.filter { it.kind == imageKind }
+                    }
+                }
+
+                val distance = if (maxDistance > 0) maxDistance else SimilarImageFinder.DEFAULT_MAX_DISTANCE
+                val result = SimilarImageFinder.find(reactContext, images, distance) { done, total ->
+                    emitEvent(EVENT_SIMILAR_PROGRESS, Arguments.createMap().apply {
+                        putInt("done", done)
+                        putInt("total", total)
+                    })
+                }
+                if (fromIndex) SimilarImageFinder.sweepOrphans(reactContext)
+
+                val clusters = Arguments.createArray()
+                for (cluster in result.clusters) {
+                    val files = Arguments.createArray()
+                    for (file in cluster.files) files.pushMap(indexedFileMap(file))
+                    clusters.pushMap(Arguments.createMap().apply {
+                        putDouble("totalBytes", cluster.totalBytes.toDouble())
+                        putArray("files", files)
+                    })
+                }
+                val map = Arguments.createMap().apply {
+                    putArray("clusters", clusters)
+                    putInt("images", result.images)
+                    putInt("hashed", result.hashed)
+                    putInt("reused", result.reused)
+                    putDouble("durationMs", result.durationMs.toDouble())
+                }
+                Log.d("StatusModule", "✅ Found ${result.clusters.size} similar image clusters")
+                promise.resolve(map)
+            } catch (e: CancellationException) {
+                promise.reject("CANCELLED", "Similar image scan cancelled")
+            } catch (e: Exception) {
+                Log.e("StatusModule", "💥 Error in findSimilarImages: ${e.message}", e)
+                promise.reject("SIMILAR_SCAN_FAILED", e.message)
+            }
+        }
+    }
+
+    @ReactMethod
+    fun cancelSimilarScan(promise: Promise) {
+        val job = similarJob
+        similarJob = null
+        job?.cancel()
+        promise.resolve(job != null)
+    }
+
+    // ====== Storage summary ======
+    // Bytes and counts by app, Media folder, type and month plus the topN largest files,
+    // aggregated natively (see StorageAnalytics) and returned in one small map.
+
+    @ReactMethod
+    fun getStorageSummary(topN: Int, promise: Promise) {
+        CoroutineScope(Dispatchers.IO).launch {
+            try {
+                val limit = if (topN > 0) topN else 20
+                val summary = if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+                    val acc = StorageAnalytics.Accumulator(limit)
+                    legacyCleanupFiles().forEach { acc.add(it) }
+                    acc.summary()
+                } else {
+                    val uriStr = reactContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).getString(KEY_URI, null)
+                    if (uriStr == null) {
+                        promise.reject("NO_URI", "No SAF folder selected")
+                        return@launch
+                    }
+                    val treeUri = Uri.parse(uriStr)
+                    if (CLEANUP_PATHS.keys.all { ensureIndexed(treeUri, it) }) {
+                        StorageAnalytics.fromIndex(reactContext, CLEANUP_PATHS.keys, limit)
+                    } else {
+                        val acc = StorageAnalytics.Accumulator(limit)
+                        ParallelSafScanner.scan(
+                            reactContext,
+                            treeUri,
+                            CLEANUP_PATHS,
+                            accept = { true },
+                            keepFiles = false,
+                            onFiles = { files -> files.forEach { acc.add(indexedFileOf(it)) } }
+                        )
+                        acc.summary()
+                    }
+                }
+
+                fun bucketArray(buckets: List<StorageAnalytics.Bucket>): WritableArray {
+                    val array = Arguments.createArray()
+                    for (b in buckets) {
+                        array.pushMap(Arguments.createMap().apply {
+                            putString("key", b.key)
+                            if (b.app != null) putString("app", b.app)
+                            putInt("files", b.files)
+                            putDouble("bytes", b.bytes.toDouble())
+                        })
+                    }
+                    return array
+                }
+                val largest = Arguments.createArray()
+                for (file in summary.largest) largest.pushMap(indexedFileMap(file))
+
+                val map = Arguments.createMap().apply {
+                    putInt("totalFiles", summary.totalFiles)
+                    putDouble("totalBytes", summary.totalBytes.toDouble())
+                    putArray("byApp", bucketArray(summary.byApp))
+                    putArray("byFolder", bucketArray(summary.byFolder))
+                    putArray("byType", bucketArray(summary.byType))
+                    putArray("byMonth", bucketArray(summary.byMonth))
+                    putArray("largest", largest)
+                }
+                Log.d("StatusModule", "✅ Storage summary: ${summary.totalFiles} files, ${summary.totalBytes} bytes")
+                promise.resolve(map)
+            } catch (e: Exception) {
+                Log.e("StatusModule", "💥 Error in getStorageSummary: ${e.message}", e)
+                promise.reject("STORAGE_SUMMARY_FAILED", e.message)
+            }
+        }
+    }
+
+    // Every file under the legacy (pre-Android 11) media folders, shaped like index rows
+    private fun legacyCleanupFiles(): List<MediaIndexer.IndexedFile> {
+        val mediaRoot = File(Environment.getExternalStorageDirectory(), "Android/media")
+        val out = ArrayList<MediaIndexer.IndexedFile>()
+        for ((key, parts) in CLEANUP_PATHS) {
+            val dir = parts.fold(mediaRoot) { acc, part -> File(acc, part) }
+            if (!dir.exists() || !dir.isDirectory) continue
+            dir.walkTopDown().filter { it.isFile }.forEach { file ->
+                val folder = file.parentFile?.relativeTo(dir)?.path?.let { if (it.isEmpty()) "" else "/$it" } ?: ""
+                out.add(
+                    MediaIndexer.IndexedFile(
+                        documentId = file.absolutePath,
+                        uri = Uri.fromFile(file).toString(),
+                        app = key,
+                        folder = folder,
+                        name = file.name,
+                        mime = MediaTypeClassifier.mimeForName(file.name),
+                        kind = MediaTypeClassifier.classify(file.name, null, folder)?.kind?.label,
+                        size = file.length(),
+                        mtime = file.lastModified()
+                    )
+                )
+            }
+        }
+        return out
+    }
+
+    private fun indexedFileOf(file: ParallelSafScanner.ScannedFile): MediaIndexer.IndexedFile {
+        val entry = file.entry
+        return MediaIndexer.IndexedFile(
+            documentId = entry.documentId,
+            uri = entry.uri.toString(),
+            app = file.app,
+            folder = file.folder,
+            name = entry.name,
+            mime = entry.mimeType,
+            kind = MediaTypeClassifier.classify(entry.name, entry.mimeType, file.folder)?.kind?.label,
+            size = entry.size,
+            mtime = entry.lastModified
+        )
+    }
+
+    private fun indexedFileMap(file: MediaIndexer.IndexedFile): WritableMap {
+        return Arguments.createMap().apply {
+            putString("uri", file.uri)
+            putString("name", file.name)
+            putString("app", file.app)
+            putString("folder", file.folder)
+            putString("type", file.kind ?: "other")
+            putDouble("size", file.size.toDouble())
+            putDouble("timestamp", file.mtime.toDouble())
+        }
+    }
+
+    private fun emitEvent(name: String, payload: WritableMap) {
+        if (!reactContext.hasActiveCatalystInstance()) {
+            Log.e("StatusModule", "React context not ready to emit $name")
+            return
+        }
+        reactContext
+            .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter::class.java)
+            .emit(name, payload)
+    }
+
     private fun loadLegacyCleanupMedia(): WritableArray {
         val resultArray = WritableNativeArray()
         val mediaRoot = File(Environment.getExternalStorageDirectory(), "Android/media")
@@ -643,7 +1146,7 @@ class StatusModule(private val reactContext: ReactApplicationContext) :
             val dir = parts.fold(mediaRoot) { acc, part -> File(acc, part) }
             if (dir.exists() && dir.isDirectory) {
                 dir.walkTopDown().filter {
-                    it.isFile && it.name.matches(Regex(""".*\.(jpg|jpeg|png|webp|mp4)""", RegexOption.IGNORE_CASE))
+                    it.isFile && MediaTypeClassifier.isVisual(it.name)
                 }.forEach { file ->
                     val uri = Uri.fromFile(file)
                     val map = WritableNativeMap().apply {
@@ -668,7 +1171,7 @@ class StatusModule(private val reactContext: ReactApplicationContext) :
             val dir = parts.fold(mediaRoot) { acc, part -> File(acc, part) }
             if (dir.exists() && dir.isDirectory) {
                 dir.listFiles()?.filter {
-                    it.isFile && it.name?.matches(Regex(""".*\.(jpg|jpeg|png|webp|mp4)""", RegexOption.IGNORE_CASE)) == true
+                    it.isFile && MediaTypeClassifier.isVisual(it.name)
                 }?.forEach { file ->
                     val uri = Uri.fromFile(file)
                     val map = WritableNativeMap().apply {
@@ -692,10 +1195,10 @@ class StatusModule(private val reactContext: ReactApplicationContext) :
         if (root == null || !root.isDirectory) return resultArray
 
         for ((key, parts) in APP_PATHS) {
-            val statusDir = findSubDirByPath(root, parts)
-            statusDir?.listFiles()?.filter {
-                it.isFile && it.name?.matches(Regex(""".*\.(jpg|jpeg|png|webp|mp4)""", RegexOption.IGNORE_CASE)) == true
-            }?.forEach { file ->
+            val statusFiles = SafScanner.listChildrenAt(context, rootUri, parts) ?: continue
+            statusFiles.filter {
+                !it.isDirectory && MediaTypeClassifier.isVisual(it.name, it.mimeType)
+            }.forEach { file ->
                 val map = WritableNativeMap().apply {
                     putString("uri", file.uri.toString())
                     putString("name", file.name)
@@ -708,45 +1211,68 @@ class StatusModule(private val reactContext: ReactApplicationContext) :
         return resultArray
     }
 
-    private fun scanAllMediaExceptStatuses(rootUri: Uri): WritableArray {
+    private suspend fun scanAllMediaExceptStatuses(rootUri: Uri): WritableArray {
         val context = reactApplicationContext
         val root = DocumentFile.fromTreeUri(context, rootUri)
         val resultArray = WritableNativeArray()
 
         if (root == null || !root.isDirectory) return resultArray
 
-        for ((key, parts) in CLEANUP_PATHS) {
-            val mediaFolder = findSubDirByPath(root, parts)
-            if (mediaFolder == null || !mediaFolder.isDirectory) {
-                Log.d("StatusModule", "❌ Media folder not found for $key")
-                continue
-            }
+        // Up to 500 files from each Media subfolder, as before
+        val scan = scanCleanupTree(rootUri, skipStatuses = true, subtreeLimit = 500)
+        for (file in scan.files) resultArray.pushMap(scannedFileMap(file))
+        return resultArray
+    }
 
-            Log.d("StatusModule", "📦 Scanning media for cleanup ($key): ${mediaFolder.uri}")
-            mediaFolder.listFiles().forEach { file ->
-                if (file.isDirectory && file.name != ".Statuses") {
-                    collectMediaFilesRecursively(file, key, resultArray, maxFiles = 500)
+    // Deletes on a bounded pool (see MediaDeleter). Progress arrives as onDeleteProgress
+    // ({done, total, bytesFreed}); resolves with per-uri results and the bytes freed.
+    @ReactMethod
+    fun deleteMediaBatch(uriList: ReadableArray, promise: Promise) {
+        val uris = (0 until uriList.size()).mapNotNull { uriList.getString(it) }
+        CoroutineScope(Dispatchers.IO).launch {
+            try {
+                val outcomes = MediaDeleter.delete(reactContext, uris) { done, total, bytesFreed ->
+                    emitEvent(EVENT_DELETE_PROGRESS, Arguments.createMap().apply {
+                        putInt("done", done)
+                        putInt("total", total)
+                        putDouble("bytesFreed", bytesFreed.toDouble())
+                    })
                 }
+                val results = Arguments.createArray()
+                for (o in outcomes) {
+                    results.pushMap(Arguments.createMap().apply {
+                        putString("uri", o.uri)
+                        putBoolean("success", o.success)
+                        putDouble("bytes", o.bytes.toDouble())
+                        if (o.error != null) putString("error", o.error) else putNull("error")
+                    })
+                }
+                val deleted = outcomes.count { it.success }
+                val map = Arguments.createMap().apply {
+                    putInt("deleted", deleted)
+                    putInt("failed", outcomes.size - deleted)
+                    putDouble("bytesFreed", outcomes.filter { it.success }.sumOf { it.bytes }.toDouble())
+                    putArray("results", results)
+                }
+                Log.d("StatusModule", "✅ Deleted $deleted of ${outcomes.size} files")
+                promise.resolve(map)
+            } catch (e: Exception) {
+                Log.e("StatusModule", "💥 Error in deleteMediaBatch: ${e.message}", e)
+                promise.reject("DELETE_FAILED", "Failed to delete files: ${e.message}")
             }
         }
-
-        return resultArray
     }
 
+    // Older entry point; same deletion path, resolves with the number deleted
     @ReactMethod
     fun deleteMediaFiles(uriList: ReadableArray, promise: Promise) {
-        try {
-            var deletedCount = 0
-            for (i in 0 until uriList.size()) {
-                val uri = Uri.parse(uriList.getString(i))
-                val file = DocumentFile.fromSingleUri(reactContext, uri)
-                if (file != null && file.exists() && file.isFile && file.delete()) {
-                    deletedCount++
-                }
+        val uris = (0 until uriList.size()).mapNotNull { uriList.getString(it) }
+        CoroutineScope(Dispatchers.IO).launch {
+            try {
+                promise.resolve(MediaDeleter.delete(reactContext, uris).count { it.success })
+            } catch (e: Exception) {
+                promise.reject("DELETE_FAILED", "Failed to delete files: ${e.message}")
             }
-            promise.resolve(deletedCount)
-        } catch (e: Exception) {
-            promise.reject("DELETE_FAILED", "Failed to delete files: ${e.message}")
         }
     }
 
@@ -783,6 +1309,7 @@ class StatusModule(private val reactContext: ReactApplicationContext) :
         try {
             val prefs = reactContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
             prefs.edit().remove(KEY_URI).apply()
+            SafPathCache.clear(reactContext)
             promise.resolve(true)
         } catch (e: Exception) {
             promise.reject("CLEAR_URI_FAILED", "Failed to clear saved URI: ${e.message}")
@@ -802,17 +1329,24 @@ class StatusModule(private val reactContext: ReactApplicationContext) :
             val basePath = listOf(appKeyToPackageFolder(appKey))
             val mediaAppPath = MEDIA_PATHS[appKey] ?: ""
             val mediaPath = if (mediaAppPath.isNotEmpty()) basePath + mediaAppPath + "Media" else basePath + "Media"
-            val mediaFolder = findSubDirByPath(baseDoc, mediaPath)
+            val indexFolder = indexFolderFor(appKey, mediaPath)
+            val indexed = if (indexFolder != null && ensureIndexed(baseUri, appKey)) {
+                MediaIndexer.subfolders(reactContext, appKey, indexFolder)
+            } else null
 
-            if (mediaFolder == null || !mediaFolder.isDirectory) {
-                Log.e("StatusModule", "❌ Media folder not found for $appKey at path $mediaPath")
-                promise.reject("MEDIA_FOLDER_NOT_FOUND", "Media folder not found")
-                return
-            }
+            val folderNames = indexed ?: run {
+                val mediaChildren = SafScanner.listChildrenAt(reactContext, baseUri, mediaPath)
+
+                if (mediaChildren == null) {
+                    Log.e("StatusModule", "❌ Media folder not found for $appKey at path $mediaPath")
+                    promise.reject("MEDIA_FOLDER_NOT_FOUND", "Media folder not found")
+                    return
+                }
 
-            val folderNames = mediaFolder.listFiles()
-                .filter { it.isDirectory }
-                .mapNotNull { it.name }
+                mediaChildren
+                    .filter { it.isDirectory }
+                    .map { it.name }
+            }
 
             Log.d("StatusModule", "✅ Found ${folderNames.size} media folders for $appKey: $folderNames")
             promise.resolve(Arguments.fromList(folderNames))
@@ -859,13 +1393,13 @@ class StatusModule(private val reactContext: ReactApplicationContext) :
             val basePath = listOf(appKeyToPackageFolder(appKey))
             val mediaAppPath = MEDIA_PATHS[appKey] ?: ""
             val baseMediaPath = if (mediaAppPath.isNotEmpty()) basePath + mediaAppPath + "Media" else basePath + "Media"
-            val target = findSubDirByPath(baseDoc, baseMediaPath)
+            val target = SafScanner.listChildrenAt(reactContext, baseUri, baseMediaPath)
             if (target == null) {
                 promise.reject("FOLDER_ERROR", "Media folder not found")
                 return
             }
 
-            val folders = target.listFiles().filter { it.isDirectory }.mapNotNull { it.name }
+            val folders = target.filter { it.isDirectory }.map { it.name }
             promise.resolve(Arguments.fromList(folders))
         } catch (e: Exception) {
             Log.e("StatusModule", "❌ listMessengerMediaFolders failed", e)
@@ -873,30 +1407,18 @@ class StatusModule(private val reactContext: ReactApplicationContext) :
         }
     }
 
-    private fun findSubDirByPath(root: DocumentFile?, path: List<String>): DocumentFile? {
-        var current = root
-        for (segment in path) {
-            if (current == null) return null
-            current = current.findFile(segment)
-            if (current == null || !current.isDirectory) return null
-        }
-        return current
+    // Folder key in the media index ("/WhatsApp Images") for a path below the tree root,
+    // or null when the path lies outside the app's indexed root (CLEANUP_PATHS)
+    private fun indexFolderFor(appKey: String, path: List<String>): String? {
+        val root = CLEANUP_PATHS[appKey] ?: return null
+        if (path.size < root.size) return null
+        if (!root.indices.all { path[it].equals(root[it], ignoreCase = true) }) return null
+        return path.drop(root.size).joinToString("") { "/$it" }
     }
 
-    private fun DocumentFile.findFile(name: String): DocumentFile? {
-        return listFiles().firstOrNull { it.name.equals(name, ignoreCase = true) }
-    }
-
-    private fun logDocumentTree(dir: DocumentFile, indent: String = "") {
-        val TAG = "SAFTree"
-        Log.d(TAG, "$indent📁 ${dir.name} [${dir.uri}]")
-        for (file in dir.listFiles()) {
-            if (file.isDirectory) {
-                logDocumentTree(file, "$indent  ")
-            } else {
-                Log.d(TAG, "$indent📄 ${file.name} (${file.type})")
-            }
-        }
+    private fun ensureIndexed(treeUri: Uri, appKey: String): Boolean {
+        val root = CLEANUP_PATHS[appKey] ?: return false
+        return MediaIndexer.ensureFresh(reactContext, treeUri, appKey, root)
     }
 
     private fun appKeyToPackageFolder(appKey: String): String {
@@ -5,9 +5,9 @@ import android.net.Uri
 import android.view.View
 import android.view.ViewGroup
 import android.widget.*
-import com.bumptech.glide.Glide
-import com.bumptech.glide.request.RequestOptions
 import com.copilot3.StatusUtil
+import com.copilot3.util.MediaTypeClassifier
+import com.copilot3.util.ThumbnailService
 
 class MediaGridAdapter(
     private val context: Context,
@@ -58,14 +58,15 @@ class MediaGridAdapter(
         val checkBox = view.getChildAt(1) as CheckBox
         val uri = Uri.parse(item.uri)
 
-        Glide.with(context)
-            .load(uri)
-            .apply(
-                RequestOptions()
-                    .placeholder(android.R.drawable.ic_menu_gallery)
-                    .centerCrop()
-            )
-            .into(imageView)
+        ThumbnailService.load(
+            imageView,
+            item.uri,
+            MediaTypeClassifier.mimeForName(item.name),
+            item.size,
+            item.timestamp,
+            android.R.drawable.ic_menu_gallery,
+            250
+        )
 
         checkBox.isChecked = selected.contains(uri)
 
@@ -0,0 +1,83 @@
+package com.copilot3.util
+
+import android.database.sqlite.SQLiteDatabase
+import android.os.SystemClock
+import android.util.LruCache
+
+// Bounded caches for the two lookups every ingested message needs: the chats.id of
+// (app, contact_identifier) and whether backup is enabled for it (specific row or
+// the app's '*' wildcard). Both answers almost never change, so the steady-state
+// ingest path skips these queries entirely. A third cache remembers when each chat's
+// avatar was last stored, so the large icon is only hashed when it may have changed.
+object BackupLookupCache {
+
+    private const val MAX_CHATS = 512
+    private const val MAX_ENABLED = 512
+    private const val AVATAR_REFRESH_MS = 6L * 60 * 60 * 1000
+
+    private val chatIds = LruCache<String, Long>(MAX_CHATS)
+    private val enabled = LruCache<String, Boolean>(MAX_ENABLED)
+    // Bumped by invalidateEnabled (under the enabled lock), so a query that raced an
+    // enable/disable doesn't cache its stale answer
+    private var enabledGeneration = 0L
+    // elapsedRealtime of the last avatar store (or of finding one already stored)
+    private val avatarCheckedAt = LruCache<String, Long>(MAX_CHATS)
+
+    private fun key(app: String, contactIdentifier: String) = app + '\u0000' + contactIdentifier
+
+    fun chatId(app: String, contactIdentifier: String): Long? = chatIds.get(key(app, contactIdentifier))
+
+    fun putChatId(app: String, contactIdentifier: String, chatId: Long) {
+        chatIds.put(key(app, contactIdentifier), chatId)
+    }
+
+    fun isBackupEnabled(db: SQLiteDatabase, app: String, contactIdentifier: String): Boolean {
+        val k = key(app, contactIdentifier)
+        enabled.get(k)?.let { return it }
+        val generation = synchronized(enabled) { enabledGeneration }
+        // Check if enabled (specific or wildcard '*')
+        val result = db.rawQuery(
+            "SELECT 1 FROM enabled_backups WHERE app = ? AND contact_identifier IN (?, '*') LIMIT 1",
+            arrayOf(app, contactIdentifier)
+        ).use { it.moveToFirst() }
+        synchronized(enabled) {
+            if (enabledGeneration == generation) enabled.put(k, result)
+        }
+        return result
+    }
+
+    // No query; for the listener to leave the icon off entries the writer would skip anyway
+    fun isAvatarFresh(app: String, contactIdentifier: String): Boolean {
+        val at = avatarCheckedAt.get(key(app, contactIdentifier)) ?: return false
+        return SystemClock.elapsedRealtime() - at < AVATAR_REFRESH_MS
+    }
+
+    // True when the chat has no avatar_hash yet or the stored one is older than AVATAR_REFRESH_MS
+    fun isAvatarDue(db: SQLiteDatabase, app: String, contactIdentifier: String): Boolean {
+        val k = key(app, contactIdentifier)
+        avatarCheckedAt.get(k)?.let { return SystemClock.elapsedRealtime() - it >= AVATAR_REFRESH_MS }
+        val stored = db.rawQuery(
+            "SELECT 1 FROM chats WHERE app = ? AND contact_identifier = ? AND avatar_hash IS NOT NULL",
+            arrayOf(app, contactIdentifier)
+        ).use { it.moveToFirst() }
+        if (stored) avatarCheckedAt.put(k, SystemClock.elapsedRealtime())
+        return !stored
+    }
+
+    fun markAvatarChecked(app: String, contactIdentifier: String) {
+        avatarCheckedAt.put(key(app, contactIdentifier), SystemClock.elapsedRealtime())
+    }
+
+    // enabled_backups changed; a wildcard row affects every contact of the app
+    fun invalidateEnabled() {
+        synchronized(enabled) {
+            enabledGeneration++
+            enabled.evictAll()
+        }
+    }
+
+    // A write was rolled back, so cached ids for chats created in it may not exist
+    fun invalidateChats() {
+        chatIds.evictAll()
+    }
+}
@@ -0,0 +1,81 @@
+package com.copilot3.util
+
+import android.content.Context
+import android.content.SharedPreferences
+import android.util.Log
+import org.json.JSONArray
+
+// Immutable view of the "app_prefs" values read on hot paths (notification ingest,
+// points checks, daily retention and compaction). Rebuilt only when one of those
+// prefs changes.
+data class BackupSettings(
+    val isPremium: Boolean,
+    val enabledApps: Set<String>,
+    val privateOnly: Boolean,
+    val autoDeleteDays: Int,
+    val coldAfterDays: Int
+) {
+    fun isAppEnabled(packageName: String): Boolean = enabledApps.contains(packageName)
+
+    companion object {
+        const val PREFS = "app_prefs"
+        const val KEY_PREMIUM = "isPremium"
+        const val KEY_ENABLED_APPS = "enabled_notification_apps"
+        const val KEY_PRIVATE_ONLY = "backupPrivateOnly"
+        const val KEY_AUTO_DELETE_DAYS = "autoDeleteDays"
+        const val KEY_COLD_AFTER_DAYS = "coldStorageAfterDays"
+        const val DEFAULT_COLD_AFTER_DAYS = 30
+
+        private const val TAG = "BackupSettings"
+        private val WATCHED_KEYS = setOf(KEY_PREMIUM, KEY_ENABLED_APPS, KEY_PRIVATE_ONLY, KEY_AUTO_DELETE_DAYS, KEY_COLD_AFTER_DAYS)
+
+        @Volatile
+        private var snapshot: BackupSettings? = null
+        private var prefs: SharedPreferences? = null
+
+        // SharedPreferences only keeps a weak reference to listeners, so hold it here
+        private val listener = SharedPreferences.OnSharedPreferenceChangeListener { sp, key ->
+            if (key == null || key in WATCHED_KEYS) {
+                snapshot = read(sp)
+            }
+        }
+
+        fun get(context: Context): BackupSettings {
+            snapshot?.let { return it }
+            synchronized(this) {
+                snapshot?.let { return it }
+                val sp = context.applicationContext.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+                sp.registerOnSharedPreferenceChangeListener(listener)
+                prefs = sp
+                return read(sp).also { snapshot = it }
+            }
+        }
+
+        // Change callbacks are posted to the main looper, so writers that need to read
+        // their own value back immediately (bridge setters) reload synchronously.
+        fun reload(context: Context): BackupSettings {
+            val sp = prefs ?: return get(context)
+            return read(sp).also { snapshot = it }
+        }
+
+        private fun read(sp: SharedPreferences): BackupSettings {
+            val enabledJson = sp.getString(KEY_ENABLED_APPS, "[]") ?: "[]"
+            val enabledApps = HashSet<String>()
+            try {
+                val arr = JSONArray(enabledJson)
+                for (i in 0 until arr.length()) {
+                    enabledApps.add(arr.getString(i))
+                }
+            } catch (e: Exception) {
+                Log.w(TAG, "Invalid $KEY_ENABLED_APPS value: $enabledJson", e)
+            }
+            return BackupSettings(
+                isPremium = sp.getBoolean(KEY_PREMIUM, false),
+                enabledApps = enabledApps,
+                privateOnly = sp.getBoolean(KEY_PRIVATE_ONLY, false),
+                autoDeleteDays = sp.getInt(KEY_AUTO_DELETE_DAYS, 0),
+                coldAfterDays = sp.getInt(KEY_COLD_AFTER_DAYS, DEFAULT_COLD_AFTER_DAYS)
+            )
+        }
+    }
+}
@@ -6,11 +6,331 @@ import android.database.sqlite.SQLiteDatabase
 import android.database.sqlite.SQLiteOpenHelper
 import android.util.Log
 
-class CampaignsDbHelper(context: Context) :
-    SQLiteOpenHelper(context, "campaigns.db", null, 3) {  // Bump version to 3
+class CampaignsDbHelper private constructor(context: Context) :
+    SQLiteOpenHelper(context, "campaigns.db", null, 12) {  // Bump version to 12
 
     companion object {
         private const val TAG = "CampaignsDbHelper"
+
+        @Volatile
+        private var instance: CampaignsDbHelper? = null
+
+        // One helper per process so the bridge, the notification listener and the
+        // backup writer thread share a single connection pool instead of racing
+        // separate connections for the write lock.
+        fun getInstance(context: Context): CampaignsDbHelper {
+            instance?.let { return it }
+            synchronized(this) {
+                return instance ?: CampaignsDbHelper(context.applicationContext).also { instance = it }
+            }
+        }
+
+        // 64-bit FNV-1a over the UTF-8 bytes; stored in messages.content_hash so dedup
+        // probes a unique index instead of comparing full message text
+        fun contentHash(content: String): Long {
+            var hash = -0x340d631b7bdddcdbL // 0xcbf29ce484222325
+            for (b in content.toByteArray(Charsets.UTF_8)) {
+                hash = hash xor (b.toLong() and 0xff)
+                hash *= 0x100000001b3L
+            }
+            return hash
+        }
+
+        private const val HASH_BACKFILL_CHUNK = 500
+
+        // Characters of the newest message kept in recent_chats.last_snippet
+        const val SNIPPET_LENGTH = 120
+    }
+
+    override fun onConfigure(db: SQLiteDatabase) {
+        // WAL lets screens read while the backup writer commits
+        db.enableWriteAheadLogging()
+        // Only takes effect on a fresh file; RetentionWorker converts existing ones with a VACUUM
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL")
+    }
+
+    // Cold tier: one deflate-compressed block of messages per chat per UTC day (see ColdStorage)
+    private fun createMessageBlocks(db: SQLiteDatabase) {
+        db.execSQL("""
+            CREATE TABLE IF NOT EXISTS message_blocks (
+              id INTEGER PRIMARY KEY AUTOINCREMENT,
+              chat_id INTEGER NOT NULL,
+              day INTEGER NOT NULL,
+              first_ts INTEGER NOT NULL,
+              last_ts INTEGER NOT NULL,
+              count INTEGER NOT NULL,
+              payload BLOB NOT NULL,
+              media_hashes TEXT,
+              UNIQUE (chat_id, day),
+              FOREIGN KEY (chat_id) REFERENCES chats(id)
+            )
+        """.trimIndent())
+    }
+
+    // Per-app ('*' contact) and per-chat retention overrides; days = 0 keeps forever
+    private fun createRetentionPolicies(db: SQLiteDatabase) {
+        db.execSQL("""
+            CREATE TABLE IF NOT EXISTS retention_policies (
+              app TEXT,
+              contact_identifier TEXT,
+              days INTEGER NOT NULL,
+              PRIMARY KEY (app, contact_identifier)
+            )
+        """.trimIndent())
+    }
+
+    // External-content FTS4 index over messages.content; docid mirrors messages.id
+    private fun createMessageSearch(db: SQLiteDatabase) {
+        db.execSQL("""
+            CREATE VIRTUAL TABLE IF NOT EXISTS messages_fts
+            USING fts4(content="messages", content, tokenize=unicode61)
+        """.trimIndent())
+
+        db.execSQL("""
+            CREATE TRIGGER IF NOT EXISTS messages_fts_bu BEFORE UPDATE OF content ON messages BEGIN
+              DELETE FROM messages_fts WHERE docid = old.id;
+            END
+        """.trimIndent())
+        db.execSQL("""
+            CREATE TRIGGER IF NOT EXISTS messages_fts_bd BEFORE DELETE ON messages BEGIN
+              DELETE FROM messages_fts WHERE docid = old.id;
+            END
+        """.trimIndent())
+        db.execSQL("""
+            CREATE TRIGGER IF NOT EXISTS messages_fts_au AFTER UPDATE OF content ON messages BEGIN
+              INSERT INTO messages_fts (docid, content) VALUES (new.id, new.content);
+            END
+        """.trimIndent())
+        db.execSQL("""
+            CREATE TRIGGER IF NOT EXISTS messages_fts_ai AFTER INSERT ON messages BEGIN
+              INSERT INTO messages_fts (docid, content) VALUES (new.id, new.content);
+            END
+        """.trimIndent())
+    }
+
+    // Timestamps are epoch millis; these back per-chat ordering, date-range reads,
+    // retention deletes and the recent chats list
+    private fun createTimestampIndexes(db: SQLiteDatabase) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_messages_chat_ts ON messages (chat_id, timestamp)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_messages_ts ON messages (timestamp)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_recent_chats_ts ON recent_chats (last_timestamp)")
+    }
+
+    // recent_chats is the senders list, kept current by triggers on messages so reading it
+    // is one indexed range scan. message_count covers both tiers; unread counts received
+    // messages newer than last_read_timestamp. SQLite of minSdk 24 has no row values,
+    // hence the repeated chats subqueries.
+    private fun createRecentChatTriggers(db: SQLiteDatabase) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_recent_chats_app_ts ON recent_chats (app, last_timestamp)")
+        db.execSQL("""
+            CREATE TRIGGER IF NOT EXISTS recent_chats_ai AFTER INSERT ON messages BEGIN
+              INSERT OR IGNORE INTO recent_chats (app, contact_identifier, name, last_timestamp)
+                SELECT app, contact_identifier, name, 0 FROM chats WHERE id = new.chat_id;
+              UPDATE recent_chats SET
+                message_count = message_count + 1,
+                unread_count = unread_count + (new.is_sent = 0 AND new.timestamp > last_read_timestamp),
+                last_snippet = CASE WHEN new.timestamp >= last_timestamp THEN substr(new.content, 1, $SNIPPET_LENGTH) ELSE last_snippet END,
+                last_timestamp = MAX(last_timestamp, new.timestamp)
+              WHERE app = (SELECT app FROM chats WHERE id = new.chat_id)
+                AND contact_identifier = (SELECT contact_identifier FROM chats WHERE id = new.chat_id);
+            END
+        """.trimIndent())
+        db.execSQL("""
+            CREATE TRIGGER IF NOT EXISTS recent_chats_ad AFTER DELETE ON messages BEGIN
+              UPDATE recent_chats SET
+                message_count = MAX(message_count - 1, 0),
+                unread_count = MAX(unread_count - (old.is_sent = 0 AND old.timestamp > last_read_timestamp), 0),
+                last_snippet = CASE WHEN old.timestamp >= last_timestamp
+                  THEN (SELECT substr(content, 1, $SNIPPET_LENGTH) FROM messages WHERE chat_id = old.chat_id ORDER BY timestamp DESC LIMIT 1)
+                  ELSE last_snippet END,
+                last_timestamp = CASE WHEN old.timestamp >= last_timestamp
+                  THEN COALESCE(
+                    (SELECT timestamp FROM messages WHERE chat_id = old.chat_id ORDER BY timestamp DESC LIMIT 1),
+                    (SELECT MAX(last_ts) FROM message_blocks WHERE chat_id = old.chat_id),
+                    0)
+                  ELSE last_timestamp END
+              WHERE app = (SELECT app FROM chats WHERE id = old.chat_id)
+                AND contact_identifier = (SELECT contact_identifier FROM chats WHERE id = old.chat_id);
+            END
+        """.trimIndent())
+    }
+
+    // Snippets of chats whose newest message is in a compressed block, which SQL can't read
+    private fun backfillColdSnippets(db: SQLiteDatabase) {
+        db.rawQuery("""
+            SELECT b.chat_id, b.day, b.payload FROM message_blocks b
+            WHERE b.last_ts = (SELECT MAX(last_ts) FROM message_blocks WHERE chat_id = b.chat_id)
+              AND NOT EXISTS (SELECT 1 FROM messages m WHERE m.chat_id = b.chat_id AND m.timestamp > b.last_ts)
+        """.trimIndent(), null).use { c ->
+            while (c.moveToNext()) {
+                val chatId = c.getLong(0)
+                val newest = try {
+                    ColdStorage.decode(c.getLong(1), c.getBlob(2)).maxByOrNull { it.timestamp }
+                } catch (e: Exception) {
+                    Log.w(TAG, "Skipping unreadable block of chat $chatId: ${e.message}")
+                    null
+                } ?: continue
+                db.execSQL(
+                    """
+                    UPDATE recent_chats SET last_snippet = substr(?, 1, $SNIPPET_LENGTH)
+                    WHERE app = (SELECT app FROM chats WHERE id = ?)
+                      AND contact_identifier = (SELECT contact_identifier FROM chats WHERE id = ?)
+                    """.trimIndent(),
+                    arrayOf<Any>(newest.content, chatId, chatId)
+                )
+            }
+        }
+    }
+
+    // v11: counters and snippet columns, backfilled once; existing history counts as read
+    private fun migrateRecentChats(db: SQLiteDatabase) {
+        db.execSQL("ALTER TABLE recent_chats ADD COLUMN message_count INTEGER NOT NULL DEFAULT 0")
+        db.execSQL("ALTER TABLE recent_chats ADD COLUMN unread_count INTEGER NOT NULL DEFAULT 0")
+        db.execSQL("ALTER TABLE recent_chats ADD COLUMN last_snippet TEXT")
+        db.execSQL("ALTER TABLE recent_chats ADD COLUMN last_read_timestamp INTEGER NOT NULL DEFAULT 0")
+
+        // Chats that have messages in either tier but lost their row (e.g. older retention)
+        // come back, and every row's last_timestamp is the newest message of both tiers
+        db.execSQL("""
+            INSERT OR IGNORE INTO recent_chats (app, contact_identifier, name, last_timestamp)
+            SELECT c.app, c.contact_identifier, c.name, MAX(t.ts)
+            FROM chats c JOIN (
+              SELECT chat_id, timestamp AS ts FROM messages
+              UNION ALL
+              SELECT chat_id, last_ts AS ts FROM message_blocks
+            ) t ON t.chat_id = c.id
+            GROUP BY c.id
+        """.trimIndent())
+        db.execSQL("""
+            UPDATE recent_chats SET last_timestamp = MAX(
+              COALESCE((SELECT MAX(m.timestamp) FROM messages m JOIN chats c ON c.id = m.chat_id
+               WHERE c.app = recent_chats.app AND c.contact_identifier = recent_chats.contact_identifier), 0),
+              COALESCE((SELECT MAX(b.last_ts) FROM message_blocks b JOIN chats c ON c.id = b.chat_id
+               WHERE c.app = recent_chats.app AND c.contact_identifier = recent_chats.contact_identifier), 0),
+              COALESCE(last_timestamp, 0))
+        """.trimIndent())
+        db.execSQL("""
+            UPDATE recent_chats SET
+              message_count =
+                (SELECT COUNT(*) FROM messages m JOIN chats c ON c.id = m.chat_id
+                 WHERE c.app = recent_chats.app AND c.contact_identifier = recent_chats.contact_identifier)
+                + (SELECT COALESCE(SUM(b.count), 0) FROM message_blocks b JOIN chats c ON c.id = b.chat_id
+                 WHERE c.app = recent_chats.app AND c.contact_identifier = recent_chats.contact_identifier),
+              last_snippet =
+                (SELECT substr(m.content, 1, $SNIPPET_LENGTH) FROM messages m JOIN chats c ON c.id = m.chat_id
+                 WHERE c.app = recent_chats.app AND c.contact_identifier = recent_chats.contact_identifier
+                 ORDER BY m.timestamp DESC LIMIT 1),
+              last_read_timestamp = last_timestamp
+        """.trimIndent())
+        backfillColdSnippets(db)
+        createRecentChatTriggers(db)
+    }
+
+    // v5: messages.timestamp and recent_chats.last_timestamp move from TEXT to INTEGER.
+    // SQLite cannot change a column type in place, so both tables are rebuilt keeping
+    // their ids (the FTS index is keyed by messages.id and stays valid).
+    private fun migrateTimestampsToInteger(db: SQLiteDatabase) {
+        db.execSQL("""
+            CREATE TABLE messages_new (
+              id INTEGER PRIMARY KEY AUTOINCREMENT,
+              chat_id INTEGER,
+              timestamp INTEGER,
+              is_sent INTEGER,
+              content TEXT,
+              FOREIGN KEY (chat_id) REFERENCES chats(id)
+            )
+        """.trimIndent())
+        db.execSQL("""
+            INSERT INTO messages_new (id, chat_id, timestamp, is_sent, content)
+            SELECT id, chat_id, CAST(timestamp AS INTEGER), is_sent, content FROM messages
+        """.trimIndent())
+        db.execSQL("DROP TABLE messages") // also drops the FTS sync triggers
+        db.execSQL("ALTER TABLE messages_new RENAME TO messages")
+        createMessageSearch(db)
+
+        db.execSQL("""
+            CREATE TABLE recent_chats_new (
+              app TEXT,
+              contact_identifier TEXT,
+              name TEXT,
+              last_timestamp INTEGER,
+              PRIMARY KEY (app, contact_identifier)
+            )
+        """.trimIndent())
+        db.execSQL("""
+            INSERT INTO recent_chats_new (app, contact_identifier, name, last_timestamp)
+            SELECT app, contact_identifier, name, CAST(last_timestamp AS INTEGER) FROM recent_chats
+        """.trimIndent())
+        db.execSQL("DROP TABLE recent_chats")
+        db.execSQL("ALTER TABLE recent_chats_new RENAME TO recent_chats")
+
+        createTimestampIndexes(db)
+    }
+
+    // notification key + message timestamp -> messages.id of the row it was saved as, so a
+    // later "This message was deleted" update for that key resolves with one primary-key
+    // probe. Kept bounded by RecoveryIndex. The partial index makes the recovered list a
+    // range scan over only the rows that were ever deleted.
+    private fun createRecoveryIndex(db: SQLiteDatabase) {
+        db.execSQL("""
+            CREATE TABLE IF NOT EXISTS notification_message_map (
+              notif_key TEXT NOT NULL,
+              timestamp INTEGER NOT NULL,
+              message_id INTEGER NOT NULL,
+              PRIMARY KEY (notif_key, timestamp)
+            ) WITHOUT ROWID
+        """.trimIndent())
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_notification_map_message ON notification_message_map (message_id)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_messages_deleted ON messages (deleted_at, id) WHERE deleted_at IS NOT NULL")
+    }
+
+    // INSERT OR IGNORE against this index is the whole dedup check
+    private fun createDedupIndex(db: SQLiteDatabase) {
+        db.execSQL("""
+            CREATE UNIQUE INDEX IF NOT EXISTS idx_messages_dedup
+            ON messages (chat_id, timestamp, is_sent, content_hash)
+        """.trimIndent())
+    }
+
+    // v6: add messages.content_hash, hash existing rows a chunk at a time, drop exact
+    // duplicates that predate the unique index, then create it
+    private fun migrateContentHash(db: SQLiteDatabase) {
+        db.execSQL("ALTER TABLE messages ADD COLUMN content_hash INTEGER")
+
+        // Recreate the FTS update triggers as UPDATE OF content so the backfill
+        // below doesn't reindex every message
+        db.execSQL("DROP TRIGGER IF EXISTS messages_fts_bu")
+        db.execSQL("DROP TRIGGER IF EXISTS messages_fts_au")
+        createMessageSearch(db)
+
+        val update = db.compileStatement("UPDATE messages SET content_hash = ? WHERE id = ?")
+        var lastId = 0L
+        var total = 0
+        while (true) {
+            var rows = 0
+            db.rawQuery(
+                "SELECT id, content FROM messages WHERE id > ? ORDER BY id LIMIT $HASH_BACKFILL_CHUNK",
+                arrayOf(lastId.toString())
+            ).use { c ->
+                while (c.moveToNext()) {
+                    lastId = c.getLong(0)
+                    update.bindLong(1, contentHash(c.getString(1) ?: ""))
+                    update.bindLong(2, lastId)
+                    update.executeUpdateDelete()
+                    rows++
+                }
+            }
+            total += rows
+            if (rows < HASH_BACKFILL_CHUNK) break
+        }
+        Log.d(TAG, "Backfilled content_hash for $total messages")
+
+        db.execSQL("""
+            DELETE FROM messages WHERE id NOT IN (
+              SELECT MIN(id) FROM messages GROUP BY chat_id, timestamp, is_sent, content_hash
+            )
+        """.trimIndent())
+        createDedupIndex(db)
     }
 
     override fun onCreate(db: SQLiteDatabase) {
@@ -65,6 +385,7 @@ class CampaignsDbHelper(context: Context) :
                   app TEXT,
                   contact_identifier TEXT,
                   name TEXT,
+                  avatar_hash TEXT,
                   UNIQUE (app, contact_identifier)
                 )
             """.trimIndent())
@@ -73,9 +394,13 @@ class CampaignsDbHelper(context: Context) :
                 CREATE TABLE IF NOT EXISTS messages (
                   id INTEGER PRIMARY KEY AUTOINCREMENT,
                   chat_id INTEGER,
-                  timestamp TEXT,
+                  timestamp INTEGER,
                   is_sent INTEGER,
                   content TEXT,
+                  content_hash INTEGER,
+                  sender TEXT,
+                  media_hash TEXT,
+                  deleted_at INTEGER,
                   FOREIGN KEY (chat_id) REFERENCES chats(id)
                 )
             """.trimIndent())
@@ -85,11 +410,23 @@ class CampaignsDbHelper(context: Context) :
                   app TEXT,
                   contact_identifier TEXT,
                   name TEXT,
-                  last_timestamp TEXT,
+                  last_timestamp INTEGER,
+                  message_count INTEGER NOT NULL DEFAULT 0,
+                  unread_count INTEGER NOT NULL DEFAULT 0,
+                  last_snippet TEXT,
+                  last_read_timestamp INTEGER NOT NULL DEFAULT 0,
                   PRIMARY KEY (app, contact_identifier)
                 )
             """.trimIndent())
 
+            createMessageSearch(db)
+            createTimestampIndexes(db)
+            createDedupIndex(db)
+            createRetentionPolicies(db)
+            createMessageBlocks(db)
+            createRecentChatTriggers(db)
+            createRecoveryIndex(db)
+
             db.execSQL("INSERT OR IGNORE INTO user_points (id, points) VALUES (1, 0)")
             Log.d(TAG, "Database created successfully")
         } catch (e: Exception) {
@@ -142,6 +479,44 @@ class CampaignsDbHelper(context: Context) :
                     )
                 """.trimIndent())
             }
+            if (oldVersion < 4) {
+                createMessageSearch(db)
+                // Index messages saved before the FTS table existed
+                db.execSQL("INSERT INTO messages_fts (messages_fts) VALUES ('rebuild')")
+            }
+            if (oldVersion < 5) {
+                migrateTimestampsToInteger(db)
+            }
+            if (oldVersion < 6) {
+                migrateContentHash(db)
+            }
+            if (oldVersion < 7) {
+                // Per-message sender from MessagingStyle (group chats); NULL for 1:1 chats
+                db.execSQL("ALTER TABLE messages ADD COLUMN sender TEXT")
+            }
+            if (oldVersion < 8) {
+                createRetentionPolicies(db)
+            }
+            if (oldVersion < 9) {
+                createMessageBlocks(db)
+            }
+            if (oldVersion < 10) {
+                // Content-addressed notification images (see MessageMediaStore)
+                db.execSQL("ALTER TABLE messages ADD COLUMN media_hash TEXT")
+                db.execSQL("ALTER TABLE chats ADD COLUMN avatar_hash TEXT")
+                // Below v9 the table was just created by createMessageBlocks with the column
+                if (oldVersion >= 9) {
+                    db.execSQL("ALTER TABLE message_blocks ADD COLUMN media_hashes TEXT")
+                }
+            }
+            if (oldVersion < 11) {
+                migrateRecentChats(db)
+            }
+            if (oldVersion < 12) {
+                // Set when the sender deletes a message we already backed up (see RecoveryIndex)
+                db.execSQL("ALTER TABLE messages ADD COLUMN deleted_at INTEGER")
+                createRecoveryIndex(db)
+            }
             // For future upgrades, add more conditions
         } catch (e: Exception) {
             Log.e(TAG, "Error upgrading database: ${e.message}", e)
@@ -10,6 +10,7 @@ import android.content.Context
 import android.content.Intent
 import android.database.Cursor
 import android.database.sqlite.SQLiteDatabase
+import android.net.Uri
 import android.os.Handler
 import android.os.Looper
 import android.provider.Settings
@@ -20,12 +21,17 @@ import com.google.android.gms.ads.LoadAdError
 import com.google.android.gms.ads.rewarded.RewardedAd
 import com.google.android.gms.ads.rewarded.RewardedAdLoadCallback
 import com.google.android.gms.ads.rewarded.RewardItem
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
 import java.util.Calendar
+import java.util.PriorityQueue
 
 class CampaignsModule(private val reactCtx: ReactApplicationContext) :
     ReactContextBaseJavaModule(reactCtx) {
 
-    private val dbHelper = CampaignsDbHelper(reactCtx)
+    private val dbHelper = CampaignsDbHelper.getInstance(reactCtx)
 
     // ====== CONFIG: native-only values ======
     private val REWARD_POINTS = 10
@@ -36,9 +42,9 @@ class CampaignsModule(private val reactCtx: ReactApplicationContext) :
     private val CHAT_VIEW_COST = 1
     private val MESSAGE_SAVE_COST = 1
     private val LOW_POINTS_THRESHOLD = 20
-    private val PREFS = "app_prefs"
-    private val KEY_PREMIUM = "isPremium"
-    private val KEY_AUTO_DELETE_DAYS = "autoDeleteDays"
+    private val PREFS = BackupSettings.PREFS
+    private val KEY_PREMIUM = BackupSettings.KEY_PREMIUM
+    private val KEY_AUTO_DELETE_DAYS = BackupSettings.KEY_AUTO_DELETE_DAYS
 
     // ====== ADS ======
     private var rewardedAd: RewardedAd? = null
@@ -50,15 +56,13 @@ class CampaignsModule(private val reactCtx: ReactApplicationContext) :
     override fun getName(): String = "CampaignsModule"
 
     // -------- Premium helpers --------
-    private fun isPremium(): Boolean {
-        val prefs = reactCtx.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
-        return prefs.getBoolean(KEY_PREMIUM, false)
-    }
+    private fun isPremium(): Boolean = BackupSettings.get(reactCtx).isPremium
 
     @ReactMethod
     fun setPremium(enabled: Boolean, promise: Promise) {
         val prefs = reactCtx.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
         prefs.edit().putBoolean(KEY_PREMIUM, enabled).apply()
+        BackupSettings.reload(reactCtx)
         promise.resolve(enabled)
     }
 
@@ -88,21 +92,7 @@ class CampaignsModule(private val reactCtx: ReactApplicationContext) :
 // Insert this in getChatMessages, after transaction for points:
 @ReactMethod
 fun getChatMessages(app: String, contactIdentifier: String, promise: Promise) {
-    val db = dbHelper.writableDatabase
-    db.beginTransaction()
-    try {
-        if (!isPremium()) {
-            val current = getPointsInternal(db)
-            if (current < CHAT_VIEW_COST) {
-                promise.reject("INSUFFICIENT_POINTS", "Need $CHAT_VIEW_COST points to view chat")
-                return
-            }
-            setPointsInternal(db, current - CHAT_VIEW_COST)
-        }
-        db.setTransactionSuccessful()
-    } finally {
-        db.endTransaction()
-    }
+    if (!chargeChatView(promise)) return
 
     val readDb = dbHelper.readableDatabase
     var cursor: Cursor? = null
@@ -128,19 +118,14 @@ fun getChatMessages(app: String, contactIdentifier: String, promise: Promise) {
         chatIdCursor.close()
 
         cursor = readDb.rawQuery(
-            "SELECT timestamp, is_sent, content FROM messages WHERE chat_id = ? ORDER BY timestamp ASC",
+            "SELECT timestamp, is_sent, content, sender, media_hash FROM messages WHERE chat_id = ? ORDER BY timestamp ASC",
             arrayOf(chatId.toString())
         )
         val arr = Arguments.createArray()
         cursor?.let { c ->
-            while (c.moveToNext()) {
-                val m = Arguments.createMap()
-                m.putString("timestamp", c.getString(0))
-                m.putBoolean("isSent", c.getInt(1) == 1)
-                m.putString("content", c.getString(2))
-                arr.pushMap(m)
-            }
+            pushMerged(arr, ColdStorage.readRange(readDb, chatId), c)
         }
+        markChatReadInternal(app, contactIdentifier)
         promise.resolve(arr)
     } catch (e: Exception) {
         promise.reject("GET_CHAT_MESSAGES_ERROR", e)
@@ -149,6 +134,215 @@ fun getChatMessages(app: String, contactIdentifier: String, promise: Promise) {
     }
 }
 
+// Everything up to the newest message counts as seen
+private fun markChatReadInternal(app: String, contactIdentifier: String) {
+    dbHelper.writableDatabase.execSQL(
+        "UPDATE recent_chats SET unread_count = 0, last_read_timestamp = last_timestamp WHERE app = ? AND contact_identifier = ?",
+        arrayOf(app, contactIdentifier)
+    )
+}
+
+@ReactMethod
+fun markChatRead(app: String, contactIdentifier: String, promise: Promise) {
+    try {
+        markChatReadInternal(app, contactIdentifier)
+        promise.resolve(true)
+    } catch (e: Exception) {
+        promise.reject("MARK_READ_ERROR", e)
+    }
+}
+
+// Deducts CHAT_VIEW_COST unless premium; rejects the promise and returns false when short
+private fun chargeChatView(promise: Promise): Boolean {
+    val db = dbHelper.writableDatabase
+    db.beginTransaction()
+    try {
+        if (!isPremium()) {
+            val current = getPointsInternal(db)
+            if (current < CHAT_VIEW_COST) {
+                promise.reject("INSUFFICIENT_POINTS", "Need $CHAT_VIEW_COST points to view chat")
+                return false
+            }
+            setPointsInternal(db, current - CHAT_VIEW_COST)
+        }
+        db.setTransactionSuccessful()
+        return true
+    } finally {
+        db.endTransaction()
+    }
+}
+
+// Gives back what chargeChatView took, for a paid action that then failed
+private fun refundChatView() {
+    val db = dbHelper.writableDatabase
+    db.beginTransaction()
+    try {
+        setPointsInternal(db, getPointsInternal(db) + CHAT_VIEW_COST)
+        db.setTransactionSuccessful()
+    } catch (e: Exception) {
+        Log.e(TAG, "Failed to refund $CHAT_VIEW_COST points", e)
+    } finally {
+        db.endTransaction()
+    }
+}
+
+// Maps a (timestamp, is_sent, content, sender, media_hash) row; timestamps are epoch
+// millis, mediaUri is a file:// uri into MessageMediaStore (null for text-only messages)
+private fun readMessageRow(c: Cursor): WritableMap {
+    val m = Arguments.createMap()
+    m.putDouble("timestamp", c.getLong(0).toDouble())
+    m.putBoolean("isSent", c.getInt(1) == 1)
+    m.putString("content", c.getString(2))
+    m.putString("sender", c.getString(3))
+    m.putString("mediaUri", MessageMediaStore.uriFor(reactCtx, c.getString(4)))
+    return m
+}
+
+private fun coldRowMap(r: ColdStorage.Row): WritableMap {
+    val m = Arguments.createMap()
+    m.putDouble("timestamp", r.timestamp.toDouble())
+    m.putBoolean("isSent", r.isSent)
+    m.putString("content", r.content)
+    m.putString("sender", r.sender)
+    m.putString("mediaUri", MessageMediaStore.uriFor(reactCtx, r.mediaHash))
+    return m
+}
+
+// Interleaves cold-tier rows (oldest first) with a hot message cursor ordered by
+// timestamp ASC, so callers see one history regardless of where rows live
+private fun pushMerged(arr: WritableArray, cold: List<ColdStorage.Row>, c: Cursor) {
+    var i = 0
+    while (c.moveToNext()) {
+        val ts = c.getLong(0)
+        while (i < cold.size && cold[i].timestamp <= ts) arr.pushMap(coldRowMap(cold[i++]))
+        arr.pushMap(readMessageRow(c))
+    }
+    while (i < cold.size) arr.pushMap(coldRowMap(cold[i++]))
+}
+
+// Messages of one chat with fromMs <= timestamp < toMs, oldest first (uses idx_messages_chat_ts)
+@ReactMethod
+fun getChatMessagesInRange(app: String, contactIdentifier: String, fromMs: Double, toMs: Double, promise: Promise) {
+    if (!chargeChatView(promise)) return
+
+    val readDb = dbHelper.readableDatabase
+    try {
+        val arr = Arguments.createArray()
+        val chatId = readDb.rawQuery(
+            "SELECT id FROM chats WHERE app = ? AND contact_identifier = ?",
+            arrayOf(app, contactIdentifier)
+        ).use { c -> if (c.moveToFirst()) c.getLong(0) else null }
+        if (chatId == null) {
+            promise.resolve(arr)
+            return
+        }
+        val from = fromMs.toLong()
+        val to = toMs.toLong()
+        readDb.rawQuery(
+            "SELECT timestamp, is_sent, content, sender, media_hash FROM messages WHERE chat_id = ? AND timestamp >= ? AND timestamp < ? ORDER BY timestamp ASC",
+            arrayOf(chatId.toString(), from.toString(), to.toString())
+        ).use { c ->
+            // Only blocks overlapping the range are decompressed
+            pushMerged(arr, ColdStorage.readRange(readDb, chatId, from, to), c)
+        }
+        promise.resolve(arr)
+    } catch (e: Exception) {
+        promise.reject("GET_CHAT_MESSAGES_ERROR", e)
+    }
+}
+
+// Messages across all chats (optionally one app) with fromMs <= timestamp < toMs,
+// newest first, capped at limit (uses idx_messages_ts)
+@ReactMethod
+fun getMessagesBetween(fromMs: Double, toMs: Double, app: String?, limit: Int, promise: Promise) {
+    if (!chargeChatView(promise)) return
+
+    val readDb = dbHelper.readableDatabase
+    try {
+        val appClause = if (app != null) " AND c.app = ?" else ""
+        val args = mutableListOf(fromMs.toLong().toString(), toMs.toLong().toString())
+        if (app != null) args.add(app)
+        args.add(limit.coerceIn(1, 1000).toString())
+
+        // The newest `max` rows seen so far, oldest on top. Cold rows stay decoded Rows
+        // until they make the final page, so only that page is turned into maps.
+        class Candidate(val ts: Long, val hot: WritableMap?, val cold: ColdStorage.Row?, val chat: Array<String?>?)
+        val max = limit.coerceIn(1, 1000)
+        val page = PriorityQueue<Candidate>(max, compareBy { it.ts })
+        fun offer(candidate: Candidate) {
+            if (page.size < max) {
+                page.add(candidate)
+            } else if (candidate.ts > page.peek()!!.ts) {
+                page.poll()
+                page.add(candidate)
+            }
+        }
+
+        readDb.rawQuery(
+            """
+            SELECT m.timestamp, m.is_sent, m.content, m.sender, m.media_hash, c.app, c.contact_identifier, c.name
+            FROM messages m
+            JOIN chats c ON c.id = m.chat_id
+            WHERE m.timestamp >= ? AND m.timestamp < ?$appClause
+            ORDER BY m.timestamp DESC
+            LIMIT ?
+            """.trimIndent(),
+            args.toTypedArray()
+        ).use { c ->
+            while (c.moveToNext()) {
+                val m = readMessageRow(c)
+                m.putString("app", c.getString(5))
+                m.putString("contact_identifier", c.getString(6))
+                m.putString("name", c.getString(7))
+                offer(Candidate(c.getLong(0), m, null, null))
+            }
+        }
+
+        // Older ranges may live in the cold tier. Blocks come newest first, so once the
+        // page is full and a block ends before the page's oldest row, no later block can
+        // contribute and the rest are never read. Payloads are fetched per block so the
+        // sort doesn't carry them.
+        val from = fromMs.toLong()
+        val to = toMs.toLong()
+        val blockArgs = mutableListOf(from.toString(), to.toString())
+        if (app != null) blockArgs.add(app)
+        readDb.rawQuery(
+            """
+            SELECT b.id, b.day, b.last_ts, c.app, c.contact_identifier, c.name
+            FROM message_blocks b
+            JOIN chats c ON c.id = b.chat_id
+            WHERE b.last_ts >= ? AND b.first_ts < ?$appClause
+            ORDER BY b.last_ts DESC
+            """.trimIndent(),
+            blockArgs.toTypedArray()
+        ).use { c ->
+            while (c.moveToNext()) {
+                if (page.size >= max && c.getLong(2) < page.peek()!!.ts) break
+                val payload = readDb.rawQuery("SELECT payload FROM message_blocks WHERE id = ?", arrayOf(c.getLong(0).toString()))
+                    .use { p -> if (p.moveToFirst()) p.getBlob(0) else null } ?: continue
+                val chat = arrayOf(c.getString(3), c.getString(4), c.getString(5))
+                for (r in ColdStorage.decode(c.getLong(1), payload)) {
+                    if (r.timestamp < from || r.timestamp >= to) continue
+                    offer(Candidate(r.timestamp, null, r, chat))
+                }
+            }
+        }
+
+        val arr = Arguments.createArray()
+        for (candidate in page.sortedByDescending { it.ts }) {
+            val m = candidate.hot ?: coldRowMap(candidate.cold!!).apply {
+                putString("app", candidate.chat!![0])
+                putString("contact_identifier", candidate.chat[1])
+                putString("name", candidate.chat[2])
+            }
+            arr.pushMap(m)
+        }
+        promise.resolve(arr)
+    } catch (e: Exception) {
+        promise.reject("GET_MESSAGES_BETWEEN_ERROR", e)
+    }
+}
+
 // Add initial wildcard enable in createTables (for default all)
 @ReactMethod
 fun createTables(promise: Promise) {
@@ -160,6 +354,7 @@ fun createTables(promise: Promise) {
         for (app in apps) {
             db.execSQL("INSERT OR IGNORE INTO enabled_backups (app, contact_identifier) VALUES (?, '*')", arrayOf(app))
         }
+        BackupLookupCache.invalidateEnabled()
         promise.resolve(true)
     } catch (e: Exception) {
         promise.reject("CREATE_TABLES_ERROR", e)
@@ -749,6 +944,7 @@ private fun countExistingContactsByPhones(db: SQLiteDatabase, phones: List<Strin
                 "INSERT OR IGNORE INTO chats (app, contact_identifier, name) VALUES (?, ?, ?)",
                 arrayOf(app, contactIdentifier, name ?: contactIdentifier)
             )
+            BackupLookupCache.invalidateEnabled()
             promise.resolve(true)
         } catch (e: Exception) {
             promise.reject("ENABLE_BACKUP_ERROR", e)
@@ -763,6 +959,7 @@ private fun countExistingContactsByPhones(db: SQLiteDatabase, phones: List<Strin
                 "DELETE FROM enabled_backups WHERE app = ? AND contact_identifier = ?",
                 arrayOf(app, contactIdentifier)
             )
+            BackupLookupCache.invalidateEnabled()
             // Note: Keeping historical chats/messages; delete if needed
             promise.resolve(true)
         } catch (e: Exception) {
@@ -827,22 +1024,16 @@ private fun countExistingContactsByPhones(db: SQLiteDatabase, phones: List<Strin
                 chatIdCursor.close()
                 return
             }
-            val chatId = chatIdCursor.getInt(0)
+            val chatId = chatIdCursor.getLong(0)
             chatIdCursor.close()
 
             cursor = readDb.rawQuery(
-                "SELECT timestamp, is_sent, content FROM messages WHERE chat_id = ? ORDER BY timestamp ASC",
+                "SELECT timestamp, is_sent, content, sender, media_hash FROM messages WHERE chat_id = ? ORDER BY timestamp ASC",
                 arrayOf(chatId.toString())
             )
             val arr = Arguments.createArray()
             cursor?.let { c ->
-                while (c.moveToNext()) {
-                    val m = Arguments.createMap()
-                    m.putString("timestamp", c.getString(0))
-                    m.putBoolean("isSent", c.getInt(1) == 1)
-                    m.putString("content", c.getString(2))
-                    arr.pushMap(m)
-                }
+                pushMerged(arr, ColdStorage.readRange(readDb, chatId), c)
             }
             promise.resolve(arr)
         } catch (e: Exception) {
@@ -852,6 +1043,225 @@ private fun countExistingContactsByPhones(db: SQLiteDatabase, phones: List<Strin
         }
     }
 
+    // -------- Full-text search over backed-up messages --------
+    // Hits are ranked by match density (matched terms per content length, from FTS
+    // offsets()), newest first on ties. Once the indexed (hot) messages are exhausted,
+    // later pages continue into the compressed cold tier, newest blocks first. cursor
+    // is the opaque nextCursor of the previous page, or null for the first page.
+    @ReactMethod
+    fun searchMessages(query: String, app: String?, contactIdentifier: String?, limit: Int, cursor: String?, promise: Promise) {
+        val terms = searchTerms(query)
+        if (terms.isEmpty()) {
+            promise.resolve(Arguments.createMap().apply {
+                putArray("hits", Arguments.createArray())
+                putNull("nextCursor")
+            })
+            return
+        }
+
+        val pageSize = limit.coerceIn(1, 200)
+        val db = dbHelper.readableDatabase
+        try {
+            // "c:<day>:<blockId>:<skip>" resumes in the cold tier; anything else is a hot offset
+            if (cursor != null && cursor.startsWith("c:")) {
+                val parts = cursor.split(':')
+                val from = ColdStorage.SearchPosition(
+                    parts.getOrNull(1)?.toLongOrNull() ?: Long.MAX_VALUE,
+                    parts.getOrNull(2)?.toLongOrNull() ?: Long.MAX_VALUE,
+                    parts.getOrNull(3)?.toIntOrNull() ?: 0
+                )
+                val (coldHits, next) = ColdStorage.search(db, terms, app, contactIdentifier, from, pageSize)
+                val hits = Arguments.createArray()
+                for (h in coldHits) {
+                    val m = Arguments.createMap()
+                    // Cold rows have no messages.id; negative ids keep keys unique and stable
+                    m.putDouble("id", -(h.blockId * 100_000 + h.index + 1).toDouble())
+                    m.putString("app", h.app)
+                    m.putString("contact_identifier", h.contactIdentifier)
+                    m.putString("name", h.name)
+                    m.putDouble("timestamp", h.row.timestamp.toDouble())
+                    m.putBoolean("isSent", h.row.isSent)
+                    m.putString("snippet", h.snippet)
+                    m.putDouble("score", h.score)
+                    hits.pushMap(m)
+                }
+                val result = Arguments.createMap()
+                result.putArray("hits", hits)
+                if (next != null) result.putString("nextCursor", "c:${next.day}:${next.blockId}:${next.skip}") else result.putNull("nextCursor")
+                promise.resolve(result)
+                return
+            }
+            val offset = cursor?.removePrefix("h:")?.toIntOrNull() ?: 0
+            searchHot(db, terms.joinToString(" ") { "$it*" }, app, contactIdentifier, pageSize, offset, promise)
+        } catch (e: Exception) {
+            promise.reject("SEARCH_MESSAGES_ERROR", e)
+        }
+    }
+
+    private fun searchHot(db: SQLiteDatabase, match: String, app: String?, contactIdentifier: String?, pageSize: Int, offset: Int, promise: Promise) {
+        val where = StringBuilder("messages_fts MATCH ?")
+        val args = mutableListOf(match)
+        if (app != null) {
+            where.append(" AND c.app = ?")
+            args.add(app)
+        }
+        if (contactIdentifier != null) {
+            where.append(" AND c.contact_identifier = ?")
+            args.add(contactIdentifier)
+        }
+        args.add((pageSize + 1).toString())
+        args.add(offset.toString())
+
+        db.rawQuery(
+            """
+            SELECT m.id, c.app, c.contact_identifier, c.name, m.timestamp, m.is_sent,
+                   snippet(messages_fts, '[', ']', '…', -1, 12) AS snip,
+                   ((length(offsets(messages_fts)) - length(replace(offsets(messages_fts), ' ', '')) + 1) / 4)
+                     * 100.0 / (length(m.content) + 20) AS score
+            FROM messages_fts
+            JOIN messages m ON m.id = messages_fts.docid
+            JOIN chats c ON c.id = m.chat_id
+            WHERE $where
+            ORDER BY score DESC, m.timestamp DESC
+            LIMIT ? OFFSET ?
+            """.trimIndent(),
+            args.toTypedArray()
+        ).use { c ->
+            val hits = Arguments.createArray()
+            var count = 0
+            while (c.moveToNext() && count < pageSize) {
+                val m = Arguments.createMap()
+                m.putDouble("id", c.getLong(0).toDouble())
+                m.putString("app", c.getString(1))
+                m.putString("contact_identifier", c.getString(2))
+                m.putString("name", c.getString(3))
+                m.putDouble("timestamp", c.getLong(4).toDouble())
+                m.putBoolean("isSent", c.getInt(5) == 1)
+                m.putString("snippet", c.getString(6))
+                m.putDouble("score", c.getDouble(7))
+                hits.pushMap(m)
+                count++
+            }
+            val result = Arguments.createMap()
+            result.putArray("hits", hits)
+            when {
+                c.count > pageSize -> result.putString("nextCursor", "h:${offset + pageSize}")
+                ColdStorage.hasBlocks(db) -> result.putString("nextCursor", ColdStorage.SearchPosition.START.let { "c:${it.day}:${it.blockId}:${it.skip}" })
+                else -> result.putNull("nextCursor")
+            }
+            promise.resolve(result)
+        }
+    }
+
+    // Splits free user text into letter/digit words; each becomes a prefix term, so FTS
+    // operators in the input are inert
+    private fun searchTerms(query: String): List<String> =
+        query.split(Regex("[^\\p{L}\\p{N}]+")).filter { it.isNotEmpty() }
+
+    // -------- Export / import --------
+    // format: "jsonl" or "csv". destUri: a content:// uri from a create-document picker,
+    // or null to write under the app's external files "exports" dir. Resolves
+    // {uri, rows}. A single chat costs the same as viewing it; all chats is premium.
+    @ReactMethod
+    fun exportChat(app: String, contactIdentifier: String, format: String, gzip: Boolean, destUri: String?, promise: Promise) {
+        val db = dbHelper.readableDatabase
+        val chatId = db.rawQuery(
+            "SELECT id FROM chats WHERE app = ? AND contact_identifier = ?",
+            arrayOf(app, contactIdentifier)
+        ).use { c -> if (c.moveToFirst()) c.getLong(0) else null }
+        if (chatId == null) {
+            promise.reject("EXPORT_ERROR", "No backed-up chat for $app/$contactIdentifier")
+            return
+        }
+        // Charged up front so two exports can't spend the same points; refunded if it fails
+        val charged = !isPremium()
+        if (!chargeChatView(promise)) return
+        runExport(listOf(chatId), "${app}_${contactIdentifier}", format, gzip, destUri, promise) {
+            if (charged) refundChatView()
+        }
+    }
+
+    @ReactMethod
+    fun exportAllChats(format: String, gzip: Boolean, destUri: String?, promise: Promise) {
+        if (!isPremium()) {
+            promise.reject("PREMIUM_REQUIRED", "Exporting all chats requires premium")
+            return
+        }
+        runExport(null, "all_chats", format, gzip, destUri, promise)
+    }
+
+    private fun runExport(
+        chatIds: List<Long>?,
+        baseName: String,
+        format: String,
+        gzip: Boolean,
+        destUri: String?,
+        promise: Promise,
+        onFailure: () -> Unit = {}
+    ) {
+        val fmt = if (format == ChatArchive.FORMAT_CSV) ChatArchive.FORMAT_CSV else ChatArchive.FORMAT_JSONL
+        Thread({
+            try {
+                val target: Uri
+                val out = if (destUri != null) {
+                    target = Uri.parse(destUri)
+                    reactCtx.contentResolver.openOutputStream(target, "w")
+                        ?: throw IOException("Cannot open $destUri")
+                } else {
+                    val dir = File(reactCtx.getExternalFilesDir(null) ?: reactCtx.filesDir, "exports").apply { mkdirs() }
+                    val safeName = baseName.replace(Regex("[^A-Za-z0-9._-]"), "_")
+                    val file = File(dir, "$safeName-${System.currentTimeMillis()}.$fmt" + if (gzip) ".gz" else "")
+                    target = Uri.fromFile(file)
+                    FileOutputStream(file)
+                }
+                val rows = out.use { ChatArchive.export(dbHelper.readableDatabase, it, fmt, gzip, chatIds) }
+                val map = Arguments.createMap()
+                map.putString("uri", target.toString())
+                map.putDouble("rows", rows.toDouble())
+                promise.resolve(map)
+            } catch (e: Exception) {
+                Log.e(TAG, "Export failed", e)
+                onFailure()
+                promise.reject("EXPORT_ERROR", e)
+            }
+        }, "ChatExport").start()
+    }
+
+    // Accepts a content:// uri or a file path; JSONL/CSV and gzip are detected.
+    // Resolves {read, inserted, skipped}; duplicates of existing messages are skipped.
+    @ReactMethod
+    fun importChats(source: String, promise: Promise) {
+        Thread({
+            try {
+                val input = if (source.startsWith("content://") || source.startsWith("file://")) {
+                    reactCtx.contentResolver.openInputStream(Uri.parse(source))
+                        ?: throw IOException("Cannot open $source")
+                } else {
+                    FileInputStream(source)
+                }
+                val result = input.use { ChatArchive.import(dbHelper.writableDatabase, it) }
+                val map = Arguments.createMap()
+                map.putDouble("read", result.read.toDouble())
+                map.putDouble("inserted", result.inserted.toDouble())
+                map.putDouble("skipped", result.skipped.toDouble())
+                promise.resolve(map)
+            } catch (e: Exception) {
+                Log.e(TAG, "Import failed", e)
+                promise.reject("IMPORT_ERROR", e)
+            }
+        }, "ChatImport").start()
+    }
+
+    // -------- Backup writer metrics (queue depth, commit latency) --------
+    @ReactMethod
+    fun getBackupWriterStats(promise: Promise) {
+        val map = Arguments.createMap()
+        for ((key, value) in MessageBackupWriter.stats()) {
+            map.putDouble(key, value.toDouble())
+        }
+        promise.resolve(map)
+    }
+
     // -------- New: Schedule daily low points check --------
     @ReactMethod
     fun scheduleDailyLowPointsCheck(promise: Promise) {
@@ -888,17 +1298,21 @@ private fun countExistingContactsByPhones(db: SQLiteDatabase, phones: List<Strin
     }
 
     // -------- New: Get recent chats from notifications --------
-    @ReactMethod
+    // Senders list straight from the trigger-maintained recent_chats (idx_recent_chats_ts /
+    // idx_recent_chats_app_ts), with snippet and counts; cost doesn't grow with history size
+@ReactMethod
 fun getRecentChats(app: String?, promise: Promise) {
     val db = dbHelper.readableDatabase
     var cursor: Cursor? = null
     try {
-        val whereClause = if (app != null) " WHERE app = ?" else ""
+        val whereClause = if (app != null) " WHERE r.app = ?" else ""
         val query = """
-            SELECT app, contact_identifier, name, last_timestamp 
-            FROM recent_chats
+            SELECT r.app, r.contact_identifier, r.name, r.last_timestamp, ch.avatar_hash,
+                   r.last_snippet, r.message_count, r.unread_count
+            FROM recent_chats r
+            LEFT JOIN chats ch ON ch.app = r.app AND ch.contact_identifier = r.contact_identifier
             $whereClause
-            ORDER BY last_timestamp DESC 
+            ORDER BY r.last_timestamp DESC
             LIMIT 100
         """.trimIndent()
 
@@ -911,7 +1325,11 @@ fun getRecentChats(app: String?, promise: Promise) {
                 m.putString("app", c.getString(0))
                 m.putString("contact_identifier", c.getString(1))
                 m.putString("name", c.getString(2))
-                m.putString("last_timestamp", c.getString(3))
+                m.putDouble("last_timestamp", c.getLong(3).toDouble())
+                m.putString("avatarUri", MessageMediaStore.uriFor(reactCtx, c.getString(4)))
+                m.putString("last_snippet", c.getString(5))
+                m.putInt("message_count", c.getInt(6))
+                m.putInt("unread_count", c.getInt(7))
                 arr.pushMap(m)
             }
         }
@@ -947,7 +1365,7 @@ fun getRecentChatsOld(app: String?, promise: Promise) {
                 m.putString("app", c.getString(0))
                 m.putString("contact_identifier", c.getString(1))
                 m.putString("name", c.getString(2))
-                m.putString("last_timestamp", c.getString(3))
+                m.putDouble("last_timestamp", c.getLong(3).toDouble())
                 arr.pushMap(m)
             }
         }
@@ -1025,40 +1443,233 @@ fun isNotificationAccessGranted(promise: Promise) {
     // -------- New: Auto-delete days prefs --------
     @ReactMethod
     fun getAutoDeleteDays(promise: Promise) {
-        val prefs = reactCtx.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
-        promise.resolve(prefs.getInt(KEY_AUTO_DELETE_DAYS, 0))
+        promise.resolve(BackupSettings.get(reactCtx).autoDeleteDays)
     }
 
     @ReactMethod
     fun setAutoDeleteDays(days: Int, promise: Promise) {
         val prefs = reactCtx.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
         prefs.edit().putInt(KEY_AUTO_DELETE_DAYS, days).apply()
+        BackupSettings.reload(reactCtx)
+        promise.resolve(days)
+    }
+
+    // -------- Retention --------
+    // contactIdentifier '*' sets the app-wide default; days = 0 keeps forever
+    @ReactMethod
+    fun setRetentionPolicy(app: String, contactIdentifier: String, days: Int, promise: Promise) {
+        try {
+            val db = dbHelper.writableDatabase
+            db.execSQL(
+                "INSERT OR REPLACE INTO retention_policies (app, contact_identifier, days) VALUES (?, ?, ?)",
+                arrayOf<Any>(app, contactIdentifier, days)
+            )
+            promise.resolve(true)
+        } catch (e: Exception) {
+            promise.reject("RETENTION_ERROR", e)
+        }
+    }
+
+    @ReactMethod
+    fun removeRetentionPolicy(app: String, contactIdentifier: String, promise: Promise) {
+        try {
+            val db = dbHelper.writableDatabase
+            db.execSQL(
+                "DELETE FROM retention_policies WHERE app = ? AND contact_identifier = ?",
+                arrayOf(app, contactIdentifier)
+            )
+            promise.resolve(true)
+        } catch (e: Exception) {
+            promise.reject("RETENTION_ERROR", e)
+        }
+    }
+
+    @ReactMethod
+    fun getRetentionPolicies(promise: Promise) {
+        try {
+            val db = dbHelper.readableDatabase
+            val arr = Arguments.createArray()
+            db.rawQuery("SELECT app, contact_identifier, days FROM retention_policies ORDER BY app, contact_identifier", null).use { c ->
+                while (c.moveToNext()) {
+                    val map = Arguments.createMap()
+                    map.putString("app", c.getString(0))
+                    map.putString("contact_identifier", c.getString(1))
+                    map.putInt("days", c.getInt(2))
+                    arr.pushMap(map)
+                }
+            }
+            promise.resolve(arr)
+        } catch (e: Exception) {
+            promise.reject("RETENTION_ERROR", e)
+        }
+    }
+
+    // Runs retention off the bridge thread with a generous budget and, unlike the daily
+    // receiver, allows the one-time VACUUM that enables incremental reclamation
+    @ReactMethod
+    fun runRetentionNow(promise: Promise) {
+        Thread({
+            try {
+                val result = RetentionWorker.run(reactCtx, 60_000L, allowFullVacuum = true)
+                val map = Arguments.createMap()
+                map.putDouble("rowsDeleted", result.rowsDeleted.toDouble())
+                map.putDouble("bytesReclaimed", result.bytesReclaimed.toDouble())
+                map.putInt("chatsTrimmed", result.chatsTrimmed)
+                map.putBoolean("completed", result.completed)
+                map.putDouble("durationMs", result.durationMs.toDouble())
+                promise.resolve(map)
+            } catch (e: Exception) {
+                promise.reject("RETENTION_ERROR", e)
+            }
+        }, "RetentionWorker").start()
+    }
+
+    // -------- Cold storage tier --------
+    // Messages older than this many days are compressed into message_blocks; 0 disables
+    @ReactMethod
+    fun getColdStorageDays(promise: Promise) {
+        promise.resolve(BackupSettings.get(reactCtx).coldAfterDays)
+    }
+
+    @ReactMethod
+    fun setColdStorageDays(days: Int, promise: Promise) {
+        val prefs = reactCtx.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+        prefs.edit().putInt(BackupSettings.KEY_COLD_AFTER_DAYS, days).apply()
+        BackupSettings.reload(reactCtx)
         promise.resolve(days)
     }
+
+    @ReactMethod
+    fun compactColdStorageNow(promise: Promise) {
+        Thread({
+            try {
+                val result = ColdStorage.compact(reactCtx, 60_000L)
+                val map = Arguments.createMap()
+                map.putDouble("rowsMoved", result.rowsMoved.toDouble())
+                map.putInt("blocksWritten", result.blocksWritten)
+                map.putBoolean("completed", result.completed)
+                promise.resolve(map)
+            } catch (e: Exception) {
+                promise.reject("COMPACTION_ERROR", e)
+            }
+        }, "ColdStorage").start()
+    }
+
+    // Row and byte counts of both tiers, to show what compaction is saving
+    @ReactMethod
+    fun getColdStorageStats(promise: Promise) {
+        try {
+            val db = dbHelper.readableDatabase
+            val map = Arguments.createMap()
+            db.rawQuery("SELECT COUNT(*), COALESCE(SUM(count), 0), COALESCE(SUM(length(payload)), 0) FROM message_blocks", null).use { c ->
+                if (c.moveToFirst()) {
+                    map.putDouble("blocks", c.getLong(0).toDouble())
+                    map.putDouble("coldMessages", c.getLong(1).toDouble())
+                    map.putDouble("coldPayloadBytes", c.getLong(2).toDouble())
+                }
+            }
+            db.rawQuery("SELECT COUNT(*), COALESCE(SUM(length(content)), 0) FROM messages", null).use { c ->
+                if (c.moveToFirst()) {
+                    map.putDouble("hotMessages", c.getLong(0).toDouble())
+                    map.putDouble("hotContentBytes", c.getLong(1).toDouble())
+                }
+            }
+            promise.resolve(map)
+        } catch (e: Exception) {
+            promise.reject("COLD_STATS_ERROR", e)
+        }
+    }
+
+    // JSON of the last run (daily or manual), or null if retention never ran
+    @ReactMethod
+    fun getLastRetentionReport(promise: Promise) {
+        promise.resolve(RetentionWorker.lastReport(reactCtx))
+    }
+
+    // Messages the sender deleted after we backed them up, most recently deleted first.
+    // Keyset-paged on (deleted_at, id) over the partial idx_messages_deleted; cursor is
+    // the nextCursor of the previous page ("<deletedAt>:<id>") or null for the first.
+    // Every page is charged as a chat view, since a cursor can be forged to start anywhere.
+    @ReactMethod
+    fun getRecoveredMessages(app: String?, limit: Int, cursor: String?, promise: Promise) {
+        if (!chargeChatView(promise)) return
+        try {
+            val pageSize = limit.coerceIn(1, 200)
+            val where = StringBuilder("m.deleted_at IS NOT NULL")
+            val args = ArrayList<String>()
+            if (!app.isNullOrEmpty()) {
+                where.append(" AND c.app = ?")
+                args.add(app)
+            }
+            val after = cursor?.split(':')?.takeIf { it.size == 2 }
+            val afterDeleted = after?.get(0)?.toLongOrNull()
+            val afterId = after?.get(1)?.toLongOrNull()
+            if (afterDeleted != null && afterId != null) {
+                where.append(" AND (m.deleted_at < ? OR (m.deleted_at = ? AND m.id < ?))")
+                args.add(afterDeleted.toString())
+                args.add(afterDeleted.toString())
+                args.add(afterId.toString())
+            }
+
+            val items = Arguments.createArray()
+            var count = 0
+            var last: String? = null
+            dbHelper.readableDatabase.rawQuery(
+                """
+                SELECT m.timestamp, m.is_sent, m.content, m.sender, m.media_hash,
+                       m.id, m.deleted_at, c.app, c.contact_identifier, c.name
+                FROM messages m JOIN chats c ON c.id = m.chat_id
+                WHERE $where
+                ORDER BY m.deleted_at DESC, m.id DESC LIMIT $pageSize
+                """.trimIndent(),
+                args.toTypedArray()
+            ).use { c ->
+                while (c.moveToNext()) {
+                    val m = readMessageRow(c)
+                    m.putDouble("id", c.getLong(5).toDouble())
+                    m.putDouble("deletedAt", c.getLong(6).toDouble())
+                    m.putString("app", c.getString(7))
+                    m.putString("contact_identifier", c.getString(8))
+                    m.putString("name", c.getString(9))
+                    items.pushMap(m)
+                    last = "${c.getLong(6)}:${c.getLong(5)}"
+                    count++
+                }
+            }
+
+            val result = Arguments.createMap()
+            result.putArray("items", items)
+            result.putString("nextCursor", if (count == pageSize) last else null)
+            promise.resolve(result)
+        } catch (e: Exception) {
+            promise.reject("GET_RECOVERED_ERROR", e)
+        }
+    }
 @ReactMethod
 fun getEnabledNotificationApps(promise: Promise) {
     val prefs = reactCtx.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
-    val enabledJson = prefs.getString("enabled_notification_apps", "[]") ?: "[]"
+    val enabledJson = prefs.getString(BackupSettings.KEY_ENABLED_APPS, "[]") ?: "[]"
     promise.resolve(enabledJson)  // JSON array string, parse in JS
 }
 
 @ReactMethod
 fun setEnabledNotificationApps(appsJson: String, promise: Promise) {
     val prefs = reactCtx.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
-    prefs.edit().putString("enabled_notification_apps", appsJson).apply()
+    prefs.edit().putString(BackupSettings.KEY_ENABLED_APPS, appsJson).apply()
+    BackupSettings.reload(reactCtx)
     promise.resolve(true)
 }
 
 @ReactMethod
 fun getBackupPrivateOnly(promise: Promise) {
-    val prefs = reactCtx.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
-    promise.resolve(prefs.getBoolean("backupPrivateOnly", false))
+    promise.resolve(BackupSettings.get(reactCtx).privateOnly)
 }
 
 @ReactMethod
 fun setBackupPrivateOnly(enabled: Boolean, promise: Promise) {
     val prefs = reactCtx.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
-    prefs.edit().putBoolean("backupPrivateOnly", enabled).apply()
+    prefs.edit().putBoolean(BackupSettings.KEY_PRIVATE_ONLY, enabled).apply()
+    BackupSettings.reload(reactCtx)
     promise.resolve(enabled)
 }
     // Internal method for saving a message (called from NotificationListenerService)
@@ -1273,97 +1884,92 @@ fun setBackupPrivateOnly(enabled: Boolean, promise: Promise) {
 companion object {
     private const val TAG = "CampaignsModule"
 
-    fun saveMessage(context: Context, app: String, contactIdentifier: String, name: String, timestamp: String, content: String, isSent: Boolean) {
-        if (app.isBlank() || contactIdentifier.isBlank() || content.isBlank()) {
-            Log.w(TAG, "Skipping invalid message: blank app/contact/content")
-            return
-        }
-
+    fun saveMessage(context: Context, app: String, contactIdentifier: String, name: String, timestamp: Long, content: String, isSent: Boolean, sender: String? = null) {
         Log.d(TAG, "saveMessage called: app=$app, contact=$contactIdentifier, ts=$timestamp, isSent=$isSent")
 
-        val dbHelper = CampaignsDbHelper(context)
+        val dbHelper = CampaignsDbHelper.getInstance(context)
         val db = dbHelper.writableDatabase
         db.beginTransaction()
         try {
-            // Get or create chat_id
-            var chatId: Long = -1L
-            var chatIdCursor = db.rawQuery(
-                "SELECT id FROM chats WHERE app = ? AND contact_identifier = ?",
-                arrayOf(app, contactIdentifier)
-            )
-            if (chatIdCursor.moveToFirst()) {
-                chatId = chatIdCursor.getLong(0)
-                Log.d(TAG, "Found existing chat_id: $chatId")
-            }
-            chatIdCursor.close()
-
-            if (chatId == -1L) {
-                val stmt = db.compileStatement("INSERT OR IGNORE INTO chats (app, contact_identifier, name) VALUES (?, ?, ?)")
-                stmt.bindString(1, app)
-                stmt.bindString(2, contactIdentifier)
-                stmt.bindString(3, name)
-                val insertResult = stmt.executeInsert()
-                if (insertResult != -1L) {
-                    chatId = insertResult
-                    Log.d(TAG, "Created new chat_id: $chatId")
-                } else {
-                    db.rawQuery(
-                        "SELECT id FROM chats WHERE app = ? AND contact_identifier = ?",
-                        arrayOf(app, contactIdentifier)
-                    ).use { c ->
-                        if (c.moveToFirst()) chatId = c.getLong(0)
-                    }
-                    if (chatId == -1L) {
-                        Log.e(TAG, "Failed to create or find chat!")
-                        return
-                    }
-                    Log.d(TAG, "Used existing chat_id after conflict: $chatId")
-                }
-            }
+            insertMessage(db, app, contactIdentifier, name, timestamp, content, isSent, sender)
+            db.setTransactionSuccessful()
+        } catch (e: Exception) {
+            BackupLookupCache.invalidateChats()
+            Log.e(TAG, "Exception in saveMessage: ${e.message}", e)
+        } finally {
+            db.endTransaction()
+        }
+    }
 
-            if (chatId == -1L) {
-                Log.e(TAG, "No valid chat_id—aborting")
-                return
-            }
+    // Saves one message inside the caller's transaction (so MessageBackupWriter can
+    // group-commit a whole batch). Returns the new message id, or -1 when the
+    // message was invalid or a duplicate.
+    fun insertMessage(db: SQLiteDatabase, app: String, contactIdentifier: String, name: String, timestamp: Long, content: String, isSent: Boolean, sender: String? = null, mediaHash: String? = null): Long {
+        if (app.isBlank() || contactIdentifier.isBlank() || content.isBlank()) {
+            Log.w(TAG, "Skipping invalid message: blank app/contact/content")
+            return -1L
+        }
 
-            // Dedup check: Skip message insert if exact match exists
-            var exists = false
+        // Get or create chat_id (cached after the first lookup)
+        var chatId: Long = BackupLookupCache.chatId(app, contactIdentifier) ?: -1L
+        if (chatId == -1L) {
             db.rawQuery(
-                "SELECT id FROM messages WHERE chat_id = ? AND timestamp = ? AND content = ? AND is_sent = ?",
-                arrayOf(chatId.toString(), timestamp, content, if (isSent) "1" else "0")
+                "SELECT id FROM chats WHERE app = ? AND contact_identifier = ?",
+                arrayOf(app, contactIdentifier)
             ).use { c ->
-                exists = c.moveToFirst()
+                if (c.moveToFirst()) chatId = c.getLong(0)
             }
+        }
 
-            if (!exists) {
-                // Insert message only if not duplicate
-                val stmt = db.compileStatement("INSERT INTO messages (chat_id, timestamp, is_sent, content) VALUES (?, ?, ?, ?)")
-                stmt.bindLong(1, chatId)
-                stmt.bindString(2, timestamp)
-                stmt.bindLong(3, if (isSent) 1L else 0L)
-                stmt.bindString(4, content)
-                val messageId = stmt.executeInsert()
-                Log.d(TAG, "Inserted message id: $messageId")
+        if (chatId == -1L) {
+            val stmt = db.compileStatement("INSERT OR IGNORE INTO chats (app, contact_identifier, name) VALUES (?, ?, ?)")
+            stmt.bindString(1, app)
+            stmt.bindString(2, contactIdentifier)
+            stmt.bindString(3, name)
+            val insertResult = stmt.executeInsert()
+            if (insertResult != -1L) {
+                chatId = insertResult
+                Log.d(TAG, "Created new chat_id: $chatId")
             } else {
-                Log.d(TAG, "Skipping duplicate message insert")
+                db.rawQuery(
+                    "SELECT id FROM chats WHERE app = ? AND contact_identifier = ?",
+                    arrayOf(app, contactIdentifier)
+                ).use { c ->
+                    if (c.moveToFirst()) chatId = c.getLong(0)
+                }
+                if (chatId == -1L) {
+                    Log.e(TAG, "Failed to create or find chat!")
+                    return -1L
+                }
             }
-
-            // CRITICAL FIX: ALWAYS update recent_chats, even for duplicates
-            // This ensures the sender appears in the list
-            db.execSQL(
-                "INSERT OR REPLACE INTO recent_chats (app, contact_identifier, name, last_timestamp) VALUES (?, ?, ?, ?)",
-                arrayOf(app, contactIdentifier, name, timestamp)
-            )
-            Log.d(TAG, "Updated recent_chats with ts=$timestamp")
-
-            db.setTransactionSuccessful()
-            Log.d(TAG, "Transaction committed")
-        } catch (e: Exception) {
-            Log.e(TAG, "Exception in saveMessage: ${e.message}", e)
-        } finally {
-            db.endTransaction()
-            Log.d(TAG, "Transaction ended")
         }
+        BackupLookupCache.putChatId(app, contactIdentifier, chatId)
+
+        // Dedup: the unique (chat_id, timestamp, is_sent, content_hash) index turns an
+        // exact repeat into a no-op, and executeInsert returns -1 for it. Days already
+        // compacted into the cold tier are checked against their block instead.
+        val contentHash = CampaignsDbHelper.contentHash(content)
+        if (ColdStorage.containsRow(db, chatId, timestamp, isSent, contentHash)) {
+            Log.d(TAG, "Skipping duplicate of a compacted message")
+            return -1L
+        }
+        val stmt = db.compileStatement(
+            "INSERT OR IGNORE INTO messages (chat_id, timestamp, is_sent, content, content_hash, sender, media_hash) VALUES (?, ?, ?, ?, ?, ?, ?)"
+        )
+        stmt.bindLong(1, chatId)
+        stmt.bindLong(2, timestamp)
+        stmt.bindLong(3, if (isSent) 1L else 0L)
+        stmt.bindString(4, content)
+        stmt.bindLong(5, contentHash)
+        if (sender != null) stmt.bindString(6, sender) else stmt.bindNull(6)
+        if (mediaHash != null) stmt.bindString(7, mediaHash) else stmt.bindNull(7)
+        val messageId = stmt.executeInsert()
+        if (messageId == -1L) {
+            Log.d(TAG, "Skipping duplicate message insert")
+        }
+
+        // recent_chats (last timestamp, snippet, counts) is maintained by the recent_chats_ai trigger
+        return messageId
     }
 }
 
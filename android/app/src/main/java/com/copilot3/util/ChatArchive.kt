@@ -0,0 +1,282 @@
+package com.copilot3.util
+
+import android.database.sqlite.SQLiteDatabase
+import android.util.Log
+import org.json.JSONObject
+import java.io.BufferedInputStream
+import java.io.BufferedReader
+import java.io.BufferedWriter
+import java.io.InputStream
+import java.io.InputStreamReader
+import java.io.OutputStream
+import java.io.OutputStreamWriter
+import java.io.Reader
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+
+// Streaming export/import of backed-up chats. Rows are read in keyset pages (chat_id,
+// timestamp, id) so no cursor window is ever refilled from the start, written straight
+// through a buffered writer, and read back line by line into batched transactions that
+// go through CampaignsModule.insertMessage (INSERT OR IGNORE, so re-imports are no-ops).
+// Memory stays constant regardless of history size.
+object ChatArchive {
+
+    private const val TAG = "ChatArchive"
+    private const val PAGE_SIZE = 1000
+    private const val IMPORT_BATCH = 500
+    private const val BUFFER_SIZE = 64 * 1024
+
+    const val FORMAT_JSONL = "jsonl"
+    const val FORMAT_CSV = "csv"
+
+    private val CSV_HEADER = listOf("app", "contact_identifier", "name", "timestamp", "is_sent", "sender", "content")
+
+    data class ImportResult(val read: Long, val inserted: Long, val skipped: Long)
+
+    // chatIds null exports every chat; returns the number of rows written
+    fun export(db: SQLiteDatabase, out: OutputStream, format: String, gzip: Boolean, chatIds: List<Long>?): Long {
+        val ids = chatIds ?: ArrayList<Long>().also { all ->
+            db.rawQuery("SELECT id FROM chats ORDER BY id", null).use { c ->
+                while (c.moveToNext()) all.add(c.getLong(0))
+            }
+        }
+        val stream = if (gzip) GZIPOutputStream(out, BUFFER_SIZE) else out
+        var rows = 0L
+        BufferedWriter(OutputStreamWriter(stream, Charsets.UTF_8), BUFFER_SIZE).use { w ->
+            if (format == FORMAT_CSV) writeCsvRow(w, CSV_HEADER)
+            for (chatId in ids) rows += exportChat(db, w, format, chatId)
+        }
+        return rows
+    }
+
+    private fun exportChat(db: SQLiteDatabase, w: BufferedWriter, format: String, chatId: Long): Long {
+        var app = ""
+        var contact = ""
+        var name = ""
+        db.rawQuery("SELECT app, contact_identifier, name FROM chats WHERE id = ?", arrayOf(chatId.toString())).use { c ->
+            if (!c.moveToFirst()) return 0L
+            app = c.getString(0) ?: ""
+            contact = c.getString(1) ?: ""
+            name = c.getString(2) ?: contact
+        }
+
+        // Cold-tier days first, one decompressed block at a time
+        var rows = 0L
+        var lastDay = Long.MIN_VALUE
+        while (true) {
+            var fetched = 0
+            ColdStorage.forEachBlock(db, "chat_id = ? AND day > ?", arrayOf(chatId.toString(), lastDay.toString()), "day", 1) { b ->
+                lastDay = b.day
+                for (r in b.rows) {
+                    writeRow(w, format, app, contact, name, r.timestamp, r.isSent, r.sender, r.content)
+                }
+                rows += b.rows.size
+                fetched++
+            }
+            if (fetched == 0) break
+        }
+
+        var lastTs = Long.MIN_VALUE
+        var lastId = Long.MIN_VALUE
+        while (true) {
+            var fetched = 0
+            db.rawQuery(
+                """
+                SELECT id, timestamp, is_sent, content, sender FROM messages
+                WHERE chat_id = ? AND (timestamp > ? OR (timestamp = ? AND id > ?))
+                ORDER BY timestamp, id LIMIT $PAGE_SIZE
+                """.trimIndent(),
+                arrayOf(chatId.toString(), lastTs.toString(), lastTs.toString(), lastId.toString())
+            ).use { c ->
+                while (c.moveToNext()) {
+                    lastId = c.getLong(0)
+                    lastTs = c.getLong(1)
+                    val isSent = c.getInt(2) == 1
+                    val content = c.getString(3) ?: ""
+                    val sender = c.getString(4)
+                    writeRow(w, format, app, contact, name, lastTs, isSent, sender, content)
+                    fetched++
+                }
+            }
+            rows += fetched
+            if (fetched < PAGE_SIZE) break
+        }
+        return rows
+    }
+
+    private fun writeRow(
+        w: BufferedWriter,
+        format: String,
+        app: String,
+        contact: String,
+        name: String,
+        timestamp: Long,
+        isSent: Boolean,
+        sender: String?,
+        content: String
+    ) {
+        if (format == FORMAT_CSV) {
+            writeCsvRow(w, listOf(app, contact, name, timestamp.toString(), if (isSent) "1" else "0", sender ?: "", content))
+        } else {
+            val o = JSONObject()
+            o.put("app", app)
+            o.put("contact_identifier", contact)
+            o.put("name", name)
+            o.put("timestamp", timestamp)
+            o.put("is_sent", isSent)
+            if (sender != null) o.put("sender", sender)
+            o.put("content", content)
+            w.write(o.toString())
+            w.newLine()
+        }
+    }
+
+    internal fun writeCsvRow(w: BufferedWriter, fields: List<String>) {
+        fields.forEachIndexed { i, f ->
+            if (i > 0) w.write(','.code)
+            if (f.any { it == ',' || it == '"' || it == '\n' || it == '\r' }) {
+                w.write('"'.code)
+                w.write(f.replace("\"", "\"\""))
+                w.write('"'.code)
+            } else {
+                w.write(f)
+            }
+        }
+        w.write("\r\n")
+    }
+
+    // Format and compression are sniffed: gzip magic bytes, then a CSV header or JSON lines
+    fun import(db: SQLiteDatabase, input: InputStream): ImportResult {
+        val buffered = BufferedInputStream(input, BUFFER_SIZE)
+        buffered.mark(2)
+        val gzipped = buffered.read() == 0x1f && buffered.read() == 0x8b
+        buffered.reset()
+        val stream = if (gzipped) GZIPInputStream(buffered, BUFFER_SIZE) else buffered
+        val reader = BufferedReader(InputStreamReader(stream, Charsets.UTF_8), BUFFER_SIZE)
+
+        reader.mark(8)
+        val peek = CharArray(5)
+        val peeked = reader.read(peek)
+        reader.reset()
+        if (peeked <= 0) return ImportResult(0, 0, 0)
+        val isCsv = String(peek, 0, peeked).trimStart('\uFEFF').startsWith("app,")
+
+        val batch = ArrayList<MessageBackupWriter.Entry.Message>(IMPORT_BATCH)
+        var read = 0L
+        var inserted = 0L
+        val flush = {
+            inserted += insertBatch(db, batch)
+            batch.clear()
+        }
+
+        reader.use { r ->
+            if (isCsv) {
+                val csv = CsvReader(r)
+                val header = csv.next() ?: return ImportResult(0, 0, 0)
+                val col = header.withIndex().associate { (i, h) -> h.trim('\uFEFF') to i }
+                while (true) {
+                    val f = csv.next() ?: break
+                    read++
+                    fun field(name: String) = col[name]?.let { f.getOrNull(it) }
+                    val ts = field("timestamp")?.toLongOrNull() ?: continue
+                    batch.add(
+                        MessageBackupWriter.Entry.Message(
+                            app = field("app") ?: continue,
+                            contactIdentifier = field("contact_identifier") ?: continue,
+                            name = field("name")?.takeIf { it.isNotEmpty() } ?: field("contact_identifier")!!,
+                            timestamp = ts,
+                            content = field("content") ?: continue,
+                            isSent = field("is_sent") == "1",
+                            sender = field("sender")?.takeIf { it.isNotEmpty() }
+                        )
+                    )
+                    if (batch.size >= IMPORT_BATCH) flush()
+                }
+            } else {
+                while (true) {
+                    val line = r.readLine() ?: break
+                    if (line.isBlank()) continue
+                    read++
+                    try {
+                        val o = JSONObject(line)
+                        val contact = o.getString("contact_identifier")
+                        batch.add(
+                            MessageBackupWriter.Entry.Message(
+                                app = o.getString("app"),
+                                contactIdentifier = contact,
+                                name = o.optString("name", contact),
+                                timestamp = o.getLong("timestamp"),
+                                content = o.getString("content"),
+                                isSent = o.optBoolean("is_sent", false),
+                                sender = if (o.isNull("sender")) null else o.optString("sender")
+                            )
+                        )
+                    } catch (e: Exception) {
+                        Log.w(TAG, "Skipping malformed line $read: ${e.message}")
+                        continue
+                    }
+                    if (batch.size >= IMPORT_BATCH) flush()
+                }
+            }
+            if (batch.isNotEmpty()) flush()
+        }
+        Log.d(TAG, "Imported $inserted of $read rows")
+        return ImportResult(read, inserted, read - inserted)
+    }
+
+    private fun insertBatch(db: SQLiteDatabase, batch: List<MessageBackupWriter.Entry.Message>): Long {
+        var inserted = 0L
+        db.beginTransaction()
+        try {
+            for (m in batch) {
+                val id = CampaignsModule.insertMessage(db, m.app, m.contactIdentifier, m.name, m.timestamp, m.content, m.isSent, m.sender)
+                if (id != -1L) inserted++
+            }
+            db.setTransactionSuccessful()
+        } catch (e: Exception) {
+            BackupLookupCache.invalidateChats()
+            throw e
+        } finally {
+            db.endTransaction()
+        }
+        return inserted
+    }
+
+    // Minimal RFC 4180 reader: quoted fields may contain commas, quotes and newlines
+    internal class CsvReader(private val r: Reader) {
+        private var eof = false
+
+        fun next(): List<String>? {
+            if (eof) return null
+            val fields = ArrayList<String>()
+            val sb = StringBuilder()
+            var quoted = false
+            var any = false
+            while (true) {
+                val ch = r.read()
+                if (ch == -1) {
+                    eof = true
+                    if (!any && fields.isEmpty()) return null
+                    fields.add(sb.toString())
+                    return fields
+                }
+                any = true
+                val c = ch.toChar()
+                if (quoted) {
+                    if (c == '"') {
+                        r.mark(1)
+                        if (r.read() == '"'.code) sb.append('"') else { r.reset(); quoted = false }
+                    } else {
+                        sb.append(c)
+                    }
+                } else when (c) {
+                    '"' -> quoted = true
+                    ',' -> { fields.add(sb.toString()); sb.setLength(0) }
+                    '\r' -> { }
+                    '\n' -> { fields.add(sb.toString()); return fields }
+                    else -> sb.append(c)
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,506 @@
+package com.copilot3.util
+
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.os.SystemClock
+import android.util.Log
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.util.zip.Deflater
+import java.util.zip.DeflaterOutputStream
+import java.util.zip.InflaterInputStream
+
+// Cold tier for old backups: messages older than coldAfterDays are packed per chat per
+// UTC day into one deflate-compressed row of message_blocks and removed from messages
+// (and so from messages_fts). Recent messages are never touched, so recent-chat
+// queries keep hitting the plain table and its indexes.
+//
+// Payload: 1 format-version byte, then a zlib stream of
+//   varint count, then per row: varint ts delta (the first from the block's UTC day
+//   start), flags byte (1 = sent, 2 = has sender, 4 = has media),
+//   varint-prefixed UTF-8 content, [varint-prefixed UTF-8 sender], [... media hash]
+// (flag 4 is additive; blocks written before it existed simply never set it)
+object ColdStorage {
+
+    private const val TAG = "ColdStorage"
+    private const val FORMAT_V1: Byte = 1
+    private const val DAY_MS = 24L * 60 * 60 * 1000
+    private const val FLAG_SENT = 1
+    private const val FLAG_SENDER = 2
+    private const val FLAG_MEDIA = 4
+    private const val SEARCH_SCAN_BLOCKS = 64
+    private const val SNIPPET_TOKENS = 12
+    private val WORD = Regex("[\\p{L}\\p{N}]+")
+
+    data class Row(val timestamp: Long, val isSent: Boolean, val content: String, val sender: String?, val mediaHash: String? = null)
+
+    data class Block(val id: Long, val chatId: Long, val day: Long, val firstTs: Long, val lastTs: Long, val rows: List<Row>)
+
+    data class CompactResult(val rowsMoved: Long, val blocksWritten: Int, val completed: Boolean)
+
+    // ====== Codec ======
+
+    // rows sorted by timestamp, all within the UTC day `day`
+    fun encode(day: Long, rows: List<Row>): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        bytes.write(FORMAT_V1.toInt())
+        val deflater = Deflater(Deflater.BEST_COMPRESSION)
+        try {
+            DataOutputStream(DeflaterOutputStream(bytes, deflater)).use { out ->
+                writeVarLong(out, rows.size.toLong())
+                var prev = day * DAY_MS
+                for (r in rows) {
+                    writeVarLong(out, r.timestamp - prev)
+                    prev = r.timestamp
+                    out.writeByte(
+                        (if (r.isSent) FLAG_SENT else 0) or
+                            (if (r.sender != null) FLAG_SENDER else 0) or
+                            (if (r.mediaHash != null) FLAG_MEDIA else 0)
+                    )
+                    writeString(out, r.content)
+                    r.sender?.let { writeString(out, it) }
+                    r.mediaHash?.let { writeString(out, it) }
+                }
+            }
+        } finally {
+            deflater.end()
+        }
+        return bytes.toByteArray()
+    }
+
+    fun decode(day: Long, payload: ByteArray): List<Row> {
+        if (payload.isEmpty() || payload[0] != FORMAT_V1) {
+            throw IllegalStateException("Unknown message block format ${payload.firstOrNull()}")
+        }
+        DataInputStream(InflaterInputStream(ByteArrayInputStream(payload, 1, payload.size - 1))).use { input ->
+            val count = readVarLong(input).toInt()
+            val rows = ArrayList<Row>(count)
+            var ts = day * DAY_MS
+            for (i in 0 until count) {
+                ts += readVarLong(input)
+                val flags = input.readUnsignedByte()
+                val content = readString(input)
+                val sender = if (flags and FLAG_SENDER != 0) readString(input) else null
+                val mediaHash = if (flags and FLAG_MEDIA != 0) readString(input) else null
+                rows.add(Row(ts, flags and FLAG_SENT != 0, content, sender, mediaHash))
+            }
+            return rows
+        }
+    }
+
+    private fun writeVarLong(out: DataOutputStream, value: Long) {
+        var v = value
+        while (v and 0x7fL.inv() != 0L) {
+            out.writeByte(((v and 0x7f) or 0x80).toInt())
+            v = v ushr 7
+        }
+        out.writeByte(v.toInt())
+    }
+
+    private fun readVarLong(input: DataInputStream): Long {
+        var result = 0L
+        var shift = 0
+        while (true) {
+            val b = input.readUnsignedByte()
+            result = result or ((b and 0x7f).toLong() shl shift)
+            if (b and 0x80 == 0) return result
+            shift += 7
+        }
+    }
+
+    private fun writeString(out: DataOutputStream, s: String) {
+        val bytes = s.toByteArray(Charsets.UTF_8)
+        writeVarLong(out, bytes.size.toLong())
+        out.write(bytes)
+    }
+
+    private fun readString(input: DataInputStream): String {
+        val bytes = ByteArray(readVarLong(input).toInt())
+        input.readFully(bytes)
+        return String(bytes, Charsets.UTF_8)
+    }
+
+    // ====== Reads ======
+
+    // Rows of one chat with fromMs <= timestamp < toMs, oldest first
+    fun readRange(db: SQLiteDatabase, chatId: Long, fromMs: Long = Long.MIN_VALUE, toMs: Long = Long.MAX_VALUE): List<Row> {
+        val out = ArrayList<Row>()
+        db.rawQuery(
+            "SELECT day, payload FROM message_blocks WHERE chat_id = ? AND last_ts >= ? AND first_ts < ? ORDER BY day",
+            arrayOf(chatId.toString(), fromMs.toString(), toMs.toString())
+        ).use { c ->
+            while (c.moveToNext()) {
+                for (r in decode(c.getLong(0), c.getBlob(1))) {
+                    if (r.timestamp >= fromMs && r.timestamp < toMs) out.add(r)
+                }
+            }
+        }
+        return out
+    }
+
+    // Decodes matching blocks one at a time (a caller-chosen page of them) for streaming readers
+    fun forEachBlock(
+        db: SQLiteDatabase,
+        where: String,
+        args: Array<String>,
+        orderBy: String,
+        limit: Int,
+        fn: (Block) -> Unit
+    ) {
+        db.rawQuery(
+            "SELECT id, chat_id, day, first_ts, last_ts, payload FROM message_blocks WHERE $where ORDER BY $orderBy LIMIT $limit",
+            args
+        ).use { c ->
+            while (c.moveToNext()) {
+                fn(Block(c.getLong(0), c.getLong(1), c.getLong(2), c.getLong(3), c.getLong(4), decode(c.getLong(2), c.getBlob(5))))
+            }
+        }
+    }
+
+    // Dedup keys of the last block probed, so importing a whole compacted day decodes its
+    // block once; a rewrite gives the block a new id, which invalidates this
+    private var probedBlockId = -1L
+    private var probedKeys: Set<Triple<Long, Boolean, Long>> = emptySet()
+
+    // Whether the chat-day block already holds this message, on the same key as
+    // idx_messages_dedup (compacted rows have left that index). Compaction never packs the
+    // most recent day (coldAfterDays >= 1), so live notifications skip the lookup.
+    @Synchronized
+    fun containsRow(db: SQLiteDatabase, chatId: Long, timestamp: Long, isSent: Boolean, contentHash: Long): Boolean {
+        if (timestamp >= System.currentTimeMillis() - DAY_MS) return false
+        val day = Math.floorDiv(timestamp, DAY_MS)
+        val blockId = db.rawQuery(
+            "SELECT id FROM message_blocks WHERE chat_id = ? AND day = ?",
+            arrayOf(chatId.toString(), day.toString())
+        ).use { c -> if (c.moveToFirst()) c.getLong(0) else null } ?: return false
+        if (blockId != probedBlockId) {
+            val payload = db.rawQuery("SELECT payload FROM message_blocks WHERE id = ?", arrayOf(blockId.toString()))
+                .use { c -> if (c.moveToFirst()) c.getBlob(0) else null } ?: return false
+            probedKeys = decode(day, payload).mapTo(HashSet()) { dedupKey(it) }
+            probedBlockId = blockId
+        }
+        return Triple(timestamp, isSent, contentHash) in probedKeys
+    }
+
+    // Sorted by timestamp, keeping the first of rows that share a dedup key
+    fun uniqueRows(rows: List<Row>): List<Row> {
+        val seen = HashSet<Triple<Long, Boolean, Long>>()
+        return rows.sortedBy { it.timestamp }.filter { seen.add(dedupKey(it)) }
+    }
+
+    private fun dedupKey(r: Row) = Triple(r.timestamp, r.isSent, CampaignsDbHelper.contentHash(r.content))
+
+    fun hasBlocks(db: SQLiteDatabase): Boolean =
+        db.rawQuery("SELECT 1 FROM message_blocks LIMIT 1", null).use { it.moveToFirst() }
+
+    data class SearchHit(
+        val blockId: Long,
+        val index: Int,
+        val app: String,
+        val contactIdentifier: String,
+        val name: String,
+        val row: Row,
+        val snippet: String,
+        val score: Double
+    )
+
+    // Where the next cold search page starts: blocks before (day, blockId) in newest-first
+    // order, that block included, skipping its first `skip` rows. null means the cold tier
+    // is exhausted.
+    data class SearchPosition(val day: Long, val blockId: Long, val skip: Int) {
+        companion object {
+            val START = SearchPosition(Long.MAX_VALUE, Long.MAX_VALUE, 0)
+        }
+    }
+
+    // Scans blocks newest day first (a re-packed day keeps its place whatever its id),
+    // decompressing each, and matches the same way the
+    // hot-tier MATCH expression does (every term a prefix of some word). At most
+    // SEARCH_SCAN_BLOCKS blocks are read per call, so a page may come back short with a
+    // non-null next position.
+    fun search(
+        db: SQLiteDatabase,
+        terms: List<String>,
+        app: String?,
+        contactIdentifier: String?,
+        from: SearchPosition,
+        pageSize: Int
+    ): Pair<List<SearchHit>, SearchPosition?> {
+        val lowered = terms.map { it.lowercase() }
+        val where = StringBuilder("(b.day < ? OR (b.day = ? AND b.id <= ?))")
+        val args = mutableListOf(from.day.toString(), from.day.toString(), from.blockId.toString())
+        if (app != null) {
+            where.append(" AND c.app = ?")
+            args.add(app)
+        }
+        if (contactIdentifier != null) {
+            where.append(" AND c.contact_identifier = ?")
+            args.add(contactIdentifier)
+        }
+
+        val hits = ArrayList<SearchHit>()
+        var next: SearchPosition? = null
+        var lastBlockId = -1L
+        var lastDay = 0L
+        var scanned = 0
+        // The page of block ids is picked first so the sort never carries payloads
+        db.rawQuery(
+            """
+            SELECT b.id, b.day, b.payload, c.app, c.contact_identifier, c.name
+            FROM message_blocks b
+            JOIN chats c ON c.id = b.chat_id
+            WHERE b.id IN (
+              SELECT b.id FROM message_blocks b
+              JOIN chats c ON c.id = b.chat_id
+              WHERE $where
+              ORDER BY b.day DESC, b.id DESC
+              LIMIT $SEARCH_SCAN_BLOCKS
+            )
+            ORDER BY b.day DESC, b.id DESC
+            """.trimIndent(),
+            args.toTypedArray()
+        ).use { c ->
+            while (c.moveToNext()) {
+                scanned++
+                val blockId = c.getLong(0)
+                val day = c.getLong(1)
+                lastBlockId = blockId
+                lastDay = day
+                val rows = decode(day, c.getBlob(2))
+                val start = if (blockId == from.blockId) from.skip else 0
+                for (i in start until rows.size) {
+                    if (hits.size >= pageSize) {
+                        return hits to SearchPosition(day, blockId, i)
+                    }
+                    val r = rows[i]
+                    val matched = matchTokens(r.content, lowered) ?: continue
+                    hits.add(
+                        SearchHit(
+                            blockId, i, c.getString(3), c.getString(4), c.getString(5) ?: c.getString(4), r,
+                            buildSnippet(r.content, matched),
+                            matched.size * 100.0 / (r.content.length + 20)
+                        )
+                    )
+                }
+            }
+        }
+        if (scanned == SEARCH_SCAN_BLOCKS && lastBlockId > 0) next = SearchPosition(lastDay, lastBlockId - 1, 0)
+        return hits to next
+    }
+
+    // Ranges of words matching any term, or null unless every term matched somewhere
+    private fun matchTokens(content: String, terms: List<String>): List<IntRange>? {
+        val ranges = ArrayList<IntRange>()
+        val found = BooleanArray(terms.size)
+        for (m in WORD.findAll(content)) {
+            val word = m.value.lowercase()
+            var any = false
+            terms.forEachIndexed { t, term ->
+                if (word.startsWith(term)) {
+                    found[t] = true
+                    any = true
+                }
+            }
+            if (any) ranges.add(m.range)
+        }
+        return if (found.all { it }) ranges else null
+    }
+
+    // Same shape as the FTS snippet(): about SNIPPET_TOKENS words around the first
+    // match, matches in [brackets], … where text was cut
+    private fun buildSnippet(content: String, matched: List<IntRange>): String {
+        val words = WORD.findAll(content).map { it.range }.toList()
+        val firstMatch = words.indexOfFirst { it.first == matched.first().first }.coerceAtLeast(0)
+        val startWord = (firstMatch - SNIPPET_TOKENS / 4).coerceAtLeast(0)
+        val endWord = (startWord + SNIPPET_TOKENS - 1).coerceAtMost(words.size - 1)
+        val startChar = if (startWord == 0) 0 else words[startWord].first
+        val endChar = if (endWord == words.size - 1) content.length else words[endWord].last + 1
+
+        val sb = StringBuilder()
+        if (startChar > 0) sb.append('…')
+        var pos = startChar
+        for (r in matched) {
+            if (r.first < startChar || r.last >= endChar) continue
+            sb.append(content, pos, r.first).append('[').append(content, r.first, r.last + 1).append(']')
+            pos = r.last + 1
+        }
+        sb.append(content, pos, endChar)
+        if (endChar < content.length) sb.append('…')
+        return sb.toString()
+    }
+
+    // ====== Compaction ======
+
+    fun compact(context: Context, timeBudgetMs: Long): CompactResult {
+        val days = BackupSettings.get(context).coldAfterDays
+        if (days <= 0) return CompactResult(0, 0, true)
+        val deadline = SystemClock.elapsedRealtime() + timeBudgetMs
+        val db = CampaignsDbHelper.getInstance(context).writableDatabase
+        // Day-aligned so each day is packed once instead of re-merged on every run
+        val cutoff = Math.floorDiv(System.currentTimeMillis() - days * DAY_MS, DAY_MS) * DAY_MS
+
+        // Recovered (deleted_at) rows stay hot: the block format doesn't carry the mark
+        val chatIds = ArrayList<Long>()
+        db.rawQuery("SELECT DISTINCT chat_id FROM messages WHERE timestamp < ? AND deleted_at IS NULL", arrayOf(cutoff.toString())).use { c ->
+            while (c.moveToNext()) chatIds.add(c.getLong(0))
+        }
+
+        var moved = 0L
+        var blocks = 0
+        for (chatId in chatIds) {
+            while (true) {
+                if (SystemClock.elapsedRealtime() > deadline) {
+                    Log.d(TAG, "Compaction budget spent: moved $moved rows into $blocks blocks")
+                    return CompactResult(moved, blocks, false)
+                }
+                val oldest = db.rawQuery(
+                    "SELECT MIN(timestamp) FROM messages WHERE chat_id = ? AND timestamp < ? AND deleted_at IS NULL",
+                    arrayOf(chatId.toString(), cutoff.toString())
+                ).use { c -> if (c.moveToFirst() && !c.isNull(0)) c.getLong(0) else null } ?: break
+                moved += packDay(db, chatId, Math.floorDiv(oldest, DAY_MS))
+                blocks++
+            }
+        }
+        // Hand the pages freed in messages/messages_fts back to the filesystem
+        if (moved > 0) RetentionWorker.reclaimSpace(db, allowFullVacuum = false)
+        Log.d(TAG, "Compaction done: moved $moved rows into $blocks blocks")
+        return CompactResult(moved, blocks, true)
+    }
+
+    // Moves one chat-day from messages into its block (merging with an existing block and
+    // dropping exact duplicates) in a single transaction; returns the hot rows removed
+    private fun packDay(db: SQLiteDatabase, chatId: Long, day: Long): Int {
+        val from = day * DAY_MS
+        val to = from + DAY_MS
+        db.beginTransaction()
+        try {
+            var lastRead = 0L
+            var snippet: String? = null
+            db.rawQuery(
+                """
+                SELECT r.last_read_timestamp, r.last_snippet FROM recent_chats r
+                JOIN chats c ON c.app = r.app AND c.contact_identifier = r.contact_identifier
+                WHERE c.id = ?
+                """.trimIndent(),
+                arrayOf(chatId.toString())
+            ).use { c ->
+                if (c.moveToFirst()) {
+                    lastRead = c.getLong(0)
+                    snippet = c.getString(1)
+                }
+            }
+
+            val rows = ArrayList<Row>()
+            db.rawQuery("SELECT payload FROM message_blocks WHERE chat_id = ? AND day = ?", arrayOf(chatId.toString(), day.toString())).use { c ->
+                if (c.moveToFirst()) rows.addAll(decode(day, c.getBlob(0)))
+            }
+            val previous = rows.size
+            var hot = 0
+            var hotUnread = 0
+            db.rawQuery(
+                "SELECT timestamp, is_sent, content, sender, media_hash FROM messages WHERE chat_id = ? AND timestamp >= ? AND timestamp < ? AND deleted_at IS NULL",
+                arrayOf(chatId.toString(), from.toString(), to.toString())
+            ).use { c ->
+                while (c.moveToNext()) {
+                    val row = Row(c.getLong(0), c.getInt(1) == 1, c.getString(2) ?: "", c.getString(3), c.getString(4))
+                    rows.add(row)
+                    hot++
+                    if (!row.isSent && row.timestamp > lastRead) hotUnread++
+                }
+            }
+            val stored = writeBlock(db, chatId, day, rows)
+            db.execSQL(
+                "DELETE FROM messages WHERE chat_id = ? AND timestamp >= ? AND timestamp < ? AND deleted_at IS NULL",
+                arrayOf<Any>(chatId, from, to)
+            )
+
+            // The recent_chats_ad trigger counted those deletes as removals, but the rows
+            // live on in the block: give back everything except merge duplicates, and the
+            // snippet the trigger may have cleared
+            db.execSQL(
+                """
+                UPDATE recent_chats SET
+                  message_count = message_count + ?,
+                  unread_count = unread_count + ?,
+                  last_snippet = ?
+                WHERE app = (SELECT app FROM chats WHERE id = ?)
+                  AND contact_identifier = (SELECT contact_identifier FROM chats WHERE id = ?)
+                """.trimIndent(),
+                arrayOf<Any?>(stored - previous, hotUnread, snippet, chatId, chatId)
+            )
+            db.setTransactionSuccessful()
+            return hot
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    // Sorts, dedups on the same key as idx_messages_dedup and replaces the chat-day block;
+    // an empty list removes it. Returns the number of rows stored.
+    fun writeBlock(db: SQLiteDatabase, chatId: Long, day: Long, rows: List<Row>): Int {
+        val unique = uniqueRows(rows)
+        if (unique.isEmpty()) {
+            db.execSQL("DELETE FROM message_blocks WHERE chat_id = ? AND day = ?", arrayOf<Any>(chatId, day))
+            return 0
+        }
+        val stmt = db.compileStatement(
+            "INSERT OR REPLACE INTO message_blocks (chat_id, day, first_ts, last_ts, count, payload, media_hashes) VALUES (?, ?, ?, ?, ?, ?, ?)"
+        )
+        stmt.bindLong(1, chatId)
+        stmt.bindLong(2, day)
+        stmt.bindLong(3, unique.first().timestamp)
+        stmt.bindLong(4, unique.last().timestamp)
+        stmt.bindLong(5, unique.size.toLong())
+        stmt.bindBlob(6, encode(day, unique))
+        // Lets media garbage collection see references without decompressing blocks
+        val media = unique.mapNotNull { it.mediaHash }.distinct()
+        if (media.isEmpty()) stmt.bindNull(7) else stmt.bindString(7, media.joinToString(" "))
+        stmt.executeInsert()
+        return unique.size
+    }
+
+    // Retention for the cold tier: drops whole blocks before the cutoff and rewrites the
+    // one block straddling it. Returns the number of rows removed.
+    fun purgeBefore(db: SQLiteDatabase, chatId: Long, cutoff: Long): Long {
+        var removed = 0L
+        db.beginTransaction()
+        try {
+            db.rawQuery(
+                "SELECT COALESCE(SUM(count), 0) FROM message_blocks WHERE chat_id = ? AND last_ts < ?",
+                arrayOf(chatId.toString(), cutoff.toString())
+            ).use { c -> if (c.moveToFirst()) removed += c.getLong(0) }
+            db.execSQL("DELETE FROM message_blocks WHERE chat_id = ? AND last_ts < ?", arrayOf<Any>(chatId, cutoff))
+
+            db.rawQuery(
+                "SELECT day, count, payload FROM message_blocks WHERE chat_id = ? AND first_ts < ?",
+                arrayOf(chatId.toString(), cutoff.toString())
+            ).use { c ->
+                while (c.moveToNext()) {
+                    val day = c.getLong(0)
+                    val kept = decode(day, c.getBlob(2)).filter { it.timestamp >= cutoff }
+                    removed += c.getLong(1) - writeBlock(db, chatId, day, kept)
+                }
+            }
+            // No trigger sees block rows; whether they were unread isn't tracked, so
+            // unread is only clamped to what is left
+            if (removed > 0) {
+                db.execSQL(
+                    """
+                    UPDATE recent_chats SET
+                      message_count = MAX(message_count - ?, 0),
+                      unread_count = MIN(unread_count, MAX(message_count - ?, 0))
+                    WHERE app = (SELECT app FROM chats WHERE id = ?)
+                      AND contact_identifier = (SELECT contact_identifier FROM chats WHERE id = ?)
+                    """.trimIndent(),
+                    arrayOf<Any>(removed, removed, chatId, chatId)
+                )
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+        return removed
+    }
+}
@@ -0,0 +1,284 @@
+package com.copilot3.util
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.net.Uri
+import android.os.SystemClock
+import android.util.Log
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import java.io.FileInputStream
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+// Finds byte-identical files in three narrowing passes, so most files are never read:
+// equal size (free, from the index), then a hash of the first and last 64 KB, then a full
+// streaming hash of whatever still collides. Hashes go to media_hashes as they are
+// computed, keyed by document id and valid while size and mtime match, so a cancelled or
+// killed scan picks up where it stopped and a repeat scan only reads new files.
+object DuplicateFinder {
+
+    private const val TAG = "DuplicateFinder"
+    const val EDGE_BYTES = 64 * 1024
+    const val DEFAULT_PARALLELISM = 4
+    private const val BUFFER_BYTES = 256 * 1024
+    private const val PROGRESS_EVERY = 50
+
+    const val PHASE_PARTIAL = "partial"
+    const val PHASE_FULL = "full"
+
+    data class DuplicateGroup(val hash: String, val size: Long, val files: List<MediaIndexer.IndexedFile>) {
+        val reclaimableBytes: Long get() = size * (files.size - 1)
+    }
+
+    data class Result(
+        val groups: List<DuplicateGroup>,
+        val reclaimableBytes: Long,
+        val candidates: Int,
+        val hashed: Int,
+        val reused: Int,
+        val durationMs: Long
+    )
+
+    // files should already be narrowed to shared sizes (MediaIndexer.sizeCollisions), but
+    // any list works. onProgress is called from IO threads.
+    suspend fun find(
+        context: Context,
+        files: List<MediaIndexer.IndexedFile>,
+        parallelism: Int = DEFAULT_PARALLELISM,
+        onProgress: (phase: String, done: Int, total: Int) -> Unit = { _, _, _ -> }
+    ): Result = coroutineScope {
+        val started = SystemClock.elapsedRealtime()
+        val candidates = files.filter { it.size > 0 }.groupBy { it.size }.values.filter { it.size > 1 }.flatten()
+        val store = HashStore(MediaIndexDbHelper.getInstance(context).writableDatabase)
+        val known = store.load(candidates)
+        val permits = Semaphore(parallelism)
+        val hashed = AtomicInteger(0)
+        val reused = AtomicInteger(0)
+
+        try {
+            // Pass 2: first and last 64 KB. Files up to 128 KB are read whole here, so their
+            // partial hash is also their full hash.
+            val partial = hashAll(candidates, permits, PHASE_PARTIAL, onProgress) { f ->
+                known[f.documentId]?.partial?.also { reused.incrementAndGet() }
+                    ?: partialHash(context, f)?.also {
+                        hashed.incrementAndGet()
+                        store.putPartial(f, it, if (f.size <= 2L * EDGE_BYTES) it else null)
+                    }
+            }
+            val partialGroups = partialGroups(candidates, partial)
+
+            // Pass 3: full hash of what still collides
+            val needFull = partialGroups.flatten().filter { it.size > 2L * EDGE_BYTES }
+            val full = hashAll(needFull, permits, PHASE_FULL, onProgress) { f ->
+                known[f.documentId]?.full?.also { reused.incrementAndGet() }
+                    ?: fullHash(context, f)?.also {
+                        hashed.incrementAndGet()
+                        store.putFull(f, it)
+                    }
+            }
+
+            val groups = duplicateGroups(partialGroups, partial, full)
+
+            val result = Result(
+                groups = groups,
+                reclaimableBytes = groups.sumOf { it.reclaimableBytes },
+                candidates = candidates.size,
+                hashed = hashed.get(),
+                reused = reused.get(),
+                durationMs = SystemClock.elapsedRealtime() - started
+            )
+            Log.d(TAG, "${groups.size} duplicate groups, ${result.reclaimableBytes} bytes reclaimable " +
+                "(${result.candidates} candidates, ${result.hashed} hashed, ${result.reused} reused) in ${result.durationMs}ms")
+            result
+        } finally {
+            // Whatever was hashed before a cancel is kept for the next run
+            store.flush()
+        }
+    }
+
+    // Files sharing size and partial hash; files that couldn't be hashed drop out
+    fun partialGroups(
+        candidates: List<MediaIndexer.IndexedFile>,
+        partial: Map<String, String>
+    ): List<List<MediaIndexer.IndexedFile>> = candidates
+        .filter { partial[it.documentId] != null }
+        .groupBy { it.size to partial.getValue(it.documentId) }
+        .values.filter { it.size > 1 }
+
+    // Splits partial groups by full hash, largest reclaimable first. Files up to twice
+    // EDGE_BYTES were read whole by the partial pass, so that hash already identifies them.
+    fun duplicateGroups(
+        partialGroups: List<List<MediaIndexer.IndexedFile>>,
+        partial: Map<String, String>,
+        full: Map<String, String>
+    ): List<DuplicateGroup> = partialGroups.flatMap { group ->
+        group.filter { it.size <= 2L * EDGE_BYTES || full[it.documentId] != null }
+            .groupBy { if (it.size <= 2L * EDGE_BYTES) partial.getValue(it.documentId) else full.getValue(it.documentId) }
+            .filterValues { it.size > 1 }
+            .map { (hash, same) -> DuplicateGroup(hash, same[0].size, same) }
+    }.sortedByDescending { it.reclaimableBytes }
+
+    // Drops hashes of files that are no longer in the media index
+    fun sweepOrphans(context: Context) {
+        val db = MediaIndexDbHelper.getInstance(context).writableDatabase
+        val removed = db.delete("media_hashes", "document_id NOT IN (SELECT document_id FROM media_files)", null)
+        if (removed > 0) Log.d(TAG, "Swept $removed stale hashes")
+    }
+
+    private suspend fun hashAll(
+        files: List<MediaIndexer.IndexedFile>,
+        permits: Semaphore,
+        phase: String,
+        onProgress: (String, Int, Int) -> Unit,
+        hash: (MediaIndexer.IndexedFile) -> String?
+    ): Map<String, String> = coroutineScope {
+        val out = ConcurrentHashMap<String, String>()
+        val done = AtomicInteger(0)
+        onProgress(phase, 0, files.size)
+        files.map { f ->
+            async(Dispatchers.IO) {
+                permits.withPermit { hash(f) }?.let { out[f.documentId] = it }
+                val n = done.incrementAndGet()
+                if (n % PROGRESS_EVERY == 0 || n == files.size) onProgress(phase, n, files.size)
+            }
+        }.awaitAll()
+        out
+    }
+
+    private fun partialHash(context: Context, file: MediaIndexer.IndexedFile): String? {
+        return try {
+            context.contentResolver.openFileDescriptor(Uri.parse(file.uri), "r")?.use { pfd ->
+                FileInputStream(pfd.fileDescriptor).channel.use { channel ->
+                    val digest = MessageDigest.getInstance("SHA-256")
+                    val head = minOf(EDGE_BYTES.toLong(), file.size)
+                    digestRange(channel, 0, head, digest)
+                    if (file.size > head) {
+                        val tailStart = maxOf(head, file.size - EDGE_BYTES)
+                        digestRange(channel, tailStart, file.size - tailStart, digest)
+                    }
+                    hex(digest.digest())
+                }
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "Partial hash failed for ${file.name}: ${e.message}")
+            null
+        }
+    }
+
+    private fun fullHash(context: Context, file: MediaIndexer.IndexedFile): String? {
+        return try {
+            context.contentResolver.openInputStream(Uri.parse(file.uri))?.use { input ->
+                val digest = MessageDigest.getInstance("SHA-256")
+                val buffer = ByteArray(BUFFER_BYTES)
+                while (true) {
+                    val n = input.read(buffer)
+                    if (n < 0) break
+                    digest.update(buffer, 0, n)
+                }
+                hex(digest.digest())
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "Full hash failed for ${file.name}: ${e.message}")
+            null
+        }
+    }
+
+    private fun digestRange(channel: FileChannel, start: Long, length: Long, digest: MessageDigest) {
+        val buffer = ByteBuffer.allocate(length.toInt())
+        var position = start
+        while (buffer.hasRemaining()) {
+            val n = channel.read(buffer, position)
+            if (n < 0) break
+            position += n
+        }
+        buffer.flip()
+        digest.update(buffer)
+    }
+
+    private fun hex(bytes: ByteArray): String {
+        val chars = CharArray(bytes.size * 2)
+        for (i in bytes.indices) {
+            val v = bytes[i].toInt() and 0xFF
+            chars[i * 2] = Character.forDigit(v ushr 4, 16)
+            chars[i * 2 + 1] = Character.forDigit(v and 0x0F, 16)
+        }
+        return String(chars)
+    }
+
+    private class Stored(val partial: String?, val full: String?)
+
+    // Reads the still-valid hashes up front and writes new ones in small transactions
+    private class HashStore(private val db: SQLiteDatabase) {
+        private val pending = ArrayList<ContentValues>()
+
+        fun load(files: List<MediaIndexer.IndexedFile>): Map<String, Stored> {
+            val wanted = files.associateBy { it.documentId }
+            val out = HashMap<String, Stored>()
+            for (chunk in wanted.keys.chunked(500)) {
+                val placeholders = chunk.joinToString(",") { "?" }
+                db.rawQuery(
+                    "SELECT document_id, size, mtime, partial_hash, full_hash FROM media_hashes WHERE document_id IN ($placeholders)",
+                    chunk.toTypedArray()
+                ).use { c ->
+                    while (c.moveToNext()) {
+                        val file = wanted[c.getString(0)] ?: continue
+                        if (c.getLong(1) != file.size || c.getLong(2) != file.mtime) continue
+                        out[file.documentId] = Stored(c.getString(3), c.getString(4))
+                    }
+                }
+            }
+            return out
+        }
+
+        fun putPartial(file: MediaIndexer.IndexedFile, partial: String, full: String?) {
+            add(ContentValues().apply {
+                put("document_id", file.documentId)
+                put("size", file.size)
+                put("mtime", file.mtime)
+                put("partial_hash", partial)
+                put("full_hash", full)
+            })
+        }
+
+        fun putFull(file: MediaIndexer.IndexedFile, full: String) {
+            add(ContentValues().apply {
+                put("document_id", file.documentId)
+                put("full_hash", full)
+            })
+        }
+
+        @Synchronized
+        private fun add(values: ContentValues) {
+            pending.add(values)
+            if (pending.size >= PROGRESS_EVERY) flush()
+        }
+
+        @Synchronized
+        fun flush() {
+            if (pending.isEmpty()) return
+            db.beginTransaction()
+            try {
+                for (values in pending) {
+                    if (values.containsKey("partial_hash")) {
+                        db.insertWithOnConflict("media_hashes", null, values, SQLiteDatabase.CONFLICT_REPLACE)
+                    } else {
+                        db.update("media_hashes", values, "document_id = ?", arrayOf(values.getAsString("document_id")))
+                    }
+                }
+                db.setTransactionSuccessful()
+            } finally {
+                db.endTransaction()
+            }
+            pending.clear()
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.copilot3.util
+
+// Multi-index hashing over 64-bit hashes under Hamming distance. Each hash is split into
+// BANDS 16-bit bands and filed under each band's exact value. If two hashes are within d,
+// by pigeonhole at least one band differs in at most d / BANDS bits, so a query only looks
+// up the band values within that radius (137 keys per band at the default radius of 10)
+// and verifies the full distance of the hashes filed there. Unrelated 64-bit hashes sit
+// around 32 bits apart, which makes a tree keyed on whole-hash distance visit most of its
+// nodes; here each band lookup matches roughly 137 / 65536 of them.
+class HammingIndex {
+
+    private val hashes = ArrayList<Long>()
+    private val ids = ArrayList<Int>()
+    // band -> band value -> positions in hashes
+    private val bands = Array(BANDS) { HashMap<Int, MutableList<Int>>() }
+
+    val size: Int get() = hashes.size
+
+    fun add(hash: Long, id: Int) {
+        val pos = hashes.size
+        hashes.add(hash)
+        ids.add(id)
+        for (b in 0 until BANDS) bands[b].getOrPut(band(hash, b)) { ArrayList(1) }.add(pos)
+    }
+
+    // Ids of every hash within maxDistance of hash, including exact matches
+    fun query(hash: Long, maxDistance: Int): List<Int> {
+        val out = ArrayList<Int>()
+        if (maxDistance < 0) return out
+        val radius = minOf(maxDistance / BANDS, BAND_BITS)
+        val seen = HashSet<Int>()
+        for (b in 0 until BANDS) {
+            forEachWithin(band(hash, b), radius) { value ->
+                bands[b][value]?.forEach { pos ->
+                    if (seen.add(pos) && distance(hashes[pos], hash) <= maxDistance) out.add(ids[pos])
+                }
+            }
+        }
+        return out
+    }
+
+    // Every 16-bit value within radius bits of value, value itself first
+    private inline fun forEachWithin(value: Int, radius: Int, action: (Int) -> Unit) {
+        action(value)
+        if (radius == 0) return
+        // Walks bit masks of 1..radius set bits in increasing popcount order
+        val masks = IntArray(radius)
+        for (k in 1..radius) {
+            for (i in 0 until k) masks[i] = i
+            while (true) {
+                var flip = 0
+                for (i in 0 until k) flip = flip or (1 shl masks[i])
+                action(value xor flip)
+                // Next combination of k bit positions out of BAND_BITS
+                var i = k - 1
+                while (i >= 0 && masks[i] == BAND_BITS - k + i) i--
+                if (i < 0) break
+                masks[i]++
+                for (j in i + 1 until k) masks[j] = masks[j - 1] + 1
+            }
+        }
+    }
+
+    companion object {
+        private const val BANDS = 4
+        private const val BAND_BITS = 16
+        private const val BAND_MASK = (1L shl BAND_BITS) - 1
+
+        fun distance(a: Long, b: Long): Int = java.lang.Long.bitCount(a xor b)
+
+        private fun band(hash: Long, b: Int): Int = ((hash ushr (b * BAND_BITS)) and BAND_MASK).toInt()
+    }
+}
@@ -9,11 +9,12 @@ import android.app.NotificationChannel
 import android.os.Build
 import androidx.core.app.NotificationCompat
 import android.graphics.Color
+import android.util.Log
 
 class LowPointsReceiver : BroadcastReceiver() {
 
     override fun onReceive(context: Context, intent: Intent) {
-        val dbHelper = CampaignsDbHelper(context)
+        val dbHelper = CampaignsDbHelper.getInstance(context)
         val db = dbHelper.writableDatabase
         var points = 0
         db.rawQuery("SELECT points FROM user_points WHERE id = 1", null).use { c ->
@@ -47,12 +48,25 @@ class LowPointsReceiver : BroadcastReceiver() {
             notificationManager.notify(999, builder.build())  // Unique ID
         }
 
-        // Auto-delete old messages
-        val prefs = context.getSharedPreferences("app_prefs", Context.MODE_PRIVATE)
-        val autoDeleteDays = prefs.getInt("autoDeleteDays", 0)
-        if (autoDeleteDays > 0) {
-            val cutoff = System.currentTimeMillis() - (autoDeleteDays * 24L * 60 * 60 * 1000)
-            db.execSQL("DELETE FROM messages WHERE timestamp < ?", arrayOf(cutoff.toString()))
-        }
+        // Auto-delete old messages, then pack aged ones into the cold tier, off the
+        // broadcast thread within the goAsync() window; whatever is left over is
+        // picked up by tomorrow's run
+        val pending = goAsync()
+        Thread({
+            try {
+                RetentionWorker.run(context.applicationContext, RETENTION_BUDGET_MS, allowFullVacuum = false)
+                ColdStorage.compact(context.applicationContext, COMPACTION_BUDGET_MS)
+            } catch (e: Exception) {
+                Log.e("LowPointsReceiver", "Retention/compaction run failed", e)
+            } finally {
+                pending.finish()
+            }
+        }, "RetentionWorker").start()
+    }
+
+    companion object {
+        // goAsync() receivers are killed after ~10s
+        private const val RETENTION_BUDGET_MS = 5_000L
+        private const val COMPACTION_BUDGET_MS = 3_000L
     }
 }
\ No newline at end of file
@@ -0,0 +1,91 @@
+package com.copilot3.util
+
+import android.content.ContentResolver
+import android.content.Context
+import android.net.Uri
+import android.provider.DocumentsContract
+import android.provider.OpenableColumns
+import android.util.Log
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import java.io.File
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+// Deletes selected media with one provider call per document (DocumentsContract.deleteDocument)
+// instead of DocumentFile's exists/isFile/delete round trips, several at a time. Sizes for
+// the freed-bytes total come from the media index where possible, so indexed files cost
+// no extra query. Deleted files leave the index (and its hash tables) in one transaction.
+object MediaDeleter {
+
+    private const val TAG = "MediaDeleter"
+    const val DEFAULT_PARALLELISM = 4
+    private const val PROGRESS_EVERY = 10
+
+    data class Outcome(val uri: String, val success: Boolean, val bytes: Long, val error: String?)
+
+    // onProgress is called from IO threads with (done, total, bytesFreed)
+    suspend fun delete(
+        context: Context,
+        uris: List<String>,
+        parallelism: Int = DEFAULT_PARALLELISM,
+        onProgress: (done: Int, total: Int, bytesFreed: Long) -> Unit = { _, _, _ -> }
+    ): List<Outcome> = coroutineScope {
+        val distinct = uris.distinct()
+        val knownSizes = MediaIndexer.sizesByUri(context, distinct)
+        val permits = Semaphore(parallelism)
+        val done = AtomicInteger(0)
+        val freed = AtomicLong(0)
+
+        val outcomes = distinct.map { uriString ->
+            async(Dispatchers.IO) {
+                val outcome = permits.withPermit { deleteOne(context.contentResolver, uriString, knownSizes[uriString]) }
+                if (outcome.success) freed.addAndGet(outcome.bytes)
+                val n = done.incrementAndGet()
+                if (n % PROGRESS_EVERY == 0 || n == distinct.size) onProgress(n, distinct.size, freed.get())
+                outcome
+            }
+        }.awaitAll()
+
+        val deleted = outcomes.filter { it.success }.map { it.uri }
+        if (deleted.isNotEmpty()) MediaIndexer.removeByUri(context, deleted)
+        Log.d(TAG, "Deleted ${deleted.size}/${distinct.size}, freed ${freed.get()} bytes")
+        outcomes
+    }
+
+    private fun deleteOne(resolver: ContentResolver, uriString: String, knownSize: Long?): Outcome {
+        return try {
+            val uri = Uri.parse(uriString)
+            if (uri.scheme == ContentResolver.SCHEME_FILE) {
+                val file = File(uri.path ?: return Outcome(uriString, false, 0, "Invalid path"))
+                val bytes = file.length()
+                if (!file.isFile) return Outcome(uriString, false, 0, "Not found")
+                return if (file.delete()) Outcome(uriString, true, bytes, null) else Outcome(uriString, false, 0, "Delete failed")
+            }
+            val bytes = knownSize ?: sizeOf(resolver, uri)
+            if (DocumentsContract.deleteDocument(resolver, uri)) {
+                Outcome(uriString, true, bytes, null)
+            } else {
+                Outcome(uriString, false, 0, "Delete failed")
+            }
+        } catch (e: Exception) {
+            // FileNotFoundException for files already gone, SecurityException for lost grants
+            Log.w(TAG, "Failed to delete $uriString: ${e.message}")
+            Outcome(uriString, false, 0, e.message ?: e.javaClass.simpleName)
+        }
+    }
+
+    private fun sizeOf(resolver: ContentResolver, uri: Uri): Long {
+        return try {
+            resolver.query(uri, arrayOf(OpenableColumns.SIZE), null, null, null)?.use { c ->
+                if (c.moveToFirst() && !c.isNull(0)) c.getLong(0) else 0L
+            } ?: 0L
+        } catch (e: Exception) {
+            0L
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.copilot3.util
+
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteOpenHelper
+import android.util.Log
+
+// Local index of the messenger media trees (see MediaIndexer). Kept in its own database so
+// rebuilding it never touches backed-up chats, and it can be dropped at any time: every
+// row is re-derivable from the SAF tree.
+class MediaIndexDbHelper private constructor(context: Context) :
+    SQLiteOpenHelper(context, "media_index.db", null, 4) {
+
+    companion object {
+        private const val TAG = "MediaIndexDbHelper"
+
+        @Volatile
+        private var instance: MediaIndexDbHelper? = null
+
+        fun getInstance(context: Context): MediaIndexDbHelper {
+            instance?.let { return it }
+            synchronized(this) {
+                return instance ?: MediaIndexDbHelper(context.applicationContext).also { instance = it }
+            }
+        }
+    }
+
+    override fun onConfigure(db: SQLiteDatabase) {
+        super.onConfigure(db)
+        db.enableWriteAheadLogging()
+    }
+
+    override fun onCreate(db: SQLiteDatabase) {
+        // Which tree each app was indexed from, and when it was last brought up to date
+        db.execSQL("""
+            CREATE TABLE IF NOT EXISTS index_state (
+              app TEXT PRIMARY KEY,
+              tree_uri TEXT NOT NULL,
+              refreshed_at INTEGER NOT NULL
+            )
+        """.trimIndent())
+
+        // last_modified is the directory mtime its files were listed at; a directory whose
+        // mtime still matches is not listed again
+        db.execSQL("""
+            CREATE TABLE IF NOT EXISTS media_dirs (
+              document_id TEXT PRIMARY KEY,
+              parent_id TEXT,
+              app TEXT NOT NULL,
+              folder TEXT NOT NULL,
+              name TEXT NOT NULL,
+              last_modified INTEGER NOT NULL
+            )
+        """.trimIndent())
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_media_dirs_parent ON media_dirs (parent_id)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_media_dirs_app_folder ON media_dirs (app, folder)")
+
+        // folder is relative to the app's media root ("/WhatsApp Images/Sent")
+        db.execSQL("""
+            CREATE TABLE IF NOT EXISTS media_files (
+              document_id TEXT PRIMARY KEY,
+              dir_id TEXT NOT NULL,
+              app TEXT NOT NULL,
+              folder TEXT NOT NULL,
+              name TEXT NOT NULL,
+              uri TEXT NOT NULL,
+              mime TEXT,
+              kind TEXT,
+              size INTEGER NOT NULL,
+              mtime INTEGER NOT NULL
+            )
+        """.trimIndent())
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_media_files_dir ON media_files (dir_id)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_media_files_folder_mtime ON media_files (app, folder, mtime)")
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_media_files_size ON media_files (app, size)")
+        createKindIndex(db)
+        createHashTable(db)
+        createPerceptualHashTable(db)
+        Log.d(TAG, "Media index created")
+    }
+
+    override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+        if (oldVersion < 2) {
+            // kind comes from MediaTypeClassifier; drop the old rows so the next refresh
+            // lists every directory again and fills it in
+            db.execSQL("ALTER TABLE media_files ADD COLUMN kind TEXT")
+            db.execSQL("DELETE FROM media_files")
+            db.execSQL("DELETE FROM media_dirs")
+            db.execSQL("DELETE FROM index_state")
+            createKindIndex(db)
+            Log.d(TAG, "Media index upgraded to v2 (kind)")
+        }
+        if (oldVersion < 3) {
+            createHashTable(db)
+            Log.d(TAG, "Media index upgraded to v3 (hashes)")
+        }
+        if (oldVersion < 4) {
+            createPerceptualHashTable(db)
+            Log.d(TAG, "Media index upgraded to v4 (perceptual hashes)")
+        }
+        // For future upgrades, add more conditions
+    }
+
+    private fun createKindIndex(db: SQLiteDatabase) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_media_files_kind ON media_files (app, kind)")
+    }
+
+    // Content hashes from DuplicateFinder, valid while size and mtime still match the file.
+    // Kept apart from media_files, whose rows are rewritten every time a directory is
+    // relisted; orphans are swept at the end of each duplicate scan.
+    private fun createHashTable(db: SQLiteDatabase) {
+        db.execSQL("""
+            CREATE TABLE IF NOT EXISTS media_hashes (
+              document_id TEXT PRIMARY KEY,
+              size INTEGER NOT NULL,
+              mtime INTEGER NOT NULL,
+              partial_hash TEXT,
+              full_hash TEXT
+            )
+        """.trimIndent())
+    }
+
+    // 64-bit difference hashes from SimilarImageFinder, same validity rule as media_hashes
+    private fun createPerceptualHashTable(db: SQLiteDatabase) {
+        db.execSQL("""
+            CREATE TABLE IF NOT EXISTS media_phashes (
+              document_id TEXT PRIMARY KEY,
+              size INTEGER NOT NULL,
+              mtime INTEGER NOT NULL,
+              dhash INTEGER NOT NULL
+            )
+        """.trimIndent())
+    }
+}
@@ -0,0 +1,404 @@
+package com.copilot3.util
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.Cursor
+import android.database.sqlite.SQLiteDatabase
+import android.net.Uri
+import android.os.SystemClock
+import android.provider.DocumentsContract
+import android.util.Log
+
+// Keeps media_index.db in step with the messenger media trees so StatusModule can filter,
+// sort and page with SQL instead of re-walking SAF on every call. A refresh only lists a
+// directory whose mtime changed since it was indexed (adding or removing a file bumps
+// its directory's mtime); unchanged directories cost one metadata query each for their
+// subdirectories. Files rewritten in place without a directory change are not noticed
+// until something else in that directory changes.
+object MediaIndexer {
+
+    private const val TAG = "MediaIndexer"
+    private const val FRESH_MS = 30_000L
+
+    // Same kinds the SAF cleanup collectors accept (MediaTypeClassifier.isVisual)
+    val VISUAL_KIND_FILTER =
+        MediaTypeClassifier.VISUAL_KINDS.joinToString(",", "kind IN (", ")") { "'${it.label}'" }
+
+    data class RefreshResult(val dirsListed: Int, val dirsSkipped: Int, val filesIndexed: Int, val durationMs: Long)
+
+    data class FolderPage(val files: List<SafScanner.Entry>, val totalCount: Int)
+
+    data class IndexedFile(
+        val documentId: String,
+        val uri: String,
+        val app: String,
+        val folder: String,
+        val name: String,
+        val mime: String,
+        val kind: String?,
+        val size: Long,
+        val mtime: Long
+    )
+
+    private fun db(context: Context) = MediaIndexDbHelper.getInstance(context).writableDatabase
+
+    // Brings one app's index up to date; rootPath is the app's media root inside the tree
+    @Synchronized
+    fun refresh(context: Context, treeUri: Uri, app: String, rootPath: List<String>): RefreshResult {
+        val started = SystemClock.elapsedRealtime()
+        val db = db(context)
+        val indexedTree = db.rawQuery("SELECT tree_uri FROM index_state WHERE app = ?", arrayOf(app)).use { c ->
+            if (c.moveToFirst()) c.getString(0) else null
+        }
+        if (indexedTree != null && indexedTree != treeUri.toString()) clearApp(db, app)
+
+        val stats = IntArray(3)
+        val rootId = SafScanner.resolvePath(context, treeUri, rootPath)
+        val root = rootId?.let { SafScanner.stat(context, treeUri, it) }
+        if (root == null || !root.isDirectory) {
+            // Not installed / not in this tree: an empty index is the right answer
+            clearApp(db, app)
+        } else {
+            // A different root id means the folder was recreated; nothing below it is valid
+            val indexedRoot = db.rawQuery("SELECT document_id FROM media_dirs WHERE app = ? AND folder = ''", arrayOf(app)).use { c ->
+                if (c.moveToFirst()) c.getString(0) else null
+            }
+            if (indexedRoot != null && indexedRoot != root.documentId) clearApp(db, app)
+            indexDir(context, db, treeUri, app, root.documentId, null, "", root.name, root.lastModified, stats)
+        }
+
+        val values = ContentValues().apply {
+            put("app", app)
+            put("tree_uri", treeUri.toString())
+            put("refreshed_at", System.currentTimeMillis())
+        }
+        db.insertWithOnConflict("index_state", null, values, SQLiteDatabase.CONFLICT_REPLACE)
+
+        val result = RefreshResult(stats[0], stats[1], stats[2], SystemClock.elapsedRealtime() - started)
+        Log.d(TAG, "Refreshed $app: $result")
+        return result
+    }
+
+    // Refreshes unless the app was refreshed against the same tree within maxAgeMs
+    fun ensureFresh(context: Context, treeUri: Uri, app: String, rootPath: List<String>, maxAgeMs: Long = FRESH_MS): Boolean {
+        val fresh = db(context).rawQuery(
+            "SELECT 1 FROM index_state WHERE app = ? AND tree_uri = ? AND refreshed_at > ?",
+            arrayOf(app, treeUri.toString(), (System.currentTimeMillis() - maxAgeMs).toString())
+        ).use { it.moveToFirst() }
+        if (fresh) return true
+        return try {
+            refresh(context, treeUri, app, rootPath)
+            true
+        } catch (e: Exception) {
+            Log.e(TAG, "Failed to refresh media index for $app", e)
+            false
+        }
+    }
+
+    // Warms every app's index after a tree is picked, so the first screen opens from SQL
+    fun refreshAllAsync(context: Context, treeUri: Uri, roots: Map<String, List<String>>) {
+        val appContext = context.applicationContext
+        Thread({
+            for ((app, rootPath) in roots) {
+                try {
+                    refresh(appContext, treeUri, app, rootPath)
+                } catch (e: Exception) {
+                    Log.e(TAG, "Background index of $app failed", e)
+                }
+            }
+        }, "MediaIndexer").start()
+    }
+
+    private fun indexDir(
+        context: Context,
+        db: SQLiteDatabase,
+        treeUri: Uri,
+        app: String,
+        documentId: String,
+        parentId: String?,
+        folder: String,
+        name: String,
+        lastModified: Long,
+        stats: IntArray
+    ) {
+        val stored = db.rawQuery("SELECT last_modified FROM media_dirs WHERE document_id = ?", arrayOf(documentId)).use { c ->
+            if (c.moveToFirst()) c.getLong(0) else null
+        }
+        // Providers that report no directory mtime (0) are always listed
+        if (stored != null && lastModified > 0 && stored == lastModified) {
+            stats[1]++
+            for ((childId, childName) in childDirs(db, documentId)) {
+                val child = SafScanner.stat(context, treeUri, childId)
+                if (child == null || !child.isDirectory) {
+                    removeDir(db, childId)
+                    continue
+                }
+                indexDir(context, db, treeUri, app, childId, documentId, "$folder/$childName", childName, child.lastModified, stats)
+            }
+            return
+        }
+
+        val children = SafScanner.queryChildren(context, treeUri, documentId) ?: return
+        stats[0]++
+        val dirs = children.filter { it.isDirectory }
+        // Classified before the transaction: sniffing opens files, which mustn't happen
+        // while holding the index's write lock. Only extensionless files with no useful
+        // mime are opened.
+        val types = children.map { f ->
+            when {
+                f.isDirectory -> null
+                f.size > 0 -> MediaTypeClassifier.classify(context, f.uri, f.name, f.mimeType, folder)
+                else -> MediaTypeClassifier.classify(f.name, f.mimeType, folder)
+            }
+        }
+        var files = 0
+        db.beginTransaction()
+        try {
+            db.delete("media_files", "dir_id = ?", arrayOf(documentId))
+            val insert = db.compileStatement(
+                "INSERT OR REPLACE INTO media_files (document_id, dir_id, app, folder, name, uri, mime, kind, size, mtime) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"
+            )
+            insert.use { stmt ->
+                children.forEachIndexed { i, f ->
+                    if (f.isDirectory) return@forEachIndexed
+                    val type = types[i]
+                    stmt.clearBindings()
+                    stmt.bindString(1, f.documentId)
+                    stmt.bindString(2, documentId)
+                    stmt.bindString(3, app)
+                    stmt.bindString(4, folder)
+                    stmt.bindString(5, f.name)
+                    stmt.bindString(6, f.uri.toString())
+                    stmt.bindString(7, type?.mime ?: f.mimeType)
+                    if (type != null) stmt.bindString(8, type.kind.label) else stmt.bindNull(8)
+                    stmt.bindLong(9, f.size)
+                    stmt.bindLong(10, f.lastModified)
+                    stmt.executeInsert()
+                    files++
+                }
+            }
+
+            val keep = dirs.mapTo(HashSet()) { it.documentId }
+            for ((childId, _) in childDirs(db, documentId)) {
+                if (childId !in keep) removeDir(db, childId)
+            }
+            val values = ContentValues().apply {
+                put("document_id", documentId)
+                put("parent_id", parentId)
+                put("app", app)
+                put("folder", folder)
+                put("name", name)
+                put("last_modified", lastModified)
+            }
+            db.insertWithOnConflict("media_dirs", null, values, SQLiteDatabase.CONFLICT_REPLACE)
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+        stats[2] += files
+
+        for (d in dirs) {
+            indexDir(context, db, treeUri, app, d.documentId, documentId, "$folder/${d.name}", d.name, d.lastModified, stats)
+        }
+    }
+
+    private fun childDirs(db: SQLiteDatabase, parentId: String): List<Pair<String, String>> {
+        val out = ArrayList<Pair<String, String>>()
+        db.rawQuery("SELECT document_id, name FROM media_dirs WHERE parent_id = ?", arrayOf(parentId)).use { c ->
+            while (c.moveToNext()) out.add(c.getString(0) to c.getString(1))
+        }
+        return out
+    }
+
+    private fun removeDir(db: SQLiteDatabase, documentId: String) {
+        for ((childId, _) in childDirs(db, documentId)) removeDir(db, childId)
+        db.delete("media_files", "dir_id = ?", arrayOf(documentId))
+        db.delete("media_dirs", "document_id = ?", arrayOf(documentId))
+    }
+
+    private fun clearApp(db: SQLiteDatabase, app: String) {
+        db.delete("media_files", "app = ?", arrayOf(app))
+        db.delete("media_dirs", "app = ?", arrayOf(app))
+    }
+
+    // Drops deleted files from the index and the hash tables in one transaction. Their
+    // directory's row is left alone: its mtime has changed, so the next refresh relists it
+    // anyway.
+    fun removeByUri(context: Context, uris: Collection<String>) {
+        val ids = documentIds(uris).keys
+        if (ids.isEmpty()) return
+        val db = db(context)
+        db.beginTransaction()
+        try {
+            for (chunk in ids.chunked(500)) {
+                val placeholders = chunk.joinToString(",") { "?" }
+                val args = chunk.toTypedArray()
+                db.delete("media_files", "document_id IN ($placeholders)", args)
+                db.delete("media_hashes", "document_id IN ($placeholders)", args)
+                db.delete("media_phashes", "document_id IN ($placeholders)", args)
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    // document id -> uri for SAF document uris; anything else (file://) is skipped
+    private fun documentIds(uris: Collection<String>): Map<String, String> {
+        val out = HashMap<String, String>()
+        for (uri in uris) {
+            val id = try {
+                DocumentsContract.getDocumentId(Uri.parse(uri))
+            } catch (e: IllegalArgumentException) {
+                null
+            } ?: continue
+            out[id] = uri
+        }
+        return out
+    }
+
+    // ====== Queries ======
+
+    // Indexed sizes of the given uris; uris that aren't indexed are left out
+    fun sizesByUri(context: Context, uris: Collection<String>): Map<String, Long> {
+        val byId = documentIds(uris)
+        val out = HashMap<String, Long>()
+        for (chunk in byId.keys.chunked(500)) {
+            val placeholders = chunk.joinToString(",") { "?" }
+            db(context).rawQuery(
+                "SELECT document_id, size FROM media_files WHERE document_id IN ($placeholders)",
+                chunk.toTypedArray()
+            ).use { c ->
+                while (c.moveToNext()) out[byId.getValue(c.getString(0))] = c.getLong(1)
+            }
+        }
+        return out
+    }
+
+    // Direct files of one folder, newest first; null if the folder isn't in the index.
+    // Zero bounds mean unbounded, as in StatusModule.getMediaInFolderPaged.
+    fun filesInFolder(
+        context: Context,
+        app: String,
+        folder: String,
+        minDate: Long,
+        maxDate: Long,
+        minSize: Long,
+        maxSize: Long,
+        offset: Int,
+        limit: Int
+    ): FolderPage? {
+        val db = db(context)
+        val dirId = db.rawQuery("SELECT document_id FROM media_dirs WHERE app = ? AND folder = ?", arrayOf(app, folder)).use { c ->
+            if (c.moveToFirst()) c.getString(0) else null
+        } ?: return null
+
+        val total = db.rawQuery("SELECT COUNT(*) FROM media_files WHERE dir_id = ?", arrayOf(dirId)).use { c ->
+            if (c.moveToFirst()) c.getInt(0) else 0
+        }
+
+        val where = StringBuilder("dir_id = ?")
+        val args = arrayListOf(dirId)
+        if (minDate > 0) { where.append(" AND mtime >= ?"); args.add(minDate.toString()) }
+        if (maxDate > 0) { where.append(" AND mtime <= ?"); args.add(maxDate.toString()) }
+        if (minSize > 0) { where.append(" AND size >= ?"); args.add(minSize.toString()) }
+        if (maxSize > 0) { where.append(" AND size <= ?"); args.add(maxSize.toString()) }
+
+        val files = ArrayList<SafScanner.Entry>()
+        db.rawQuery(
+            "SELECT document_id, uri, name, mime, size, mtime FROM media_files WHERE $where ORDER BY mtime DESC, document_id LIMIT $limit OFFSET $offset",
+            args.toTypedArray()
+        ).use { c ->
+            while (c.moveToNext()) {
+                files.add(SafScanner.Entry(c.getString(0), Uri.parse(c.getString(1)), c.getString(2), c.getString(3) ?: "", c.getLong(4), c.getLong(5)))
+            }
+        }
+        return FolderPage(files, total)
+    }
+
+    // Cleanup media across apps in a stable (app, folder, name) order, so startAt/maxFiles
+    // pages never overlap or skip while the index is unchanged
+    fun cleanupPage(context: Context, apps: Collection<String>, startAt: Int, maxFiles: Int): List<IndexedFile> {
+        if (apps.isEmpty()) return emptyList()
+        val placeholders = apps.joinToString(",") { "?" }
+        val out = ArrayList<IndexedFile>()
+        db(context).rawQuery(
+            """
+            SELECT document_id, uri, app, folder, name, mime, kind, size, mtime FROM media_files
+            WHERE app IN ($placeholders) AND $VISUAL_KIND_FILTER
+            ORDER BY app, folder, name, document_id LIMIT $maxFiles OFFSET $startAt
+            """.trimIndent(),
+            apps.toTypedArray()
+        ).use { c ->
+            while (c.moveToNext()) out.add(readFile(c))
+        }
+        return out
+    }
+
+    // Files of at least minSize whose size is shared with another file of the same apps,
+    // largest first; the only files that can have a byte-identical twin
+    fun sizeCollisions(context: Context, apps: Collection<String>, minSize: Long): List<IndexedFile> {
+        if (apps.isEmpty()) return emptyList()
+        val placeholders = apps.joinToString(",") { "?" }
+        val args = apps.toList() + minSize.toString() + apps.toList() + minSize.toString()
+        val out = ArrayList<IndexedFile>()
+        db(context).rawQuery(
+            """
+            SELECT document_id, uri, app, folder, name, mime, kind, size, mtime FROM media_files
+            WHERE app IN ($placeholders) AND size >= ? AND size IN (
+              SELECT size FROM media_files WHERE app IN ($placeholders) AND size >= ?
+              GROUP BY size HAVING COUNT(*) > 1
+            )
+            ORDER BY size DESC, document_id
+            """.trimIndent(),
+            args.toTypedArray()
+        ).use { c ->
+            while (c.moveToNext()) out.add(readFile(c))
+        }
+        return out
+    }
+
+    // Every indexed file of the given kinds (MediaTypeClassifier labels)
+    fun filesOfKinds(context: Context, apps: Collection<String>, kinds: Collection<String>): List<IndexedFile> {
+        if (apps.isEmpty() || kinds.isEmpty()) return emptyList()
+        val appPlaceholders = apps.joinToString(",") { "?" }
+        val kindPlaceholders = kinds.joinToString(",") { "?" }
+        val out = ArrayList<IndexedFile>()
+        db(context).rawQuery(
+            """
+            SELECT document_id, uri, app, folder, name, mime, kind, size, mtime FROM media_files
+            WHERE app IN ($appPlaceholders) AND kind IN ($kindPlaceholders)
+            ORDER BY app, folder, name, document_id
+            """.trimIndent(),
+            (apps.toList() + kinds.toList()).toTypedArray()
+        ).use { c ->
+            while (c.moveToNext()) out.add(readFile(c))
+        }
+        return out
+    }
+
+    // Names of the subfolders of an indexed folder; null if the folder isn't indexed
+    fun subfolders(context: Context, app: String, folder: String): List<String>? {
+        val db = db(context)
+        val dirId = db.rawQuery("SELECT document_id FROM media_dirs WHERE app = ? AND folder = ?", arrayOf(app, folder)).use { c ->
+            if (c.moveToFirst()) c.getString(0) else null
+        } ?: return null
+        val out = ArrayList<String>()
+        db.rawQuery("SELECT name FROM media_dirs WHERE parent_id = ? ORDER BY name", arrayOf(dirId)).use { c ->
+            while (c.moveToNext()) out.add(c.getString(0))
+        }
+        return out
+    }
+
+    private fun readFile(c: Cursor) = IndexedFile(
+        documentId = c.getString(0),
+        uri = c.getString(1),
+        app = c.getString(2),
+        folder = c.getString(3),
+        name = c.getString(4),
+        mime = c.getString(5) ?: "",
+        kind = c.getString(6),
+        size = c.getLong(7),
+        mtime = c.getLong(8)
+    )
+}
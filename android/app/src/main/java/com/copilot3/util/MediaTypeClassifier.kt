@@ -0,0 +1,181 @@
+package com.copilot3.util
+
+import android.content.Context
+import android.net.Uri
+import android.provider.OpenableColumns
+import android.util.Log
+
+// One answer to "what kind of media is this file" for every scanner, filter and share path.
+// Extensions are looked up in a table built once; when the name has no known extension the
+// mime reported by SAF / MediaStore is used, and only if that is missing or generic are the
+// first bytes of the file read. Messenger folders add context the bytes can't: WhatsApp
+// stores GIFs as mp4 under "Animated Gifs", stickers as webp under "Stickers" and voice
+// notes as opus under "Voice Notes".
+object MediaTypeClassifier {
+
+    private const val TAG = "MediaTypeClassifier"
+    private const val SNIFF_BYTES = 64
+
+    enum class Kind(val label: String) {
+        IMAGE("image"),
+        VIDEO("video"),
+        GIF("gif"),
+        STICKER("sticker"),
+        VOICE_NOTE("voice"),
+        AUDIO("audio"),
+        DOCUMENT("document")
+    }
+
+    data class MediaType(val kind: Kind, val mime: String, val extension: String)
+
+    // Kinds shown on the cleanup and status screens
+    val VISUAL_KINDS = setOf(Kind.IMAGE, Kind.VIDEO, Kind.GIF, Kind.STICKER)
+
+    private val BY_EXTENSION: LinkedHashMap<String, MediaType> = LinkedHashMap<String, MediaType>().apply {
+        fun add(kind: Kind, mime: String, vararg extensions: String) {
+            for (ext in extensions) put(ext, MediaType(kind, mime, ext))
+        }
+        add(Kind.IMAGE, "image/jpeg", "jpg", "jpeg")
+        add(Kind.IMAGE, "image/png", "png")
+        add(Kind.IMAGE, "image/webp", "webp")
+        add(Kind.IMAGE, "image/heic", "heic")
+        add(Kind.GIF, "image/gif", "gif")
+        add(Kind.VIDEO, "video/mp4", "mp4", "m4v")
+        add(Kind.VIDEO, "video/quicktime", "mov")
+        add(Kind.VIDEO, "video/3gpp", "3gp")
+        add(Kind.VIDEO, "video/x-matroska", "mkv")
+        add(Kind.VIDEO, "video/webm", "webm")
+        add(Kind.AUDIO, "audio/ogg", "ogg")
+        add(Kind.VOICE_NOTE, "audio/ogg", "opus")
+        add(Kind.AUDIO, "audio/mpeg", "mp3")
+        add(Kind.AUDIO, "audio/mp4", "m4a")
+        add(Kind.AUDIO, "audio/aac", "aac")
+        add(Kind.AUDIO, "audio/amr", "amr")
+        add(Kind.AUDIO, "audio/wav", "wav")
+        add(Kind.DOCUMENT, "application/pdf", "pdf")
+        add(Kind.DOCUMENT, "application/msword", "doc")
+        add(Kind.DOCUMENT, "application/vnd.openxmlformats-officedocument.wordprocessingml.document", "docx")
+        add(Kind.DOCUMENT, "application/vnd.ms-excel", "xls")
+        add(Kind.DOCUMENT, "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", "xlsx")
+        add(Kind.DOCUMENT, "application/vnd.ms-powerpoint", "ppt")
+        add(Kind.DOCUMENT, "application/vnd.openxmlformats-officedocument.presentationml.presentation", "pptx")
+        add(Kind.DOCUMENT, "text/plain", "txt")
+        add(Kind.DOCUMENT, "text/csv", "csv")
+        add(Kind.DOCUMENT, "application/zip", "zip")
+        add(Kind.DOCUMENT, "application/vnd.android.package-archive", "apk")
+    }
+
+    // Reverse table for files whose only clue is their mime; first extension registered wins
+    private val BY_MIME: HashMap<String, MediaType> = HashMap<String, MediaType>().apply {
+        for (type in BY_EXTENSION.values) {
+            if (!containsKey(type.mime)) put(type.mime, type)
+        }
+        put("image/jpg", BY_EXTENSION.getValue("jpg"))
+        put("audio/opus", BY_EXTENSION.getValue("opus"))
+    }
+
+    fun extensionOf(name: String): String {
+        val dot = name.lastIndexOf('.')
+        return if (dot < 0 || dot == name.length - 1) "" else name.substring(dot + 1).lowercase()
+    }
+
+    // Name, then mime; no I/O. folder is the path the file was found under, if known.
+    @JvmStatic
+    @JvmOverloads
+    fun classify(name: String, mime: String? = null, folder: String = ""): MediaType? {
+        val type = BY_EXTENSION[extensionOf(name)] ?: mime?.let { fromMime(it) } ?: return null
+        return inFolder(type, folder)
+    }
+
+    // classify(), falling back to reading the file header when neither name nor mime helps
+    fun classify(context: Context, uri: Uri, name: String, mime: String?, folder: String = ""): MediaType? {
+        classify(name, mime, folder)?.let { return it }
+        return sniff(context, uri)?.let { inFolder(it, folder) }
+    }
+
+    // For content uris with nothing else known: display name and resolver mime, then the header
+    fun classify(context: Context, uri: Uri): MediaType? {
+        val resolver = context.contentResolver
+        val name = try {
+            resolver.query(uri, arrayOf(OpenableColumns.DISPLAY_NAME), null, null, null)?.use { c ->
+                if (c.moveToFirst() && !c.isNull(0)) c.getString(0) else null
+            }
+        } catch (e: Exception) {
+            null
+        } ?: uri.lastPathSegment ?: ""
+        val mime = try { resolver.getType(uri) } catch (e: Exception) { null }
+        return classify(context, uri, name, mime, Uri.decode(uri.toString()))
+    }
+
+    fun isVisual(name: String, mime: String? = null, folder: String = ""): Boolean =
+        classify(name, mime, folder)?.let { it.kind in VISUAL_KINDS } == true
+
+    @JvmStatic
+    fun mimeForName(name: String): String = classify(name)?.mime ?: "*/*"
+
+    private fun fromMime(mime: String): MediaType? {
+        val normalized = mime.substringBefore(';').trim().lowercase()
+        return BY_MIME[normalized]
+    }
+
+    private fun inFolder(type: MediaType, folder: String): MediaType {
+        val f = folder.lowercase()
+        return when {
+            type.kind == Kind.VIDEO && f.contains("animated gif") -> type.copy(kind = Kind.GIF)
+            type.mime == "image/webp" && f.contains("sticker") -> type.copy(kind = Kind.STICKER)
+            type.kind == Kind.AUDIO && f.contains("voice note") -> type.copy(kind = Kind.VOICE_NOTE)
+            else -> type
+        }
+    }
+
+    fun sniff(context: Context, uri: Uri): MediaType? {
+        return try {
+            context.contentResolver.openInputStream(uri)?.use { input ->
+                val header = ByteArray(SNIFF_BYTES)
+                var read = 0
+                while (read < header.size) {
+                    val n = input.read(header, read, header.size - read)
+                    if (n < 0) break
+                    read += n
+                }
+                sniff(header, read)
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to sniff $uri: ${e.message}")
+            null
+        }
+    }
+
+    // Magic numbers of the formats messengers actually store
+    fun sniff(header: ByteArray, length: Int): MediaType? {
+        fun at(offset: Int, vararg bytes: Int): Boolean {
+            if (offset + bytes.size > length) return false
+            for (i in bytes.indices) if ((header[offset + i].toInt() and 0xFF) != bytes[i]) return false
+            return true
+        }
+        fun ascii(offset: Int, text: String) = at(offset, *text.map { it.code }.toIntArray())
+        fun ext(e: String) = BY_EXTENSION.getValue(e)
+
+        return when {
+            at(0, 0xFF, 0xD8, 0xFF) -> ext("jpg")
+            at(0, 0x89, 0x50, 0x4E, 0x47) -> ext("png")
+            ascii(0, "GIF8") -> ext("gif")
+            ascii(0, "RIFF") && ascii(8, "WEBP") -> ext("webp")
+            ascii(0, "RIFF") && ascii(8, "WAVE") -> ext("wav")
+            ascii(4, "ftyp") -> when {
+                ascii(8, "heic") || ascii(8, "heix") || ascii(8, "mif1") -> ext("heic")
+                ascii(8, "qt  ") -> ext("mov")
+                ascii(8, "M4A ") -> ext("m4a")
+                ascii(8, "3gp") -> ext("3gp")
+                else -> ext("mp4")
+            }
+            at(0, 0x1A, 0x45, 0xDF, 0xA3) -> ext("mkv")
+            ascii(0, "OggS") -> if (ascii(28, "OpusHead")) ext("opus") else ext("ogg")
+            ascii(0, "ID3") || (at(0, 0xFF) && length > 1 && (header[1].toInt() and 0xE0) == 0xE0) -> ext("mp3")
+            ascii(0, "#!AMR") -> ext("amr")
+            ascii(0, "%PDF") -> ext("pdf")
+            at(0, 0x50, 0x4B, 0x03, 0x04) -> ext("zip")
+            else -> null
+        }
+    }
+}
@@ -1,33 +1,48 @@
 // src/util/MessageBackupService.kt
 package com.copilot3.util
 
-import android.content.Context
 import android.service.notification.NotificationListenerService
 import android.service.notification.StatusBarNotification
 import android.util.Log
 import android.app.Notification
-import org.json.JSONArray
+import android.graphics.Bitmap
+import androidx.core.app.NotificationCompat
 
 class MessageBackupService : NotificationListenerService() {
 
     private val TAG = "MessageBackupService"
+    private val MAX_TRACKED_KEYS = 256
+    private val PHOTO_PLACEHOLDER = "📷 Photo"
 
-    private fun isAppEnabled(packageName: String): Boolean {
-        val prefs = getSharedPreferences("app_prefs", Context.MODE_PRIVATE)
-        val enabledJson = prefs.getString("enabled_notification_apps", "[]") ?: "[]"
-        val enabledApps = JSONArray(enabledJson)
-        for (i in 0 until enabledApps.length()) {
-            if (enabledApps.getString(i) == packageName) {
-                return true
-            }
-        }
-        return false
+    // What WhatsApp swaps a line's text for when it is deleted for everyone, in its most
+    // common languages (compared lowercased, without the trailing period); the update keeps
+    // the notification key and the original line's timestamp. Other languages rely on the
+    // structural check in fromMessagingStyle.
+    private val DELETED_PLACEHOLDERS = setOf(
+        "this message was deleted", "you deleted this message",
+        "se eliminó este mensaje", "eliminaste este mensaje",
+        "esta mensagem foi apagada", "você apagou esta mensagem",
+        "ce message a été supprimé", "vous avez supprimé ce message",
+        "diese nachricht wurde gelöscht", "du hast diese nachricht gelöscht",
+        "questo messaggio è stato eliminato", "hai eliminato questo messaggio",
+        "pesan ini telah dihapus", "anda menghapus pesan ini",
+        "данное сообщение удалено", "вы удалили данное сообщение",
+        "bu mesaj silindi", "bu mesajı sildiniz"
+    )
+
+    // What has already been ingested per notification key. WhatsApp re-posts the same
+    // key with the full MessagingStyle history on every new line, so only messages
+    // newer than lastTimestamp are new; lastContentHash catches plain-text re-posts.
+    // shown holds the timestamps of the lines in the last MessagingStyle post.
+    private class IngestState(val lastTimestamp: Long, val lastContentHash: Long, val shown: Set<Long> = emptySet())
+
+    private val ingested = object : LinkedHashMap<String, IngestState>(64, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, IngestState>?): Boolean =
+            size > MAX_TRACKED_KEYS
     }
 
-    private fun isPrivateChatOnly(text: String): Boolean {
-        val prefs = getSharedPreferences("app_prefs", Context.MODE_PRIVATE)
-        val privateOnly = prefs.getBoolean("backupPrivateOnly", false)
-        if (!privateOnly) return true
+    private fun isPrivateChatOnly(settings: BackupSettings, text: String): Boolean {
+        if (!settings.privateOnly) return true
 
         // Detect group: text starts with "Sender: message" pattern
         val parts = text.split(":", limit = 2)
@@ -38,8 +53,9 @@ class MessageBackupService : NotificationListenerService() {
         super.onNotificationPosted(sbn)
         sbn ?: return
 
+        val settings = BackupSettings.get(this)
         val packageName = sbn.packageName
-        if (!isAppEnabled(packageName)) return  // Skip if app not enabled
+        if (!settings.isAppEnabled(packageName)) return  // Skip if app not enabled
 
         val app = when (packageName) {
             "com.whatsapp" -> "whatsapp"
@@ -48,41 +64,146 @@ class MessageBackupService : NotificationListenerService() {
             else -> return
         }
 
-        val extras = sbn.notification.extras ?: return
-        val title = extras.getString(Notification.EXTRA_TITLE) ?: return  // Contact name or phone
-        val text = extras.getString(Notification.EXTRA_TEXT) ?: return  // Message content
+        val notification = sbn.notification ?: return
+        // "5 messages from 3 chats" summaries carry no message of their own
+        if (notification.flags and Notification.FLAG_GROUP_SUMMARY != 0) return
 
-        if (!isPrivateChatOnly(text)) return  // Skip groups if private-only enabled
+        val extras = notification.extras ?: return
+        val title = extras.getCharSequence(Notification.EXTRA_TITLE)?.toString() ?: return  // Contact name or phone
 
-        // Use title as contact_identifier (name if saved, phone if unsaved)
-        val contactIdentifier = title
-        val name = title
-        val timestamp = sbn.postTime.toString()
-
-        // Check if enabled (specific or wildcard '*')
-        var isEnabled = false
-        val dbHelper = CampaignsDbHelper(this)
-        val db = dbHelper.readableDatabase
-        db.rawQuery(
-            "SELECT 1 FROM enabled_backups WHERE app = ? AND contact_identifier IN (?, '*') LIMIT 1",
-            arrayOf(app, contactIdentifier)
-        ).use { cursor ->
-            isEnabled = cursor.moveToFirst()
+        val style = NotificationCompat.MessagingStyle.extractMessagingStyleFromNotification(notification)
+        val messages = if (style != null && style.messages.isNotEmpty()) {
+            fromMessagingStyle(app, title, settings, sbn.key, style)
+        } else {
+            fromPlainText(app, title, settings, sbn)
+        }
+
+        // The sender/group avatar rides on the newest message; the writer stores it once
+        // per distinct image and points the chat at it. Chats whose avatar was stored
+        // recently don't carry the icon through the queue at all.
+        val avatar = notification.getLargeIcon()
+        val lastMessage = messages.indexOfLast { it is MessageBackupWriter.Entry.Message }
+        val newest = messages.getOrNull(lastMessage) as? MessageBackupWriter.Entry.Message
+        val out = if (avatar != null && newest != null && !BackupLookupCache.isAvatarFresh(newest.app, newest.contactIdentifier)) {
+            messages.toMutableList().also { it[lastMessage] = newest.copy(avatar = avatar) }
+        } else {
+            messages
+        }
+
+        // Hand off to the write-behind queue; the enabled_backups check, chat lookup,
+        // image encoding, inserts and deletion marks run on the writer thread, and one
+        // notification's updates share a transaction
+        MessageBackupWriter.enqueueAll(this, out)
+    }
+
+    private fun fromMessagingStyle(
+        app: String,
+        title: String,
+        settings: BackupSettings,
+        key: String,
+        style: NotificationCompat.MessagingStyle
+    ): List<MessageBackupWriter.Entry> {
+        val isGroup = style.isGroupConversation
+        if (settings.privateOnly && isGroup) return emptyList()  // Skip groups if private-only enabled
+
+        // Group chats are keyed by the conversation title; 1:1 chats by the notification title
+        val contactIdentifier = style.conversationTitle?.toString()?.takeIf { it.isNotBlank() } ?: title
+        val selfName = style.user.name?.toString()
+        val previous = ingested[key]
+        val lastSeen = previous?.lastTimestamp ?: Long.MIN_VALUE
+
+        val out = ArrayList<MessageBackupWriter.Entry>()
+        val shown = style.messages.mapTo(HashSet()) { it.timestamp }
+        // Structural check, independent of language: a line shown last time that is gone
+        // now, while older lines are still shown, was removed from the conversation.
+        // Lines older than everything shown simply scrolled out of the history.
+        val oldestShown = shown.minOrNull()
+        if (previous != null && oldestShown != null) {
+            for (ts in previous.shown) {
+                if (ts > oldestShown && ts !in shown) {
+                    out.add(MessageBackupWriter.Entry.Deleted(key, ts, System.currentTimeMillis()))
+                }
+            }
         }
 
-        if (!isEnabled) return  // Skip if not enabled for this sender
+        var newest = lastSeen
+        var newestHash = previous?.lastContentHash ?: 0L
+        for (message in style.messages) {
+            // Deleted lines are usually replaced in place, so they show up among
+            // already-seen ones; never save the placeholder itself
+            if (isDeletedPlaceholder(message.text)) {
+                out.add(MessageBackupWriter.Entry.Deleted(key, message.timestamp, System.currentTimeMillis()))
+                continue
+            }
+            if (message.timestamp <= lastSeen) continue
+            // Inline images come as a content uri; the text is usually a caption or "📷 Photo"
+            val imageUri = message.dataUri?.takeIf { message.dataMimeType?.startsWith("image/") == true }
+            val text = message.text?.toString()?.takeIf { it.isNotBlank() }
+                ?: if (imageUri != null) PHOTO_PLACEHOLDER else continue
 
-        // Save message (deducts points if applicable)
-        try {
-            CampaignsModule.saveMessage(this, app, contactIdentifier, name, timestamp, text, false)
-            // FIXED: Log to recent_chats ONLY after successful save
-            val saveDb = dbHelper.writableDatabase
-            saveDb.execSQL(
-                "INSERT OR REPLACE INTO recent_chats (app, contact_identifier, name, last_timestamp) VALUES (?, ?, ?, ?)",
-                arrayOf(app, contactIdentifier, name, timestamp)
+            // A null person is the device user (a reply sent from the notification)
+            val senderName = message.person?.name?.toString()
+            val isSent = message.person == null || (selfName != null && senderName == selfName)
+            out.add(
+                MessageBackupWriter.Entry.Message(
+                    app = app,
+                    contactIdentifier = contactIdentifier,
+                    name = contactIdentifier,
+                    timestamp = message.timestamp,
+                    content = text,
+                    isSent = isSent,
+                    sender = if (isGroup && !isSent) senderName else null,
+                    pictureUri = imageUri,
+                    notificationKey = key
+                )
             )
-        } catch (e: Exception) {
-            Log.e(TAG, "Failed to save message", e)
+            if (message.timestamp > newest) {
+                newest = message.timestamp
+                newestHash = CampaignsDbHelper.contentHash(text)
+            }
+        }
+        ingested[key] = IngestState(newest, newestHash, shown)
+        return out
+    }
+
+    private fun isDeletedPlaceholder(text: CharSequence?): Boolean {
+        if (text == null) return false
+        return text.toString().trim().trimEnd('.').lowercase() in DELETED_PLACEHOLDERS
+    }
+
+    private fun fromPlainText(
+        app: String,
+        title: String,
+        settings: BackupSettings,
+        sbn: StatusBarNotification
+    ): List<MessageBackupWriter.Entry> {
+        val extras = sbn.notification.extras
+        @Suppress("DEPRECATION")
+        val picture = extras.getParcelable<Bitmap>(Notification.EXTRA_PICTURE)  // BigPictureStyle image
+        val text = extras.getCharSequence(Notification.EXTRA_TEXT)?.toString()?.takeIf { it.isNotBlank() }  // Message content
+            ?: if (picture != null) PHOTO_PLACEHOLDER else return emptyList()
+
+        // Updates that only repost the latest line are not new messages (nor new deletions)
+        val hash = CampaignsDbHelper.contentHash(text)
+        if (ingested[sbn.key]?.lastContentHash == hash) return emptyList()
+        ingested[sbn.key] = IngestState(sbn.postTime, hash)
+
+        if (isDeletedPlaceholder(text)) {
+            return listOf(MessageBackupWriter.Entry.Deleted(sbn.key, null, sbn.postTime))
         }
+
+        if (!isPrivateChatOnly(settings, text)) return emptyList()  // Skip groups if private-only enabled
+
+        // Use title as contact_identifier (name if saved, phone if unsaved)
+        return listOf(
+            MessageBackupWriter.Entry.Message(app, title, title, sbn.postTime, text, false, picture = picture, notificationKey = sbn.key)
+        )
+    }
+
+    override fun onListenerDisconnected() {
+        // Don't leave accepted notifications sitting in memory while we're unbound; this runs
+        // on the main thread, so the writer is only asked to commit now, not waited for
+        MessageBackupWriter.requestFlush(this)
+        super.onListenerDisconnected()
     }
-}
\ No newline at end of file
+}
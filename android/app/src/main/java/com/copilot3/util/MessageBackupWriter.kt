@@ -0,0 +1,330 @@
+package com.copilot3.util
+
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.drawable.BitmapDrawable
+import android.graphics.drawable.Icon
+import android.net.Uri
+import android.os.Process
+import android.os.SystemClock
+import android.util.Log
+import java.util.IdentityHashMap
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+// Write-behind queue for notification backups. The listener enqueues and returns
+// immediately; one background thread group-commits whatever arrived within
+// MAX_DELAY_MS (or MAX_BATCH items) in a single transaction.
+object MessageBackupWriter {
+
+    private const val TAG = "MessageBackupWriter"
+    private const val CAPACITY = 2000
+    private const val MAX_BATCH = 100
+    private const val MAX_DELAY_MS = 250L
+    private const val AVATAR_FALLBACK_PX = 192
+    // Decoded pictures waiting in the queue; past this, new entries are queued without theirs
+    private const val MAX_PENDING_PICTURE_BYTES = 32L * 1024 * 1024
+
+    sealed class Entry {
+        data class Message(
+            val app: String,
+            val contactIdentifier: String,
+            val name: String,
+            val timestamp: Long,
+            val content: String,
+            val isSent: Boolean,
+            val sender: String? = null,
+            // Attached image / chat avatar; encoded into MessageMediaStore on the writer thread
+            val picture: Bitmap? = null,
+            val pictureUri: Uri? = null,
+            val avatar: Icon? = null,
+            // StatusBarNotification.key, recorded in RecoveryIndex so a later deletion resolves
+            val notificationKey: String? = null
+        ) : Entry()
+
+        // WhatsApp replaced a line of notificationKey with "This message was deleted";
+        // timestamp null means the key's newest line (plain-text notifications)
+        data class Deleted(val notificationKey: String, val timestamp: Long?, val detectedAt: Long) : Entry()
+
+        // Entries that must land in the same transaction, in order (one notification's updates)
+        class Group(val entries: List<Entry>) : Entry()
+
+        class Flush(val done: CountDownLatch) : Entry()
+    }
+
+    private val queue = ArrayBlockingQueue<Entry>(CAPACITY)
+    private val pendingPictureBytes = AtomicLong(0)
+    private var appContext: Context? = null
+    private var worker: Thread? = null
+
+    // ====== Metrics ======
+    @Volatile private var enqueued = 0L
+    @Volatile private var dropped = 0L
+    // Entries that failed on their own after their batch was rolled back
+    @Volatile private var failed = 0L
+    @Volatile private var picturesSkipped = 0L
+    @Volatile private var committedMessages = 0L
+    @Volatile private var committedBatches = 0L
+    @Volatile private var maxQueueDepth = 0
+    @Volatile private var lastCommitMs = 0L
+    @Volatile private var maxCommitMs = 0L
+    @Volatile private var totalCommitMs = 0L
+
+    fun enqueue(context: Context, entry: Entry): Boolean {
+        ensureStarted(context)
+        val reserved = reservePictures(listOf(entry))
+        if (!queue.offer(reserved[0])) {
+            releasePictures(reserved)
+            dropped++
+            Log.w(TAG, "Backup queue full ($CAPACITY), dropping ${entry.javaClass.simpleName}")
+            return false
+        }
+        enqueued++
+        val depth = queue.size
+        if (depth > maxQueueDepth) maxQueueDepth = depth
+        return true
+    }
+
+    fun enqueueAll(context: Context, entries: List<Entry>): Boolean {
+        if (entries.isEmpty()) return true
+        if (entries.size == 1) return enqueue(context, entries[0])
+        ensureStarted(context)
+        val reserved = reservePictures(entries)
+        if (!queue.offer(Entry.Group(reserved))) {
+            releasePictures(reserved)
+            dropped += entries.size
+            Log.w(TAG, "Backup queue full ($CAPACITY), dropping ${entries.size} entries")
+            return false
+        }
+        enqueued += entries.size
+        val depth = queue.size
+        if (depth > maxQueueDepth) maxQueueDepth = depth
+        return true
+    }
+
+    // Blocks until everything enqueued before this call is committed (or timeout)
+    fun flush(context: Context, timeoutMs: Long = 2000L): Boolean {
+        ensureStarted(context)
+        val done = CountDownLatch(1)
+        val deadline = SystemClock.elapsedRealtime() + timeoutMs
+        if (!queue.offer(Entry.Flush(done), timeoutMs, TimeUnit.MILLISECONDS)) return false
+        val remaining = deadline - SystemClock.elapsedRealtime()
+        return done.await(remaining.coerceAtLeast(0L), TimeUnit.MILLISECONDS)
+    }
+
+    // Asks the writer to commit what is queued now, without waiting for it
+    fun requestFlush(context: Context): Boolean {
+        ensureStarted(context)
+        return queue.offer(Entry.Flush(CountDownLatch(1)))
+    }
+
+    fun stats(): Map<String, Number> = mapOf(
+        "queueDepth" to queue.size,
+        "maxQueueDepth" to maxQueueDepth,
+        "enqueued" to enqueued,
+        "dropped" to dropped,
+        "failed" to failed,
+        "picturesSkipped" to picturesSkipped,
+        "pendingPictureBytes" to pendingPictureBytes.get(),
+        "committedMessages" to committedMessages,
+        "committedBatches" to committedBatches,
+        "lastCommitMs" to lastCommitMs,
+        "maxCommitMs" to maxCommitMs,
+        "avgCommitMs" to if (committedBatches > 0) totalCommitMs.toDouble() / committedBatches else 0.0
+    )
+
+    @Synchronized
+    private fun ensureStarted(context: Context) {
+        if (worker != null) return
+        appContext = context.applicationContext
+        worker = Thread({ runLoop() }, TAG).apply {
+            isDaemon = true
+            start()
+        }
+    }
+
+    private fun runLoop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND)
+        val batch = ArrayList<Entry>(MAX_BATCH)
+        // batch ranges of each queued entry, so a Group is retried as one unit
+        val units = ArrayList<IntRange>(MAX_BATCH)
+        val flushes = ArrayList<Entry.Flush>()
+        while (true) {
+            try {
+                collect(queue.take(), batch, units, flushes)
+                val deadline = SystemClock.elapsedRealtime() + MAX_DELAY_MS
+                while (batch.size < MAX_BATCH && flushes.isEmpty()) {
+                    val wait = deadline - SystemClock.elapsedRealtime()
+                    if (wait <= 0) break
+                    val next = queue.poll(wait, TimeUnit.MILLISECONDS) ?: break
+                    collect(next, batch, units, flushes)
+                }
+                if (batch.isNotEmpty()) commit(batch, units)
+            } catch (e: InterruptedException) {
+                return
+            } catch (e: Exception) {
+                Log.e(TAG, "Failed to commit ${batch.size} backed-up messages", e)
+            } finally {
+                releasePictures(batch)
+                batch.clear()
+                units.clear()
+                flushes.forEach { it.done.countDown() }
+                flushes.clear()
+            }
+        }
+    }
+
+    private fun collect(entry: Entry, batch: MutableList<Entry>, units: MutableList<IntRange>, flushes: MutableList<Entry.Flush>) {
+        val start = batch.size
+        flatten(entry, batch, flushes)
+        if (batch.size > start) units.add(start until batch.size)
+    }
+
+    private fun flatten(entry: Entry, batch: MutableList<Entry>, flushes: MutableList<Entry.Flush>) {
+        when (entry) {
+            is Entry.Message, is Entry.Deleted -> batch.add(entry)
+            is Entry.Group -> entry.entries.forEach { flatten(it, batch, flushes) }
+            is Entry.Flush -> flushes.add(entry)
+        }
+    }
+
+    // Entries stay in arrival order so a deletion is applied after the insert it refers to
+    private fun commit(batch: List<Entry>, units: List<IntRange>) {
+        val context = appContext ?: return
+        val started = SystemClock.elapsedRealtime()
+        val db = CampaignsDbHelper.getInstance(context).writableDatabase
+
+        // Image encoding and file writes happen before the transaction so they never hold
+        // the write lock; the same Bitmap/Icon object is only stored once per batch, and an
+        // avatar is only decoded and hashed when the chat has none or it is due a refresh
+        val stored = IdentityHashMap<Any, String?>()
+        val mediaHashes = arrayOfNulls<String>(batch.size)
+        val avatarHashes = arrayOfNulls<String>(batch.size)
+        batch.forEachIndexed { i, e ->
+            val m = e as? Entry.Message ?: return@forEachIndexed
+            if (!BackupLookupCache.isBackupEnabled(db, m.app, m.contactIdentifier)) return@forEachIndexed
+            mediaHashes[i] = m.picture?.let { p -> stored.getOrPut(p) { MessageMediaStore.put(context, p) } }
+                ?: m.pictureUri?.let { u -> stored.getOrPut(u) { MessageMediaStore.put(context, u) } }
+            val avatar = m.avatar?.takeIf { BackupLookupCache.isAvatarDue(db, m.app, m.contactIdentifier) } ?: return@forEachIndexed
+            avatarHashes[i] = stored.getOrPut(avatar) { iconBitmap(context, avatar)?.let { MessageMediaStore.put(context, it) } }
+            BackupLookupCache.markAvatarChecked(m.app, m.contactIdentifier)
+        }
+
+        // One bad row would roll back everything else in the batch; on failure each queued
+        // entry (a whole Group together) is retried in its own transaction so only the
+        // entry that fails again is lost
+        var saved = 0
+        var recovered = 0
+        try {
+            val (s, r) = write(db, batch, batch.indices, mediaHashes, avatarHashes)
+            saved = s
+            recovered = r
+        } catch (e: Exception) {
+            Log.w(TAG, "Batch of ${batch.size} failed, retrying entries one at a time", e)
+            for (unit in units) {
+                try {
+                    val (s, r) = write(db, batch, unit, mediaHashes, avatarHashes)
+                    saved += s
+                    recovered += r
+                } catch (e: Exception) {
+                    failed += unit.count()
+                    Log.e(TAG, "Dropping ${unit.count()} backup entries starting with ${batch[unit.first].javaClass.simpleName}", e)
+                }
+            }
+        }
+
+        val elapsed = SystemClock.elapsedRealtime() - started
+        committedMessages += saved
+        committedBatches++
+        lastCommitMs = elapsed
+        totalCommitMs += elapsed
+        if (elapsed > maxCommitMs) maxCommitMs = elapsed
+        Log.d(TAG, "Committed $saved/${batch.size} entries ($recovered recovered) in ${elapsed}ms (queue=${queue.size})")
+    }
+
+    // Counts entries' pictures against MAX_PENDING_PICTURE_BYTES; over budget, the message
+    // is kept and only its picture dropped
+    private fun reservePictures(entries: List<Entry>): List<Entry> = entries.map { e ->
+        val picture = (e as? Entry.Message)?.picture ?: return@map e
+        val bytes = picture.allocationByteCount.toLong()
+        if (pendingPictureBytes.addAndGet(bytes) <= MAX_PENDING_PICTURE_BYTES) return@map e
+        pendingPictureBytes.addAndGet(-bytes)
+        picturesSkipped++
+        Log.w(TAG, "Too many pictures queued, backing up a message without its picture")
+        e.copy(picture = null)
+    }
+
+    private fun releasePictures(entries: List<Entry>) {
+        for (e in entries) {
+            when (e) {
+                is Entry.Message -> e.picture?.let { pendingPictureBytes.addAndGet(-it.allocationByteCount.toLong()) }
+                is Entry.Group -> releasePictures(e.entries)
+                else -> {}
+            }
+        }
+    }
+
+    // One transaction over batch[indices]; returns (saved, recovered)
+    private fun write(
+        db: SQLiteDatabase,
+        batch: List<Entry>,
+        indices: IntRange,
+        mediaHashes: Array<String?>,
+        avatarHashes: Array<String?>
+    ): Pair<Int, Int> {
+        var saved = 0
+        var recovered = 0
+        db.beginTransaction()
+        try {
+            for (i in indices) {
+                val e = batch[i]
+                if (e is Entry.Deleted) {
+                    if (RecoveryIndex.markDeleted(db, e.notificationKey, e.timestamp, e.detectedAt)) recovered++
+                    continue
+                }
+                val m = e as? Entry.Message ?: continue
+                // Skip if not enabled for this sender
+                if (!BackupLookupCache.isBackupEnabled(db, m.app, m.contactIdentifier)) continue
+                val id = CampaignsModule.insertMessage(db, m.app, m.contactIdentifier, m.name, m.timestamp, m.content, m.isSent, m.sender, mediaHashes[i])
+                if (id != -1L && m.notificationKey != null) RecoveryIndex.record(db, m.notificationKey, m.timestamp, id)
+                avatarHashes[i]?.let { hash ->
+                    db.execSQL(
+                        "UPDATE chats SET avatar_hash = ? WHERE app = ? AND contact_identifier = ? AND avatar_hash IS NOT ?",
+                        arrayOf(hash, m.app, m.contactIdentifier, hash)
+                    )
+                }
+                saved++
+            }
+            db.setTransactionSuccessful()
+        } catch (e: Exception) {
+            BackupLookupCache.invalidateChats()
+            RecoveryIndex.invalidate()
+            throw e
+        } finally {
+            db.endTransaction()
+        }
+        return saved to recovered
+    }
+
+    private fun iconBitmap(context: Context, icon: Icon): Bitmap? = try {
+        when (val d = icon.loadDrawable(context)) {
+            null -> null
+            is BitmapDrawable -> d.bitmap
+            else -> {
+                val w = d.intrinsicWidth.takeIf { it > 0 } ?: AVATAR_FALLBACK_PX
+                val h = d.intrinsicHeight.takeIf { it > 0 } ?: AVATAR_FALLBACK_PX
+                Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888).also { bmp ->
+                    d.setBounds(0, 0, w, h)
+                    d.draw(Canvas(bmp))
+                }
+            }
+        }
+    } catch (e: Exception) {
+        Log.d(TAG, "Cannot load avatar icon: ${e.message}")
+        null
+    }
+}
@@ -0,0 +1,137 @@
+package com.copilot3.util
+
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.net.Uri
+import android.os.Build
+import android.util.Log
+import java.io.File
+import java.io.FileOutputStream
+import java.nio.ByteBuffer
+import java.security.MessageDigest
+
+// Content-addressed store for images attached to notifications (EXTRA_PICTURE, inline
+// MessagingStyle images, sender large icons). Each image is downscaled, hashed over its
+// pixels and written once as WebP to files/message_media/<2 hex>/<hash>.webp, so a
+// repeated avatar or forwarded picture costs one file no matter how many rows use it.
+// Rows reference the hash (messages.media_hash, chats.avatar_hash). Called from the
+// backup writer thread only.
+object MessageMediaStore {
+
+    private const val TAG = "MessageMediaStore"
+    private const val DIR = "message_media"
+    private const val MAX_EDGE = 720
+    private const val WEBP_QUALITY = 80
+    private const val GC_GRACE_MS = 60L * 60 * 1000
+
+    private fun root(context: Context) = File(context.filesDir, DIR)
+
+    fun fileFor(context: Context, hash: String): File = File(File(root(context), hash.substring(0, 2)), "$hash.webp")
+
+    fun uriFor(context: Context, hash: String?): String? =
+        hash?.let { Uri.fromFile(fileFor(context, it)).toString() }
+
+    // Returns the hash, writing the file only if no copy exists yet
+    fun put(context: Context, source: Bitmap): String? {
+        return try {
+            val bitmap = scaleDown(source)
+            val hash = pixelHash(bitmap)
+            val file = fileFor(context, hash)
+            if (!file.exists()) {
+                file.parentFile?.mkdirs()
+                // Write-then-rename so a crash never leaves a truncated file under a valid hash
+                val tmp = File(file.parentFile, "$hash.tmp")
+                FileOutputStream(tmp).use { out -> bitmap.compress(webpFormat(), WEBP_QUALITY, out) }
+                if (!tmp.renameTo(file)) tmp.delete()
+            } else {
+                // Reused: refresh the mtime so collectGarbage's grace period covers the batch
+                // about to reference it, even if the file itself is old and unreferenced
+                file.setLastModified(System.currentTimeMillis())
+            }
+            if (bitmap !== source) bitmap.recycle()
+            hash
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to store notification image", e)
+            null
+        }
+    }
+
+    // Inline MessagingStyle images are content:// uris; readable only when the sender granted access
+    fun put(context: Context, uri: Uri): String? {
+        return try {
+            val bounds = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+            context.contentResolver.openInputStream(uri)?.use { BitmapFactory.decodeStream(it, null, bounds) }
+            if (bounds.outWidth <= 0 || bounds.outHeight <= 0) return null
+            var sample = 1
+            while (maxOf(bounds.outWidth, bounds.outHeight) / (sample * 2) >= MAX_EDGE) sample *= 2
+            val opts = BitmapFactory.Options().apply { inSampleSize = sample }
+            val bitmap = context.contentResolver.openInputStream(uri)?.use { BitmapFactory.decodeStream(it, null, opts) }
+                ?: return null
+            put(context, bitmap).also { bitmap.recycle() }
+        } catch (e: Exception) {
+            Log.d(TAG, "Cannot read notification image $uri: ${e.message}")
+            null
+        }
+    }
+
+    // Removes files no row references any more (after retention deleted their messages)
+    fun collectGarbage(context: Context, db: SQLiteDatabase): Int {
+        val live = HashSet<String>()
+        db.rawQuery("SELECT DISTINCT media_hash FROM messages WHERE media_hash IS NOT NULL", null).use { c ->
+            while (c.moveToNext()) live.add(c.getString(0))
+        }
+        db.rawQuery("SELECT DISTINCT avatar_hash FROM chats WHERE avatar_hash IS NOT NULL", null).use { c ->
+            while (c.moveToNext()) live.add(c.getString(0))
+        }
+        db.rawQuery("SELECT media_hashes FROM message_blocks WHERE media_hashes IS NOT NULL", null).use { c ->
+            while (c.moveToNext()) live.addAll(c.getString(0).split(' ').filter { it.isNotEmpty() })
+        }
+
+        // Files younger than the grace period may belong to a batch the writer hasn't committed yet
+        val graceCutoff = System.currentTimeMillis() - GC_GRACE_MS
+        var removed = 0
+        root(context).listFiles()?.forEach { shard ->
+            shard.listFiles()?.forEach { f ->
+                val hash = f.name.substringBefore('.')
+                if (hash !in live && f.lastModified() < graceCutoff && f.delete()) removed++
+            }
+        }
+        if (removed > 0) Log.d(TAG, "Removed $removed unreferenced media files")
+        return removed
+    }
+
+    private fun scaleDown(src: Bitmap): Bitmap {
+        // Hardware bitmaps can't be read back for hashing
+        val readable = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && src.config == Bitmap.Config.HARDWARE) {
+            src.copy(Bitmap.Config.ARGB_8888, false)
+        } else {
+            src
+        }
+        val edge = maxOf(readable.width, readable.height)
+        if (edge <= MAX_EDGE) return readable
+        val scale = MAX_EDGE.toFloat() / edge
+        val scaled = Bitmap.createScaledBitmap(
+            readable,
+            (readable.width * scale).toInt().coerceAtLeast(1),
+            (readable.height * scale).toInt().coerceAtLeast(1),
+            true
+        )
+        if (readable !== src && readable !== scaled) readable.recycle()
+        return scaled
+    }
+
+    private fun pixelHash(bitmap: Bitmap): String {
+        val buffer = ByteBuffer.allocate(bitmap.byteCount)
+        bitmap.copyPixelsToBuffer(buffer)
+        val digest = MessageDigest.getInstance("SHA-256")
+        digest.update(ByteBuffer.allocate(8).putInt(bitmap.width).putInt(bitmap.height).array())
+        digest.update(buffer.array())
+        return digest.digest().take(16).joinToString("") { "%02x".format(it) }
+    }
+
+    @Suppress("DEPRECATION")
+    private fun webpFormat(): Bitmap.CompressFormat =
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) Bitmap.CompressFormat.WEBP_LOSSY else Bitmap.CompressFormat.WEBP
+}
@@ -0,0 +1,165 @@
+package com.copilot3.util
+
+import android.content.Context
+import android.net.Uri
+import android.os.SystemClock
+import android.util.Log
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import java.util.concurrent.atomic.AtomicInteger
+
+// Walks several SAF subtrees at once. The messenger trees (WhatsApp, Business, Telegram...)
+// and the dozen folders under each Media directory are independent, so every directory
+// listing runs as its own coroutine while a semaphore bounds how many provider queries are
+// in flight. Results are merged in a fixed tree order (apps in the order given, then each
+// directory's files before its subdirectories, both in listing order), so scans of an
+// unchanged tree always come back in the same order and are safe to page by offset.
+// Streaming callers pass onFiles instead and get each directory's matches as soon as it
+// is listed (in completion order, not tree order); keepFiles = false then skips building
+// the merged list so a 50k-file tree isn't held in memory twice.
+// limit / subtreeLimit cap the merged list (overall, and per top-level subtree) at its
+// first n files in tree order. Sibling listings still run in parallel, but they are awaited
+// in tree order and the rest are cancelled as soon as the files before them fill the cap,
+// so listing 500 files from a 50k-file tree doesn't walk the whole tree.
+object ParallelSafScanner {
+
+    private const val TAG = "ParallelSafScanner"
+    const val DEFAULT_PARALLELISM = 6
+
+    data class ScannedFile(val app: String, val folder: String, val entry: SafScanner.Entry)
+
+    // One top-level subtree: an app's folder directly under its root ("" for the root's own files)
+    data class SubtreeTiming(val app: String, val folder: String, val files: Int, val directories: Int, val durationMs: Long)
+
+    // fileCount includes files that were only streamed (keepFiles = false)
+    data class ScanResult(val files: List<ScannedFile>, val fileCount: Int, val timings: List<SubtreeTiming>, val durationMs: Long)
+
+    // roots maps app key -> path of its root inside the tree. skipDir drops a first-level
+    // folder (e.g. ".Statuses"); rootFiles controls files lying directly in the root.
+    // onFiles is called from IO threads, once per directory with matches; it sees every
+    // match found before the walk stops, including ones past the caps.
+    suspend fun scan(
+        context: Context,
+        treeUri: Uri,
+        roots: Map<String, List<String>>,
+        accept: (SafScanner.Entry) -> Boolean,
+        skipDir: (String) -> Boolean = { false },
+        rootFiles: Boolean = true,
+        parallelism: Int = DEFAULT_PARALLELISM,
+        keepFiles: Boolean = true,
+        limit: Int = Int.MAX_VALUE,
+        subtreeLimit: Int = Int.MAX_VALUE,
+        onFiles: ((List<ScannedFile>) -> Unit)? = null
+    ): ScanResult = coroutineScope {
+        val started = SystemClock.elapsedRealtime()
+        val permits = Semaphore(parallelism)
+        val total = AtomicInteger(0)
+        val sink = Sink(keepFiles, onFiles, total)
+
+        val perApp = roots.map { (app, path) ->
+            async(Dispatchers.IO) {
+                val rootId = permits.withPermit { SafScanner.resolvePath(context, treeUri, path) }
+                if (rootId == null) {
+                    Log.d(TAG, "No root for $app")
+                    return@async emptyList<Pair<List<ScannedFile>, SubtreeTiming>>()
+                }
+                val rootStarted = SystemClock.elapsedRealtime()
+                val children = permits.withPermit { SafScanner.listChildren(context, treeUri, rootId) }
+                val own = if (rootFiles) {
+                    children.filter { !it.isDirectory && accept(it) }.map { ScannedFile(app, "", it) }
+                } else {
+                    emptyList()
+                }
+                val rootTiming = SubtreeTiming(app, "", own.size, 1, SystemClock.elapsedRealtime() - rootStarted)
+                val kept = sink.take(own).take(minOf(limit, subtreeLimit))
+                val room = limit - kept.size
+                if (room <= 0) return@async listOf(kept to rootTiming)
+
+                val subtrees = children.filter { it.isDirectory && !skipDir(it.name) }.map { dir ->
+                    async(Dispatchers.IO) {
+                        val subStarted = SystemClock.elapsedRealtime()
+                        val dirs = AtomicInteger(0)
+                        val count = AtomicInteger(0)
+                        val cap = minOf(room, subtreeLimit)
+                        val files = walk(context, treeUri, permits, app, dir.documentId, "/${dir.name}", accept, dirs, count, sink, cap)
+                        files to SubtreeTiming(app, "/${dir.name}", count.get(), dirs.get(), SystemClock.elapsedRealtime() - subStarted)
+                    }
+                }
+                listOf(kept to rootTiming) + awaitPrefix(subtrees, room) { it.first.size }
+            }
+        }
+
+        val parts = awaitPrefix(perApp, limit) { app -> app.sumOf { it.first.size } }.flatten()
+        val result = ScanResult(
+            files = parts.flatMap { it.first }.take(limit),
+            fileCount = total.get(),
+            timings = parts.map { it.second },
+            durationMs = SystemClock.elapsedRealtime() - started
+        )
+        Log.d(TAG, "Scanned ${result.fileCount} files in ${result.timings.size} subtrees in ${result.durationMs}ms")
+        result
+    }
+
+    private suspend fun walk(
+        context: Context,
+        treeUri: Uri,
+        permits: Semaphore,
+        app: String,
+        documentId: String,
+        folder: String,
+        accept: (SafScanner.Entry) -> Boolean,
+        dirs: AtomicInteger,
+        count: AtomicInteger,
+        sink: Sink,
+        limit: Int
+    ): List<ScannedFile> = coroutineScope {
+        dirs.incrementAndGet()
+        val children = permits.withPermit { SafScanner.listChildren(context, treeUri, documentId) }
+        val own = children.filter { !it.isDirectory && accept(it) }.map { ScannedFile(app, folder, it) }
+        count.addAndGet(own.size)
+        val kept = sink.take(own).take(limit)
+        val room = limit - kept.size
+        if (room <= 0) return@coroutineScope kept
+        val nested = children.filter { it.isDirectory }.map { dir ->
+            async(Dispatchers.IO) {
+                walk(context, treeUri, permits, app, dir.documentId, "$folder/${dir.name}", accept, dirs, count, sink, room)
+            }
+        }
+        (kept + awaitPrefix(nested, room) { it.size }.flatten()).take(limit)
+    }
+
+    // Awaits jobs in order until the results so far hold limit files, then cancels the rest
+    private suspend fun <T> awaitPrefix(jobs: List<Deferred<T>>, limit: Int, count: (T) -> Int): List<T> {
+        val out = ArrayList<T>(jobs.size)
+        var n = 0
+        for ((i, job) in jobs.withIndex()) {
+            if (n >= limit) {
+                jobs.subList(i, jobs.size).forEach { it.cancel() }
+                break
+            }
+            val result = job.await()
+            out.add(result)
+            n += count(result)
+        }
+        return out
+    }
+
+    // Hands each directory's matches to the streaming callback and decides what is kept
+    // for the merged result
+    private class Sink(
+        private val keepFiles: Boolean,
+        private val onFiles: ((List<ScannedFile>) -> Unit)?,
+        private val total: AtomicInteger
+    ) {
+        fun take(files: List<ScannedFile>): List<ScannedFile> {
+            if (files.isEmpty()) return files
+            total.addAndGet(files.size)
+            onFiles?.invoke(files)
+            return if (keepFiles) files else emptyList()
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.copilot3.util
+
+import android.database.sqlite.SQLiteDatabase
+import android.util.Log
+import android.util.LruCache
+
+// Correlates WhatsApp's "This message was deleted" updates with the row we saved for the
+// original line. Every insert records (notification key, message timestamp) -> messages.id
+// in notification_message_map, fronted by an LRU; a deletion update for the same key is
+// then one lookup plus one UPDATE by primary key instead of a content scan. The table is
+// pruned to the newest MAX_ROWS mappings. Called from the backup writer thread only, inside
+// its transaction.
+object RecoveryIndex {
+
+    private const val TAG = "RecoveryIndex"
+    private const val MAX_CACHED = 1024
+    private const val MAX_ROWS = 5000
+    private const val PRUNE_EVERY = 500
+
+    private val cache = LruCache<String, Long>(MAX_CACHED)
+    private var sincePrune = 0
+
+    private fun key(notificationKey: String, timestamp: Long) = notificationKey + '\u0000' + timestamp
+
+    fun record(db: SQLiteDatabase, notificationKey: String, timestamp: Long, messageId: Long) {
+        db.execSQL(
+            "INSERT OR REPLACE INTO notification_message_map (notif_key, timestamp, message_id) VALUES (?, ?, ?)",
+            arrayOf<Any>(notificationKey, timestamp, messageId)
+        )
+        cache.put(key(notificationKey, timestamp), messageId)
+        if (++sincePrune >= PRUNE_EVERY) {
+            sincePrune = 0
+            prune(db)
+        }
+    }
+
+    // timestamp null means the newest message saved under the key (plain-text notifications
+    // only ever show one line, so that's the one being replaced)
+    private fun lookup(db: SQLiteDatabase, notificationKey: String, timestamp: Long?): Long? {
+        if (timestamp != null) {
+            cache.get(key(notificationKey, timestamp))?.let { return it }
+            return db.rawQuery(
+                "SELECT message_id FROM notification_message_map WHERE notif_key = ? AND timestamp = ?",
+                arrayOf(notificationKey, timestamp.toString())
+            ).use { c -> if (c.moveToFirst()) c.getLong(0) else null }
+        }
+        return db.rawQuery(
+            "SELECT message_id FROM notification_message_map WHERE notif_key = ? ORDER BY timestamp DESC LIMIT 1",
+            arrayOf(notificationKey)
+        ).use { c -> if (c.moveToFirst()) c.getLong(0) else null }
+    }
+
+    // Returns true if a backed-up row was newly marked. The mapping is dropped afterwards, so
+    // the deleted placeholder WhatsApp keeps re-posting in the history resolves to nothing.
+    fun markDeleted(db: SQLiteDatabase, notificationKey: String, timestamp: Long?, deletedAt: Long): Boolean {
+        val messageId = lookup(db, notificationKey, timestamp) ?: return false
+        val stmt = db.compileStatement("UPDATE messages SET deleted_at = ? WHERE id = ? AND deleted_at IS NULL")
+        val marked = stmt.use {
+            it.bindLong(1, deletedAt)
+            it.bindLong(2, messageId)
+            it.executeUpdateDelete() > 0
+        }
+        db.execSQL("DELETE FROM notification_message_map WHERE message_id = ?", arrayOf<Any>(messageId))
+        cache.snapshot().forEach { (k, id) -> if (id == messageId) cache.remove(k) }
+        if (marked) Log.d(TAG, "Recovered deleted message $messageId")
+        return marked
+    }
+
+    // message ids are AUTOINCREMENT, so the newest mappings are the highest ids
+    private fun prune(db: SQLiteDatabase) {
+        db.execSQL(
+            """
+            DELETE FROM notification_message_map WHERE message_id <
+              (SELECT message_id FROM notification_message_map ORDER BY message_id DESC LIMIT 1 OFFSET $MAX_ROWS)
+            """.trimIndent()
+        )
+    }
+
+    // A write was rolled back, so cached ids may point at rows that were never committed
+    fun invalidate() {
+        cache.evictAll()
+    }
+}
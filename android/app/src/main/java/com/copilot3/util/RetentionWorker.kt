@@ -0,0 +1,171 @@
+package com.copilot3.util
+
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.os.SystemClock
+import android.util.Log
+import org.json.JSONObject
+
+// Deletes backed-up messages past their retention window in small chunks, each in its
+// own short transaction with a pause in between, so ingest and UI reads never wait
+// long and a run can stop at its time budget and resume on the next one.
+//
+// Policy resolution per chat: retention_policies (app, contact) row, then the app's
+// '*' row, then the global autoDeleteDays setting. 0 days means keep forever.
+object RetentionWorker {
+
+    private const val TAG = "RetentionWorker"
+    private const val CHUNK_SIZE = 500
+    private const val CHUNK_PAUSE_MS = 20L
+    private const val DAY_MS = 24L * 60 * 60 * 1000
+    private const val KEY_LAST_REPORT = "lastRetentionReport"
+
+    data class Result(
+        val rowsDeleted: Long,
+        val bytesReclaimed: Long,
+        // Chats that lost at least one row; they aren't removed, only trimmed
+        val chatsTrimmed: Int,
+        val completed: Boolean,
+        val durationMs: Long
+    ) {
+        fun toJson(): JSONObject = JSONObject().apply {
+            put("rowsDeleted", rowsDeleted)
+            put("bytesReclaimed", bytesReclaimed)
+            put("chatsTrimmed", chatsTrimmed)
+            put("completed", completed)
+            put("durationMs", durationMs)
+            put("finishedAt", System.currentTimeMillis())
+        }
+    }
+
+    private val lock = Any()
+
+    // allowFullVacuum: whether a one-time VACUUM (to switch on incremental auto_vacuum) may
+    // run here; it rewrites the whole file, so the daily receiver leaves it to the bridge
+    fun run(context: Context, timeBudgetMs: Long, allowFullVacuum: Boolean): Result = synchronized(lock) {
+        val started = SystemClock.elapsedRealtime()
+        val deadline = started + timeBudgetMs
+        val db = CampaignsDbHelper.getInstance(context).writableDatabase
+        val globalDays = BackupSettings.get(context).autoDeleteDays
+        val policies = loadPolicies(db)
+
+        val pageSize = pragmaLong(db, "page_size")
+        val pagesBefore = pragmaLong(db, "page_count")
+
+        var rowsDeleted = 0L
+        var chatsTrimmed = 0
+        var completed = true
+        val now = System.currentTimeMillis()
+
+        val chats = ArrayList<Triple<Long, String, String>>()
+        db.rawQuery("SELECT id, app, contact_identifier FROM chats", null).use { c ->
+            while (c.moveToNext()) chats.add(Triple(c.getLong(0), c.getString(1), c.getString(2)))
+        }
+
+        for ((chatId, app, contact) in chats) {
+            val days = policies["$app\u0000$contact"] ?: policies["$app\u0000*"] ?: globalDays
+            if (days <= 0) continue
+            val cutoff = now - days * DAY_MS
+
+            // Compressed blocks first: whole days go in one statement, the straddling one is rewritten
+            var chatRows = ColdStorage.purgeBefore(db, chatId, cutoff)
+            while (true) {
+                if (SystemClock.elapsedRealtime() > deadline) {
+                    completed = false
+                    break
+                }
+                val n = deleteChunk(db, chatId, cutoff)
+                chatRows += n
+                if (n < CHUNK_SIZE) break
+                Thread.sleep(CHUNK_PAUSE_MS)
+            }
+            if (chatRows > 0) {
+                chatsTrimmed++
+                rowsDeleted += chatRows
+                dropEmptyRecentChat(db, chatId, app, contact, cutoff)
+            }
+            if (!completed) break
+        }
+
+        if (rowsDeleted > 0) {
+            reclaimSpace(db, allowFullVacuum)
+            MessageMediaStore.collectGarbage(context, db)
+        }
+        val pagesAfter = pragmaLong(db, "page_count")
+
+        val result = Result(
+            rowsDeleted = rowsDeleted,
+            bytesReclaimed = ((pagesBefore - pagesAfter) * pageSize).coerceAtLeast(0L),
+            chatsTrimmed = chatsTrimmed,
+            completed = completed,
+            durationMs = SystemClock.elapsedRealtime() - started
+        )
+        context.getSharedPreferences(BackupSettings.PREFS, Context.MODE_PRIVATE)
+            .edit().putString(KEY_LAST_REPORT, result.toJson().toString()).apply()
+        Log.d(TAG, "Retention run: $result")
+        return result
+    }
+
+    fun lastReport(context: Context): String? =
+        context.getSharedPreferences(BackupSettings.PREFS, Context.MODE_PRIVATE).getString(KEY_LAST_REPORT, null)
+
+    private fun loadPolicies(db: SQLiteDatabase): Map<String, Int> {
+        val map = HashMap<String, Int>()
+        db.rawQuery("SELECT app, contact_identifier, days FROM retention_policies", null).use { c ->
+            while (c.moveToNext()) map[c.getString(0) + '\u0000' + c.getString(1)] = c.getInt(2)
+        }
+        return map
+    }
+
+    // One bounded, index-driven (idx_messages_chat_ts) delete in its own transaction
+    private fun deleteChunk(db: SQLiteDatabase, chatId: Long, cutoff: Long): Int {
+        db.beginTransaction()
+        try {
+            val stmt = db.compileStatement("""
+                DELETE FROM messages WHERE id IN (
+                  SELECT id FROM messages WHERE chat_id = ? AND timestamp < ? LIMIT $CHUNK_SIZE
+                )
+            """.trimIndent())
+            stmt.bindLong(1, chatId)
+            stmt.bindLong(2, cutoff)
+            val n = stmt.executeUpdateDelete()
+            db.setTransactionSuccessful()
+            return n
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    // A sender whose whole history expired shouldn't linger in the recent list
+    private fun dropEmptyRecentChat(db: SQLiteDatabase, chatId: Long, app: String, contact: String, cutoff: Long) {
+        db.execSQL(
+            """
+            DELETE FROM recent_chats
+            WHERE app = ? AND contact_identifier = ? AND last_timestamp < ?
+              AND NOT EXISTS (SELECT 1 FROM messages WHERE chat_id = ?)
+              AND NOT EXISTS (SELECT 1 FROM message_blocks WHERE chat_id = ?)
+            """.trimIndent(),
+            arrayOf<Any>(app, contact, cutoff, chatId, chatId)
+        )
+    }
+
+    // Databases created before retention existed have auto_vacuum off; convert them once
+    // with a full VACUUM, after which freed pages are returned incrementally
+    fun reclaimSpace(db: SQLiteDatabase, allowFullVacuum: Boolean) {
+        try {
+            if (pragmaLong(db, "auto_vacuum") != 2L) {
+                if (!allowFullVacuum) return
+                db.execSQL("PRAGMA auto_vacuum = INCREMENTAL")
+                db.execSQL("VACUUM")
+            } else {
+                db.rawQuery("PRAGMA incremental_vacuum", null).use { c -> while (c.moveToNext()) { } }
+            }
+            db.rawQuery("PRAGMA wal_checkpoint(TRUNCATE)", null).use { c -> c.moveToFirst() }
+        } catch (e: Exception) {
+            Log.w(TAG, "Space reclamation failed", e)
+        }
+    }
+
+    private fun pragmaLong(db: SQLiteDatabase, name: String): Long =
+        db.rawQuery("PRAGMA $name", null).use { c -> if (c.moveToFirst()) c.getLong(0) else 0L }
+}
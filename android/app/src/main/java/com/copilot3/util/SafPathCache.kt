@@ -0,0 +1,68 @@
+package com.copilot3.util
+
+import android.content.Context
+import android.net.Uri
+import java.util.concurrent.ConcurrentHashMap
+
+// (tree uri, relative path) -> document id for directories resolved inside SAF trees, so
+// a known folder like com.whatsapp/WhatsApp/Media/.Statuses costs a map lookup instead of
+// one directory listing per segment. Persisted in SharedPreferences across launches.
+// Entries are trusted until a query against the id fails; SafScanner then drops the id
+// (and everything below it) and resolves the path again.
+object SafPathCache {
+
+    private const val PREFS_NAME = "SafPathCache"
+    private const val SEP = '\u0000'
+
+    private val entries = ConcurrentHashMap<String, String>()
+    @Volatile private var loaded = false
+
+    // Segments match case-insensitively (like DocumentFile.findFile), so keys do too
+    private fun key(treeUri: Uri, path: List<String>) =
+        treeUri.toString() + SEP + path.joinToString("/") { it.lowercase() }
+
+    private fun ensureLoaded(context: Context) {
+        if (loaded) return
+        synchronized(this) {
+            if (loaded) return
+            val prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+            for ((k, v) in prefs.all) {
+                if (v is String) entries[k] = v
+            }
+            loaded = true
+        }
+    }
+
+    fun get(context: Context, treeUri: Uri, path: List<String>): String? {
+        ensureLoaded(context)
+        return entries[key(treeUri, path)]
+    }
+
+    fun put(context: Context, treeUri: Uri, path: List<String>, documentId: String) {
+        ensureLoaded(context)
+        val k = key(treeUri, path)
+        if (entries.put(k, documentId) == documentId) return
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().putString(k, documentId).apply()
+    }
+
+    // Returns true if the id was cached; descendants of a stale directory are stale as well
+    fun invalidate(context: Context, treeUri: Uri, documentId: String): Boolean {
+        ensureLoaded(context)
+        val prefix = treeUri.toString() + SEP
+        val stalePaths = entries.filter { (k, v) -> v == documentId && k.startsWith(prefix) }.keys
+        if (stalePaths.isEmpty()) return false
+        val stale = entries.keys.filter { k -> stalePaths.any { p -> k == p || k.startsWith("$p/") } }
+        val editor = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+        for (k in stale) {
+            entries.remove(k)
+            editor.remove(k)
+        }
+        editor.apply()
+        return true
+    }
+
+    fun clear(context: Context) {
+        entries.clear()
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().clear().apply()
+    }
+}
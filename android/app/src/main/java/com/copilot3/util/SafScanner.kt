@@ -0,0 +1,150 @@
+package com.copilot3.util
+
+import android.content.Context
+import android.net.Uri
+import android.provider.DocumentsContract
+import android.provider.DocumentsContract.Document
+import android.util.Log
+
+// Lists SAF tree directories with one DocumentsContract child query per directory. Each
+// DocumentFile getter (isFile, name, type, length, lastModified) is its own provider
+// query, so walking a 5,000-file folder through listFiles() costs tens of thousands of
+// IPC round trips; a single cursor here returns id, name, mime, size and mtime for every
+// child at once.
+object SafScanner {
+
+    private const val TAG = "SafScanner"
+
+    private val PROJECTION = arrayOf(
+        Document.COLUMN_DOCUMENT_ID,
+        Document.COLUMN_DISPLAY_NAME,
+        Document.COLUMN_MIME_TYPE,
+        Document.COLUMN_SIZE,
+        Document.COLUMN_LAST_MODIFIED
+    )
+
+    data class Entry(
+        val documentId: String,
+        val uri: Uri,
+        val name: String,
+        val mimeType: String,
+        val size: Long,
+        val lastModified: Long
+    ) {
+        val isDirectory: Boolean get() = mimeType == Document.MIME_TYPE_DIR
+    }
+
+    fun rootDocumentId(treeUri: Uri): String = DocumentsContract.getTreeDocumentId(treeUri)
+
+    fun documentUri(treeUri: Uri, documentId: String): Uri =
+        DocumentsContract.buildDocumentUriUsingTree(treeUri, documentId)
+
+    // Children of one directory; empty if it is gone or not readable (a cached path that
+    // resolved to it is dropped so the next lookup walks the tree again)
+    fun listChildren(context: Context, treeUri: Uri, parentDocumentId: String): List<Entry> {
+        return queryChildren(context, treeUri, parentDocumentId) ?: run {
+            SafPathCache.invalidate(context, treeUri, parentDocumentId)
+            emptyList()
+        }
+    }
+
+    // Children of the directory at path, or null if it doesn't exist. A cached id that no
+    // longer lists is re-resolved once before giving up.
+    fun listChildrenAt(context: Context, treeUri: Uri, path: List<String>): List<Entry>? {
+        val id = resolvePath(context, treeUri, path) ?: return null
+        queryChildren(context, treeUri, id)?.let { return it }
+        if (!SafPathCache.invalidate(context, treeUri, id)) return null
+        val fresh = resolvePath(context, treeUri, path) ?: return null
+        return queryChildren(context, treeUri, fresh)
+    }
+
+    // Like listChildren but null when the query fails, for callers that must not mistake an
+    // unreadable directory for an empty one
+    fun queryChildren(context: Context, treeUri: Uri, parentDocumentId: String): List<Entry>? {
+        val childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(treeUri, parentDocumentId)
+        val out = ArrayList<Entry>()
+        try {
+            val cursor = context.contentResolver.query(childrenUri, PROJECTION, null, null, null) ?: return null
+            cursor.use { c ->
+                while (c.moveToNext()) {
+                    val id = c.getString(0) ?: continue
+                    out.add(
+                        Entry(
+                            documentId = id,
+                            uri = documentUri(treeUri, id),
+                            name = c.getString(1) ?: "",
+                            mimeType = c.getString(2) ?: "",
+                            size = if (c.isNull(3)) 0L else c.getLong(3),
+                            lastModified = if (c.isNull(4)) 0L else c.getLong(4)
+                        )
+                    )
+                }
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to list $parentDocumentId: ${e.message}")
+            return null
+        }
+        return out
+    }
+
+    // Metadata of a single document (e.g. a directory's current mtime); null if it is gone
+    fun stat(context: Context, treeUri: Uri, documentId: String): Entry? {
+        val uri = documentUri(treeUri, documentId)
+        return try {
+            context.contentResolver.query(uri, PROJECTION, null, null, null)?.use { c ->
+                if (!c.moveToFirst()) return null
+                Entry(
+                    documentId = documentId,
+                    uri = uri,
+                    name = c.getString(1) ?: "",
+                    mimeType = c.getString(2) ?: "",
+                    size = if (c.isNull(3)) 0L else c.getLong(3),
+                    lastModified = if (c.isNull(4)) 0L else c.getLong(4)
+                )
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to stat $documentId: ${e.message}")
+            null
+        }
+    }
+
+    // Follows path segments (matched case-insensitively, like DocumentFile.findFile) from
+    // the tree root; returns the directory's document id or null if any segment is missing.
+    // Starts from the deepest prefix in SafPathCache and caches every directory it finds.
+    fun resolvePath(context: Context, treeUri: Uri, path: List<String>): String? {
+        var depth = path.size
+        var cached: String? = null
+        while (depth > 0 && cached == null) {
+            cached = SafPathCache.get(context, treeUri, path.subList(0, depth))
+            if (cached == null) depth--
+        }
+        var current = cached ?: rootDocumentId(treeUri)
+        for (i in depth until path.size) {
+            val child = listChildren(context, treeUri, current)
+                .firstOrNull { it.isDirectory && it.name.equals(path[i], ignoreCase = true) }
+                ?: return null
+            current = child.documentId
+            SafPathCache.put(context, treeUri, path.subList(0, i + 1), current)
+        }
+        return current
+    }
+
+    // Depth-first walk below documentId; visit gets each file with its folder path relative
+    // to the start ("/Sent", "" for direct children) and returns false to stop the walk
+    fun walk(
+        context: Context,
+        treeUri: Uri,
+        documentId: String,
+        folder: String = "",
+        visit: (Entry, String) -> Boolean
+    ): Boolean {
+        for (child in listChildren(context, treeUri, documentId)) {
+            if (child.isDirectory) {
+                if (!walk(context, treeUri, child.documentId, "$folder/${child.name}", visit)) return false
+            } else if (!visit(child, folder)) {
+                return false
+            }
+        }
+        return true
+    }
+}
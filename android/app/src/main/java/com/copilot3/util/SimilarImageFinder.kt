@@ -0,0 +1,205 @@
+package com.copilot3.util
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.net.Uri
+import android.os.SystemClock
+import android.util.Log
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+// Groups visually near-identical images (recompressed forwards, resized copies, screenshots
+// of the same thing). Each image gets a 64-bit difference hash from a decode subsampled to
+// a few dozen pixels, so hashing costs a fraction of a full decode; hashes persist in
+// media_phashes like DuplicateFinder's. Clusters come from a HammingIndex lookup per image
+// (Hamming distance <= maxDistance) joined with union-find, never from comparing all pairs.
+object SimilarImageFinder {
+
+    private const val TAG = "SimilarImageFinder"
+    const val DEFAULT_MAX_DISTANCE = 10
+    const val DEFAULT_PARALLELISM = 4
+    // Smallest side the subsampled decode is allowed to shrink to
+    private const val DECODE_MIN_SIDE = 32
+    private const val PROGRESS_EVERY = 50
+
+    data class Cluster(val files: List<MediaIndexer.IndexedFile>) {
+        val totalBytes: Long get() = files.sumOf { it.size }
+    }
+
+    data class Result(val clusters: List<Cluster>, val images: Int, val hashed: Int, val reused: Int, val durationMs: Long)
+
+    // onProgress is called from IO threads with (done, total) while hashing
+    suspend fun find(
+        context: Context,
+        images: List<MediaIndexer.IndexedFile>,
+        maxDistance: Int = DEFAULT_MAX_DISTANCE,
+        parallelism: Int = DEFAULT_PARALLELISM,
+        onProgress: (done: Int, total: Int) -> Unit = { _, _ -> }
+    ): Result = coroutineScope {
+        val started = SystemClock.elapsedRealtime()
+        val db = MediaIndexDbHelper.getInstance(context).writableDatabase
+        val known = loadHashes(db, images)
+        val permits = Semaphore(parallelism)
+        val hashes = ConcurrentHashMap<String, Long>(known)
+        val fresh = ArrayList<Pair<MediaIndexer.IndexedFile, Long>>()
+        val done = AtomicInteger(0)
+        val todo = images.filter { it.documentId !in known }
+
+        try {
+            onProgress(0, todo.size)
+            todo.map { f ->
+                async(Dispatchers.IO) {
+                    permits.withPermit { dHash(context, f) }?.let { hash ->
+                        hashes[f.documentId] = hash
+                        synchronized(fresh) {
+                            fresh.add(f to hash)
+                            if (fresh.size >= PROGRESS_EVERY) saveHashes(db, fresh)
+                        }
+                    }
+                    val n = done.incrementAndGet()
+                    if (n % PROGRESS_EVERY == 0 || n == todo.size) onProgress(n, todo.size)
+                }
+            }.awaitAll()
+        } finally {
+            synchronized(fresh) { saveHashes(db, fresh) }
+        }
+
+        val hashed = images.filter { hashes.containsKey(it.documentId) }
+        val index = HammingIndex()
+        hashed.forEachIndexed { i, f -> index.add(hashes.getValue(f.documentId), i) }
+
+        val parent = IntArray(hashed.size) { it }
+        fun root(i: Int): Int {
+            var r = i
+            while (parent[r] != r) {
+                parent[r] = parent[parent[r]]
+                r = parent[r]
+            }
+            return r
+        }
+        hashed.forEachIndexed { i, f ->
+            for (j in index.query(hashes.getValue(f.documentId), maxDistance)) {
+                val a = root(i)
+                val b = root(j)
+                if (a != b) parent[a] = b
+            }
+        }
+
+        val clusters = hashed.indices.groupBy { root(it) }.values
+            .filter { it.size > 1 }
+            .map { members -> Cluster(members.map { hashed[it] }.sortedByDescending { it.mtime }) }
+            .sortedWith(compareByDescending<Cluster> { it.files.size }.thenByDescending { it.totalBytes })
+
+        val result = Result(clusters, images.size, todo.size, known.size, SystemClock.elapsedRealtime() - started)
+        Log.d(TAG, "${clusters.size} similar clusters among ${images.size} images " +
+            "(${result.hashed} hashed, ${result.reused} reused) in ${result.durationMs}ms")
+        result
+    }
+
+    fun sweepOrphans(context: Context) {
+        val db = MediaIndexDbHelper.getInstance(context).writableDatabase
+        val removed = db.delete("media_phashes", "document_id NOT IN (SELECT document_id FROM media_files)", null)
+        if (removed > 0) Log.d(TAG, "Swept $removed stale perceptual hashes")
+    }
+
+    // Difference hash: 9x8 grey thumbnail, one bit per horizontal neighbour pair. The
+    // source is decoded with the largest power-of-two inSampleSize that keeps both sides
+    // at least DECODE_MIN_SIDE, which is plenty for a 9x8 result.
+    fun dHash(context: Context, file: MediaIndexer.IndexedFile): Long? {
+        return try {
+            context.contentResolver.openFileDescriptor(Uri.parse(file.uri), "r")?.use { pfd ->
+                val bounds = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+                BitmapFactory.decodeFileDescriptor(pfd.fileDescriptor, null, bounds)
+                if (bounds.outWidth <= 0 || bounds.outHeight <= 0) return null
+
+                var sample = 1
+                while (bounds.outWidth / (sample * 2) >= DECODE_MIN_SIDE && bounds.outHeight / (sample * 2) >= DECODE_MIN_SIDE) {
+                    sample *= 2
+                }
+                val options = BitmapFactory.Options().apply {
+                    inSampleSize = sample
+                    inPreferredConfig = Bitmap.Config.RGB_565
+                }
+                val decoded = BitmapFactory.decodeFileDescriptor(pfd.fileDescriptor, null, options) ?: return null
+                val small = Bitmap.createScaledBitmap(decoded, 9, 8, true)
+                if (small !== decoded) decoded.recycle()
+
+                val pixels = IntArray(72)
+                small.getPixels(pixels, 0, 9, 0, 0, 9, 8)
+                small.recycle()
+
+                var hash = 0L
+                var bit = 0
+                for (y in 0 until 8) {
+                    for (x in 0 until 8) {
+                        if (luma(pixels[y * 9 + x]) > luma(pixels[y * 9 + x + 1])) hash = hash or (1L shl bit)
+                        bit++
+                    }
+                }
+                hash
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "dHash failed for ${file.name}: ${e.message}")
+            null
+        } catch (e: OutOfMemoryError) {
+            Log.w(TAG, "dHash out of memory for ${file.name}")
+            null
+        }
+    }
+
+    private fun luma(color: Int): Int {
+        val r = (color shr 16) and 0xFF
+        val g = (color shr 8) and 0xFF
+        val b = color and 0xFF
+        return (r * 299 + g * 587 + b * 114) / 1000
+    }
+
+    private fun loadHashes(db: SQLiteDatabase, files: List<MediaIndexer.IndexedFile>): Map<String, Long> {
+        val wanted = files.associateBy { it.documentId }
+        val out = HashMap<String, Long>()
+        for (chunk in wanted.keys.chunked(500)) {
+            val placeholders = chunk.joinToString(",") { "?" }
+            db.rawQuery(
+                "SELECT document_id, size, mtime, dhash FROM media_phashes WHERE document_id IN ($placeholders)",
+                chunk.toTypedArray()
+            ).use { c ->
+                while (c.moveToNext()) {
+                    val file = wanted[c.getString(0)] ?: continue
+                    if (c.getLong(1) != file.size || c.getLong(2) != file.mtime) continue
+                    out[file.documentId] = c.getLong(3)
+                }
+            }
+        }
+        return out
+    }
+
+    // Caller holds the lock on pending
+    private fun saveHashes(db: SQLiteDatabase, pending: MutableList<Pair<MediaIndexer.IndexedFile, Long>>) {
+        if (pending.isEmpty()) return
+        db.beginTransaction()
+        try {
+            for ((file, hash) in pending) {
+                val values = ContentValues().apply {
+                    put("document_id", file.documentId)
+                    put("size", file.size)
+                    put("mtime", file.mtime)
+                    put("dhash", hash)
+                }
+                db.insertWithOnConflict("media_phashes", null, values, SQLiteDatabase.CONFLICT_REPLACE)
+            }
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+        pending.clear()
+    }
+}
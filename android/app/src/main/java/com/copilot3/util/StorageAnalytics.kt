@@ -0,0 +1,139 @@
+package com.copilot3.util
+
+import android.content.Context
+import java.util.Calendar
+import java.util.PriorityQueue
+
+// Where the space goes: bytes and file counts per app, per top-level Media folder, per
+// media kind and per month of last modification, plus the largest files. The media index
+// answers with a handful of GROUP BY queries; without it the same totals are accumulated
+// from a scan as files stream past, so no per-file list is ever sent to JS.
+object StorageAnalytics {
+
+    const val OTHER = "other"
+
+    // app is set for folder buckets, whose key alone ("/WhatsApp Images") is ambiguous across apps
+    data class Bucket(val key: String, val app: String?, val files: Int, val bytes: Long)
+
+    data class Summary(
+        val totalFiles: Int,
+        val totalBytes: Long,
+        val byApp: List<Bucket>,
+        val byFolder: List<Bucket>,
+        val byType: List<Bucket>,
+        val byMonth: List<Bucket>,
+        val largest: List<MediaIndexer.IndexedFile>
+    )
+
+    // "/WhatsApp Images/Sent" -> "/WhatsApp Images"; files directly in the app root -> ""
+    fun topFolder(folder: String): String {
+        val trimmed = folder.removePrefix("/")
+        return if (trimmed.isEmpty()) "" else "/" + trimmed.substringBefore('/')
+    }
+
+    fun fromIndex(context: Context, apps: Collection<String>, topN: Int): Summary {
+        val db = MediaIndexDbHelper.getInstance(context).readableDatabase
+        val placeholders = apps.joinToString(",") { "?" }
+        val where = "WHERE app IN ($placeholders)"
+        val args = apps.toTypedArray()
+
+        fun buckets(keySql: String, withApp: Boolean = false): List<Bucket> {
+            val appSql = if (withApp) "app" else "NULL"
+            val groupSql = if (withApp) "app, k" else "k"
+            val out = ArrayList<Bucket>()
+            db.rawQuery(
+                "SELECT $keySql AS k, $appSql, COUNT(*), SUM(size) FROM media_files $where GROUP BY $groupSql ORDER BY SUM(size) DESC",
+                args
+            ).use { c ->
+                while (c.moveToNext()) {
+                    out.add(Bucket(c.getString(0) ?: OTHER, c.getString(1), c.getInt(2), c.getLong(3)))
+                }
+            }
+            return out
+        }
+
+        // Same split as topFolder()
+        val topFolderSql =
+            "CASE WHEN instr(substr(folder, 2), '/') > 0 THEN substr(folder, 1, instr(substr(folder, 2), '/')) ELSE folder END"
+        val byApp = buckets("app")
+        val largest = ArrayList<MediaIndexer.IndexedFile>()
+        db.rawQuery(
+            "SELECT document_id, uri, app, folder, name, mime, kind, size, mtime FROM media_files $where ORDER BY size DESC LIMIT $topN",
+            args
+        ).use { c ->
+            while (c.moveToNext()) {
+                largest.add(
+                    MediaIndexer.IndexedFile(
+                        c.getString(0), c.getString(1), c.getString(2), c.getString(3), c.getString(4),
+                        c.getString(5) ?: "", c.getString(6), c.getLong(7), c.getLong(8)
+                    )
+                )
+            }
+        }
+
+        return Summary(
+            totalFiles = byApp.sumOf { it.files },
+            totalBytes = byApp.sumOf { it.bytes },
+            byApp = byApp,
+            byFolder = buckets(topFolderSql, withApp = true),
+            byType = buckets("kind"),
+            byMonth = buckets("strftime('%Y-%m', mtime / 1000, 'unixepoch', 'localtime')").sortedByDescending { it.key },
+            largest = largest
+        )
+    }
+
+    // Running totals for scans; add() may be called from several threads
+    class Accumulator(private val topN: Int) {
+        private class Totals(var files: Int = 0, var bytes: Long = 0)
+
+        private val byApp = HashMap<String, Totals>()
+        private val byFolder = HashMap<Pair<String, String>, Totals>()
+        private val byType = HashMap<String, Totals>()
+        private val byMonth = HashMap<String, Totals>()
+        private val largest = PriorityQueue<MediaIndexer.IndexedFile>(maxOf(1, topN), compareBy { it.size })
+        private val calendar = Calendar.getInstance()
+        private var totalFiles = 0
+        private var totalBytes = 0L
+
+        @Synchronized
+        fun add(file: MediaIndexer.IndexedFile) {
+            totalFiles++
+            totalBytes += file.size
+            bump(byApp, file.app, file.size)
+            bump(byFolder, file.app to topFolder(file.folder), file.size)
+            bump(byType, file.kind ?: OTHER, file.size)
+            bump(byMonth, month(file.mtime), file.size)
+            if (topN > 0) {
+                if (largest.size < topN) {
+                    largest.add(file)
+                } else if (file.size > largest.peek()!!.size) {
+                    largest.poll()
+                    largest.add(file)
+                }
+            }
+        }
+
+        @Synchronized
+        fun summary(): Summary = Summary(
+            totalFiles = totalFiles,
+            totalBytes = totalBytes,
+            byApp = byApp.map { (k, t) -> Bucket(k, null, t.files, t.bytes) }.sortedByDescending { it.bytes },
+            byFolder = byFolder.map { (k, t) -> Bucket(k.second, k.first, t.files, t.bytes) }.sortedByDescending { it.bytes },
+            byType = byType.map { (k, t) -> Bucket(k, null, t.files, t.bytes) }.sortedByDescending { it.bytes },
+            byMonth = byMonth.map { (k, t) -> Bucket(k, null, t.files, t.bytes) }.sortedByDescending { it.key },
+            largest = largest.sortedByDescending { it.size }
+        )
+
+        private fun <K> bump(map: HashMap<K, Totals>, key: K, size: Long) {
+            val t = map.getOrPut(key) { Totals() }
+            t.files++
+            t.bytes += size
+        }
+
+        private fun month(mtime: Long): String {
+            calendar.timeInMillis = mtime
+            val m = calendar.get(Calendar.MONTH) + 1
+            return "${calendar.get(Calendar.YEAR)}-${if (m < 10) "0$m" else "$m"}"
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.copilot3.util
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.media.MediaMetadataRetriever
+import android.media.ThumbnailUtils
+import android.net.Uri
+import android.os.Build
+import android.os.Handler
+import android.os.Looper
+import android.os.Process
+import android.util.Log
+import android.util.LruCache
+import android.widget.ImageView
+import java.io.File
+import java.io.FileOutputStream
+import java.security.MessageDigest
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+// Square thumbnails for the media grids: a frame for videos, a subsampled decode for images.
+// Work runs on a small background pool; results are kept in memory and as JPEGs under
+// cacheDir/thumbnails, keyed by (uri, size, mtime, px) so an edited or replaced file gets a
+// new thumbnail. The disk cache is trimmed least-recently-used first once it passes
+// MAX_DISK_BYTES (a hit refreshes the file's mtime, which is how recency survives restarts).
+object ThumbnailService {
+
+    private const val TAG = "ThumbnailService"
+    const val DEFAULT_PX = 256
+    private const val MAX_DISK_BYTES = 64L * 1024 * 1024
+    private const val JPEG_QUALITY = 80
+    private const val POOL_SIZE = 3
+
+    private val mainHandler = Handler(Looper.getMainLooper())
+    private val threadCount = AtomicInteger(0)
+    private val pool = Executors.newFixedThreadPool(POOL_SIZE) { r ->
+        Thread({
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND)
+            r.run()
+        }, "Thumbnail-${threadCount.incrementAndGet()}")
+    }
+
+    // An eighth of the heap, counted in KB
+    private val memory = object : LruCache<String, Bitmap>((Runtime.getRuntime().maxMemory() / 1024 / 8).toInt()) {
+        override fun sizeOf(key: String, value: Bitmap): Int = value.byteCount / 1024
+    }
+
+    // file name -> length, in access order; loaded from the directory on first use
+    private var diskEntries: LinkedHashMap<String, Long>? = null
+    private var diskBytes = 0L
+
+    // Binds a thumbnail to imageView. The view's tag holds the key it is waiting for, so a
+    // recycled view never shows a thumbnail that finished after it was rebound.
+    fun load(imageView: ImageView, uri: String, mime: String, size: Long, mtime: Long, placeholder: Int, px: Int = DEFAULT_PX) {
+        val key = key(uri, size, mtime, px)
+        imageView.tag = key
+        memory.get(key)?.let {
+            imageView.setImageBitmap(it)
+            return
+        }
+        imageView.setImageResource(placeholder)
+        val context = imageView.context.applicationContext
+        pool.execute {
+            // Scrolled past before a worker got to it
+            if (imageView.tag != key) return@execute
+            val bitmap = get(context, key, Uri.parse(uri), mime, px) ?: return@execute
+            mainHandler.post {
+                if (imageView.tag == key) imageView.setImageBitmap(bitmap)
+            }
+        }
+    }
+
+    // Blocking: memory, then disk, then generated and stored. Null if the file can't be decoded.
+    fun get(context: Context, key: String, uri: Uri, mime: String, px: Int): Bitmap? {
+        memory.get(key)?.let { return it }
+        val dir = cacheDir(context)
+        val file = File(dir, "$key.jpg")
+        if (touch(dir, file)) {
+            BitmapFactory.decodeFile(file.path)?.let {
+                memory.put(key, it)
+                return it
+            }
+        }
+        val bitmap = try {
+            if (mime.startsWith("video/")) videoFrame(context, uri, px) else downsampled(context, uri, px)
+        } catch (e: Exception) {
+            Log.w(TAG, "Thumbnail failed for $uri: ${e.message}")
+            null
+        } catch (e: OutOfMemoryError) {
+            Log.w(TAG, "Thumbnail out of memory for $uri")
+            null
+        } ?: return null
+        memory.put(key, bitmap)
+        store(dir, file, bitmap)
+        return bitmap
+    }
+
+    fun key(uri: String, size: Long, mtime: Long, px: Int): String {
+        val digest = MessageDigest.getInstance("SHA-1").digest("$uri|$size|$mtime|$px".toByteArray())
+        return digest.joinToString("") { "%02x".format(it) }
+    }
+
+    private fun videoFrame(context: Context, uri: Uri, px: Int): Bitmap? {
+        val retriever = MediaMetadataRetriever()
+        try {
+            retriever.setDataSource(context, uri)
+            val frame = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+                // Fits inside the box keeping aspect; twice px leaves room for the square crop
+                retriever.getScaledFrameAtTime(-1, MediaMetadataRetriever.OPTION_CLOSEST_SYNC, px * 2, px * 2)
+            } else {
+                retriever.getFrameAtTime(-1, MediaMetadataRetriever.OPTION_CLOSEST_SYNC)
+            } ?: return null
+            return crop(frame, px)
+        } finally {
+            retriever.release()
+        }
+    }
+
+    // Decodes with the largest power-of-two inSampleSize that keeps both sides >= px
+    private fun downsampled(context: Context, uri: Uri, px: Int): Bitmap? {
+        return context.contentResolver.openFileDescriptor(uri, "r")?.use { pfd ->
+            val bounds = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+            BitmapFactory.decodeFileDescriptor(pfd.fileDescriptor, null, bounds)
+            if (bounds.outWidth <= 0 || bounds.outHeight <= 0) return null
+            var sample = 1
+            while (bounds.outWidth / (sample * 2) >= px && bounds.outHeight / (sample * 2) >= px) sample *= 2
+            val options = BitmapFactory.Options().apply { inSampleSize = sample }
+            BitmapFactory.decodeFileDescriptor(pfd.fileDescriptor, null, options)?.let { crop(it, px) }
+        }
+    }
+
+    private fun crop(source: Bitmap, px: Int): Bitmap {
+        val thumb = ThumbnailUtils.extractThumbnail(source, px, px)
+        if (thumb !== source) source.recycle()
+        return thumb
+    }
+
+    private fun cacheDir(context: Context): File = File(context.cacheDir, "thumbnails").apply { mkdirs() }
+
+    @Synchronized
+    private fun entries(dir: File): LinkedHashMap<String, Long> {
+        diskEntries?.let { return it }
+        val map = LinkedHashMap<String, Long>(64, 0.75f, true)
+        dir.listFiles()?.sortedBy { it.lastModified() }?.forEach {
+            map[it.name] = it.length()
+            diskBytes += it.length()
+        }
+        diskEntries = map
+        return map
+    }
+
+    // Marks a cached file as just used; false if it isn't cached
+    @Synchronized
+    private fun touch(dir: File, file: File): Boolean {
+        if (entries(dir)[file.name] == null) return false
+        file.setLastModified(System.currentTimeMillis())
+        return true
+    }
+
+    private fun store(dir: File, file: File, bitmap: Bitmap) {
+        try {
+            FileOutputStream(file).use { bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, it) }
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to cache thumbnail: ${e.message}")
+            file.delete()
+            return
+        }
+        record(dir, file)
+    }
+
+    @Synchronized
+    private fun record(dir: File, file: File) {
+        val map = entries(dir)
+        map.remove(file.name)?.let { diskBytes -= it }
+        map[file.name] = file.length()
+        diskBytes += file.length()
+
+        val iter = map.entries.iterator()
+        while (diskBytes > MAX_DISK_BYTES && iter.hasNext()) {
+            val eldest = iter.next()
+            if (eldest.key == file.name) continue
+            File(dir, eldest.key).delete()
+            diskBytes -= eldest.value
+            iter.remove()
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.copilot3.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import java.io.BufferedReader
+import java.io.BufferedWriter
+import java.io.StringReader
+import java.io.StringWriter
+
+class ChatArchiveCsvTest {
+
+    private fun write(rows: List<List<String>>): String {
+        val out = StringWriter()
+        BufferedWriter(out).use { w -> rows.forEach { ChatArchive.writeCsvRow(w, it) } }
+        return out.toString()
+    }
+
+    private fun read(csv: String): List<List<String>> {
+        val reader = ChatArchive.CsvReader(BufferedReader(StringReader(csv)))
+        return generateSequence { reader.next() }.toList()
+    }
+
+    @Test
+    fun plainFieldsAreNotQuoted() {
+        assertEquals("whatsapp,+15550100,Ana,1697673600000,1,,hello\r\n",
+            write(listOf(listOf("whatsapp", "+15550100", "Ana", "1697673600000", "1", "", "hello"))))
+    }
+
+    @Test
+    fun specialCharactersAreQuoted() {
+        assertEquals("\"a,b\",\"say \"\"hi\"\"\",\"two\nlines\",\"cr\rhere\",plain\r\n",
+            write(listOf(listOf("a,b", "say \"hi\"", "two\nlines", "cr\rhere", "plain"))))
+    }
+
+    @Test
+    fun rowsRoundTrip() {
+        val rows = listOf(
+            listOf("app", "contact_identifier", "name", "timestamp", "is_sent", "sender", "content"),
+            listOf("whatsapp", "+15550100", "Ana, from work", "1", "0", "", "multi\nline\r\nmessage"),
+            listOf("telegram", "group:42", "\"Quoted\" group", "2", "1", "Bo", ",,,"),
+            listOf("signal", "x", "", "3", "0", "", ""),
+            listOf("whatsapp", "y", "emoji 😀", "4", "0", "ünï", "\"\"")
+        )
+        assertEquals(rows, read(write(rows)))
+    }
+
+    @Test
+    fun readerHandlesMissingFinalNewlineAndBareLf() {
+        assertEquals(listOf(listOf("a", "b"), listOf("c", "d")), read("a,b\nc,d"))
+        assertEquals(listOf(listOf("a", "")), read("a,\r\n"))
+    }
+
+    @Test
+    fun readerReturnsNullWhenEmpty() {
+        assertNull(ChatArchive.CsvReader(BufferedReader(StringReader(""))).next())
+    }
+}
@@ -0,0 +1,58 @@
+package com.copilot3.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class ColdStorageTest {
+
+    private val day = 19_649L // 2023-10-19 UTC
+    private val dayStart = day * 24 * 60 * 60 * 1000
+
+    @Test
+    fun blockRoundTripsEveryField() {
+        val rows = listOf(
+            ColdStorage.Row(dayStart, false, "first of the day", null),
+            ColdStorage.Row(dayStart + 1, true, "", "me"),
+            ColdStorage.Row(dayStart + 1, false, "same millisecond", "Ana"),
+            ColdStorage.Row(dayStart + 3_600_000, false, "photo", "Ana", "ab12cd34"),
+            ColdStorage.Row(dayStart + 86_399_999, true, "ünïcödé, emoji 😀 and\nnewlines", null, "ef56")
+        )
+        assertEquals(rows, ColdStorage.decode(day, ColdStorage.encode(day, rows)))
+    }
+
+    @Test
+    fun emptyBlockRoundTrips() {
+        assertEquals(emptyList<ColdStorage.Row>(), ColdStorage.decode(day, ColdStorage.encode(day, emptyList())))
+    }
+
+    @Test
+    fun longContentRoundTrips() {
+        // Lengths past one varint byte, and a payload that doesn't fit a single deflate buffer
+        val text = (0 until 5000).joinToString(" ") { "word$it" }
+        val rows = (0 until 50).map { ColdStorage.Row(dayStart + it * 1000L, it % 2 == 0, text + it, "sender$it") }
+        assertEquals(rows, ColdStorage.decode(day, ColdStorage.encode(day, rows)))
+    }
+
+    @Test(expected = IllegalStateException::class)
+    fun unknownFormatIsRejected() {
+        val payload = ColdStorage.encode(day, listOf(ColdStorage.Row(dayStart, false, "x", null)))
+        payload[0] = 99
+        ColdStorage.decode(day, payload)
+    }
+
+    @Test
+    fun uniqueRowsSortsAndDropsDuplicates() {
+        val a = ColdStorage.Row(dayStart + 20, false, "hello", "Ana")
+        val b = ColdStorage.Row(dayStart + 10, true, "hi", null)
+        // Same timestamp, direction and content as a: the dedup key ignores sender and media
+        val aAgain = ColdStorage.Row(dayStart + 20, false, "hello", "Ana (2)", "ff00")
+        // Differs from a only in direction or content, so both are kept
+        val aSent = ColdStorage.Row(dayStart + 20, true, "hello", null)
+        val aEdited = ColdStorage.Row(dayStart + 20, false, "hello!", "Ana")
+
+        val unique = ColdStorage.uniqueRows(listOf(a, b, aAgain, aSent, b, aEdited))
+        assertEquals(listOf(b, a, aSent, aEdited), unique)
+        assertTrue(unique.zipWithNext().all { (x, y) -> x.timestamp <= y.timestamp })
+    }
+}
@@ -0,0 +1,65 @@
+package com.copilot3.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class DuplicateFinderTest {
+
+    private val small = 10_000L
+    private val large = 4L * DuplicateFinder.EDGE_BYTES
+
+    private fun file(id: String, size: Long) =
+        MediaIndexer.IndexedFile(id, "content://tree/$id", "whatsapp", "/WhatsApp Images", "$id.jpg", "image/jpeg", "image", size, 0)
+
+    private fun ids(group: DuplicateFinder.DuplicateGroup) = group.files.map { it.documentId }.toSet()
+
+    @Test
+    fun partialGroupsNeedSizeAndHashToMatch() {
+        val files = listOf(file("a", small), file("b", small), file("c", small), file("d", small + 1), file("e", small))
+        // e couldn't be read; d has a's hash but a different size
+        val partial = mapOf("a" to "p1", "b" to "p1", "c" to "p2", "d" to "p1")
+
+        val groups = DuplicateFinder.partialGroups(files, partial)
+        assertEquals(listOf(setOf("a", "b")), groups.map { g -> g.map { it.documentId }.toSet() })
+    }
+
+    @Test
+    fun smallFilesAreGroupedByTheirPartialHash() {
+        val files = listOf(file("a", small), file("b", small), file("c", small))
+        val partial = mapOf("a" to "p1", "b" to "p1", "c" to "p1")
+
+        val groups = DuplicateFinder.duplicateGroups(DuplicateFinder.partialGroups(files, partial), partial, emptyMap())
+        assertEquals(1, groups.size)
+        assertEquals("p1", groups[0].hash)
+        assertEquals(setOf("a", "b", "c"), ids(groups[0]))
+        assertEquals(2 * small, groups[0].reclaimableBytes)
+    }
+
+    @Test
+    fun largeFilesAreSplitByFullHash() {
+        val files = listOf(file("a", large), file("b", large), file("c", large), file("d", large))
+        // Same edges, different middles: a/b and c match, d failed its full hash
+        val partial = files.associate { it.documentId to "edges" }
+        val full = mapOf("a" to "f1", "b" to "f1", "c" to "f2")
+
+        val groups = DuplicateFinder.duplicateGroups(DuplicateFinder.partialGroups(files, partial), partial, full)
+        assertEquals(1, groups.size)
+        assertEquals("f1", groups[0].hash)
+        assertEquals(setOf("a", "b"), ids(groups[0]))
+    }
+
+    @Test
+    fun groupsAreOrderedByReclaimableBytes() {
+        val files = listOf(
+            file("s1", small), file("s2", small), file("s3", small),
+            file("l1", large), file("l2", large)
+        )
+        val partial = mapOf("s1" to "ps", "s2" to "ps", "s3" to "ps", "l1" to "pl", "l2" to "pl")
+        val full = mapOf("l1" to "fl", "l2" to "fl")
+
+        val groups = DuplicateFinder.duplicateGroups(DuplicateFinder.partialGroups(files, partial), partial, full)
+        assertEquals(listOf("fl", "ps"), groups.map { it.hash })
+        assertTrue(groups.zipWithNext().all { (x, y) -> x.reclaimableBytes >= y.reclaimableBytes })
+    }
+}
@@ -0,0 +1,65 @@
+package com.copilot3.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+class HammingIndexTest {
+
+    @Test
+    fun distanceCountsDifferingBits() {
+        assertEquals(0, HammingIndex.distance(0L, 0L))
+        assertEquals(64, HammingIndex.distance(0L, -1L))
+        assertEquals(1, HammingIndex.distance(0L, Long.MIN_VALUE))
+        assertEquals(3, HammingIndex.distance(0b1011L, 0b0000L))
+        assertEquals(HammingIndex.distance(0x1234L, 0x4321L), HammingIndex.distance(0x4321L, 0x1234L))
+    }
+
+    @Test
+    fun queryFindsExactAndNearMatches() {
+        val index = HammingIndex()
+        val base = 0x0F0F_F0F0_1234_5678L
+        index.add(base, 0)
+        index.add(base xor 0b1, 1)
+        // Ten bits flipped in one band: only a band other than this one can match
+        index.add(base xor 0x3FFL, 2)
+        index.add(base.inv(), 3)
+
+        assertEquals(setOf(0, 1, 2), index.query(base, 10).toSet())
+        assertEquals(setOf(0, 1), index.query(base, 9).toSet())
+        assertEquals(setOf(0), index.query(base, 0).toSet())
+        assertEquals(setOf(3), index.query(base.inv(), 10).toSet())
+    }
+
+    @Test
+    fun queryMatchesBruteForce() {
+        val random = Random(46)
+        val hashes = ArrayList<Long>()
+        // Clusters of small perturbations around random centres, plus unrelated noise
+        repeat(200) {
+            val centre = random.nextLong()
+            hashes.add(centre)
+            repeat(3) {
+                var h = centre
+                repeat(random.nextInt(0, 14)) { h = h xor (1L shl random.nextInt(64)) }
+                hashes.add(h)
+            }
+        }
+        repeat(500) { hashes.add(random.nextLong()) }
+
+        val index = HammingIndex()
+        hashes.forEachIndexed { i, h -> index.add(h, i) }
+        assertEquals(hashes.size, index.size)
+
+        for (maxDistance in listOf(0, 3, 10, 13)) {
+            hashes.forEachIndexed { i, h ->
+                val expected = hashes.indices.filter { HammingIndex.distance(hashes[it], h) <= maxDistance }.toSet()
+                val actual = index.query(h, maxDistance)
+                assertEquals("hash $i at $maxDistance", expected, actual.toSet())
+                assertEquals("duplicates for hash $i", actual.size, actual.toSet().size)
+                assertTrue(i in actual)
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.copilot3.util
+
+import com.copilot3.util.MediaTypeClassifier.Kind
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class MediaTypeClassifierTest {
+
+    private fun header(vararg parts: Any): ByteArray {
+        val out = java.io.ByteArrayOutputStream()
+        for (p in parts) when (p) {
+            is String -> out.write(p.toByteArray(Charsets.US_ASCII))
+            is Int -> out.write(p)
+            is ByteArray -> out.write(p)
+        }
+        return out.toByteArray()
+    }
+
+    private fun sniff(bytes: ByteArray): String? = MediaTypeClassifier.sniff(bytes, bytes.size)?.extension
+
+    @Test
+    fun sniffRecognisesMagicNumbers() {
+        assertEquals("jpg", sniff(header(0xFF, 0xD8, 0xFF, 0xE0)))
+        assertEquals("png", sniff(header(0x89, "PNG", 0x0D, 0x0A)))
+        assertEquals("gif", sniff(header("GIF89a")))
+        assertEquals("webp", sniff(header("RIFF", ByteArray(4), "WEBPVP8 ")))
+        assertEquals("wav", sniff(header("RIFF", ByteArray(4), "WAVEfmt ")))
+        assertEquals("heic", sniff(header(ByteArray(4), "ftypheic")))
+        assertEquals("heic", sniff(header(ByteArray(4), "ftypmif1")))
+        assertEquals("mov", sniff(header(ByteArray(4), "ftypqt  ")))
+        assertEquals("m4a", sniff(header(ByteArray(4), "ftypM4A ")))
+        assertEquals("3gp", sniff(header(ByteArray(4), "ftyp3gp5")))
+        assertEquals("mp4", sniff(header(ByteArray(4), "ftypisom")))
+        assertEquals("mkv", sniff(header(0x1A, 0x45, 0xDF, 0xA3)))
+        assertEquals("opus", sniff(header("OggS", ByteArray(24), "OpusHead")))
+        assertEquals("ogg", sniff(header("OggS", ByteArray(24), "\u0001vorbis")))
+        assertEquals("mp3", sniff(header("ID3", 4, 0)))
+        assertEquals("mp3", sniff(header(0xFF, 0xFB, 0x90)))
+        assertEquals("amr", sniff(header("#!AMR\n")))
+        assertEquals("pdf", sniff(header("%PDF-1.7")))
+        assertEquals("zip", sniff(header(0x50, 0x4B, 0x03, 0x04)))
+    }
+
+    @Test
+    fun sniffRejectsUnknownAndShortHeaders() {
+        assertNull(sniff(header("hello world")))
+        assertNull(sniff(ByteArray(0)))
+        // A lone 0xFF is neither a JPEG nor an MPEG frame sync
+        assertNull(sniff(header(0xFF)))
+        assertNull(sniff(header(0xFF, 0xD8)))
+        // The RIFF subtype lies past the bytes read
+        assertNull(sniff(header("RIFF", ByteArray(3))))
+    }
+
+    @Test
+    fun sniffOnlyLooksAtTheBytesRead() {
+        val buffer = header("%PDF", ByteArray(60))
+        assertEquals("pdf", MediaTypeClassifier.sniff(buffer, 4)?.extension)
+        assertNull(MediaTypeClassifier.sniff(buffer, 3))
+    }
+
+    @Test
+    fun classifyPrefersExtensionThenMime() {
+        assertEquals(Kind.IMAGE, MediaTypeClassifier.classify("IMG-20231019-WA0001.JPG")?.kind)
+        assertEquals("image/jpeg", MediaTypeClassifier.classify("photo.jpeg", "application/octet-stream")?.mime)
+        assertEquals("video/mp4", MediaTypeClassifier.classify("clip", "video/mp4; codecs=avc1")?.mime)
+        assertEquals("jpg", MediaTypeClassifier.classify("noext", "image/jpg")?.extension)
+        assertEquals(Kind.VOICE_NOTE, MediaTypeClassifier.classify("blob", "audio/opus")?.kind)
+        assertNull(MediaTypeClassifier.classify("noext", "application/octet-stream"))
+        assertNull(MediaTypeClassifier.classify("trailingdot.", null))
+        assertEquals("*/*", MediaTypeClassifier.mimeForName("archive.rar"))
+    }
+
+    @Test
+    fun classifyUsesMessengerFolders() {
+        assertEquals(Kind.GIF, MediaTypeClassifier.classify("VID-1.mp4", folder = "/WhatsApp Animated Gifs")?.kind)
+        assertEquals(Kind.VIDEO, MediaTypeClassifier.classify("VID-1.mp4", folder = "/WhatsApp Video")?.kind)
+        assertEquals(Kind.STICKER, MediaTypeClassifier.classify("STK-1.webp", folder = "/WhatsApp Stickers")?.kind)
+        assertEquals(Kind.IMAGE, MediaTypeClassifier.classify("IMG-1.webp", folder = "/WhatsApp Images")?.kind)
+        assertEquals(Kind.VOICE_NOTE, MediaTypeClassifier.classify("PTT-1.m4a", folder = "/WhatsApp Voice Notes/202342")?.kind)
+        assertEquals(Kind.AUDIO, MediaTypeClassifier.classify("AUD-1.m4a", folder = "/WhatsApp Audio")?.kind)
+    }
+
+    @Test
+    fun visualKindsExcludeAudioAndDocuments() {
+        assertTrue(MediaTypeClassifier.isVisual("a.gif"))
+        assertTrue(MediaTypeClassifier.isVisual("a.webp", folder = "/Stickers"))
+        assertFalse(MediaTypeClassifier.isVisual("a.opus"))
+        assertFalse(MediaTypeClassifier.isVisual("a.pdf"))
+        assertFalse(MediaTypeClassifier.isVisual("a"))
+    }
+}
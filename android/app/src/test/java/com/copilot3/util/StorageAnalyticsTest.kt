@@ -0,0 +1,71 @@
+package com.copilot3.util
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class StorageAnalyticsTest {
+
+    // Mid-month at noon UTC, so the local month is the same in every time zone
+    private val oct2023 = 1_697_371_200_000L // 2023-10-15T12:00Z
+    private val sep2023 = 1_694_779_200_000L // 2023-09-15T12:00Z
+
+    private fun file(id: String, app: String, folder: String, kind: String?, size: Long, mtime: Long) =
+        MediaIndexer.IndexedFile(id, "content://tree/$id", app, folder, id, "", kind, size, mtime)
+
+    @Test
+    fun topFolderKeepsTheFirstSegment() {
+        assertEquals("/WhatsApp Images", StorageAnalytics.topFolder("/WhatsApp Images/Sent"))
+        assertEquals("/WhatsApp Images", StorageAnalytics.topFolder("/WhatsApp Images"))
+        assertEquals("/WhatsApp Voice Notes", StorageAnalytics.topFolder("WhatsApp Voice Notes/202342"))
+        assertEquals("", StorageAnalytics.topFolder(""))
+        assertEquals("", StorageAnalytics.topFolder("/"))
+    }
+
+    @Test
+    fun accumulatorTotalsEveryBucket() {
+        val acc = StorageAnalytics.Accumulator(2)
+        acc.add(file("a", "whatsapp", "/WhatsApp Images/Sent", "image", 100, oct2023))
+        acc.add(file("b", "whatsapp", "/WhatsApp Images", "image", 50, sep2023))
+        acc.add(file("c", "whatsapp", "/WhatsApp Video", "video", 400, oct2023))
+        acc.add(file("d", "business", "/WhatsApp Business Images", null, 10, oct2023))
+        acc.add(file("e", "business", "", "image", 20, sep2023))
+
+        val s = acc.summary()
+        assertEquals(5, s.totalFiles)
+        assertEquals(580L, s.totalBytes)
+        assertEquals(
+            listOf(StorageAnalytics.Bucket("whatsapp", null, 3, 550), StorageAnalytics.Bucket("business", null, 2, 30)),
+            s.byApp
+        )
+        assertEquals(
+            listOf(
+                StorageAnalytics.Bucket("/WhatsApp Video", "whatsapp", 1, 400),
+                StorageAnalytics.Bucket("/WhatsApp Images", "whatsapp", 2, 150),
+                StorageAnalytics.Bucket("", "business", 1, 20),
+                StorageAnalytics.Bucket("/WhatsApp Business Images", "business", 1, 10)
+            ),
+            s.byFolder
+        )
+        assertEquals(
+            listOf(
+                StorageAnalytics.Bucket("video", null, 1, 400),
+                StorageAnalytics.Bucket("image", null, 3, 170),
+                StorageAnalytics.Bucket(StorageAnalytics.OTHER, null, 1, 10)
+            ),
+            s.byType
+        )
+        assertEquals(
+            listOf(StorageAnalytics.Bucket("2023-10", null, 3, 510), StorageAnalytics.Bucket("2023-09", null, 2, 70)),
+            s.byMonth
+        )
+        assertEquals(listOf("c", "a"), s.largest.map { it.documentId })
+    }
+
+    @Test
+    fun accumulatorWithoutTopNKeepsNoLargest() {
+        val acc = StorageAnalytics.Accumulator(0)
+        acc.add(file("a", "whatsapp", "/WhatsApp Images", "image", 100, oct2023))
+        assertEquals(emptyList<MediaIndexer.IndexedFile>(), acc.summary().largest)
+        assertEquals(1, acc.summary().totalFiles)
+    }
+}
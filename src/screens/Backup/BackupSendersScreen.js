@@ -17,6 +17,7 @@ import {
   IconButton,
   SegmentedButtons,
   ActivityIndicator,
+  Badge,
 } from 'react-native-paper';
 import {useFocusEffect} from '@react-navigation/native';
 import AsyncStorage from '@react-native-async-storage/async-storage';
@@ -211,17 +212,30 @@ const BackupSendersScreen = ({navigation}) => {
         onPress={() => isEnabled && navigateToChat(app, identifier, name)}
         disabled={!isEnabled}>
         <View style={styles.chatRow}>
-          <Avatar.Text size={48} label={initials} style={styles.avatar} />
+          {item.avatarUri ? (
+            <Avatar.Image
+              size={48}
+              source={{uri: item.avatarUri}}
+              style={styles.avatar}
+            />
+          ) : (
+            <Avatar.Text size={48} label={initials} style={styles.avatar} />
+          )}
           <View style={styles.chatInfo}>
             <Text variant="titleSmall" numberOfLines={1}>
               {name}
             </Text>
             <Text variant="bodySmall" numberOfLines={1}>
-              Last:{' '}
-              {new Date(Number(item.last_timestamp || 0)).toLocaleDateString()}
+              {item.last_snippet ||
+                `Last: ${new Date(
+                  Number(item.last_timestamp || 0),
+                ).toLocaleDateString()}`}
             </Text>
           </View>
           <View style={styles.rightSection}>
+            {item.unread_count > 0 && (
+              <Badge style={styles.unreadBadge}>{item.unread_count}</Badge>
+            )}
             <Switch
               value={isEnabled}
               onValueChange={() =>
@@ -362,6 +376,7 @@ const styles = StyleSheet.create({
   avatar: {marginRight: 12},
   chatInfo: {flex: 1},
   rightSection: {alignItems: 'flex-end'},
+  unreadBadge: {marginBottom: 4},
   loading: {flex: 1, justifyContent: 'center', alignItems: 'center'},
 });
 
@@ -1,6 +1,6 @@
 // src/screens/SenderMessagesScreen.js
 import React, {useState, useEffect} from 'react';
-import {View, FlatList, StyleSheet, Alert} from 'react-native';
+import {View, FlatList, StyleSheet, Alert, Image} from 'react-native';
 import {Text, useTheme, Card, Button} from 'react-native-paper';
 import {
   getChatMessages,
@@ -110,6 +110,9 @@ const SenderMessagesScreen = ({route, toggleTheme}) => {
             style={[styles.timestamp, {color: theme.colors.onSurfaceVariant}]}>
             {new Date(Number(item.timestamp)).toLocaleTimeString()}
           </Text>
+          {item.mediaUri ? (
+            <Image source={{uri: item.mediaUri}} style={styles.media} />
+          ) : null}
           <Text style={[styles.content, {color: theme.colors.onSurface}]}>
             {item.content}
           </Text>
@@ -228,7 +231,7 @@ const SenderMessagesScreen = ({route, toggleTheme}) => {
         <FlatList
           data={messages}
           renderItem={renderBubble}
-          keyExtractor={item => item.timestamp}
+          keyExtractor={item => String(item.timestamp)}
           style={styles.chatList}
           inverted // Bottom-up like WhatsApp
         />
@@ -257,6 +260,7 @@ const styles = StyleSheet.create({
   sentBubble: {alignSelf: 'flex-end', marginLeft: '20%'},
   receivedBubble: {alignSelf: 'flex-start', marginRight: '20%'},
   content: {fontSize: 16},
+  media: {width: 200, height: 200, borderRadius: 8, marginBottom: 4},
   timestamp: {fontSize: 12, opacity: 0.7, marginBottom: 4},
   adContainer: {alignSelf: 'center', marginVertical: 8},
   adCard: {width: '100%', elevation: 2},
@@ -1,4 +1,4 @@
-import React, {useState, useEffect, useCallback} from 'react';
+import React, {useState, useEffect, useCallback, useRef} from 'react';
 import {
   View,
   Image,
@@ -31,6 +31,8 @@ import Video from 'react-native-video';
 import {FlashList} from '@shopify/flash-list';
 import {BannerAd, BannerAdSize} from 'react-native-google-mobile-ads';
 import DateTimePicker from '@react-native-community/datetimepicker';
+import {streamCleanupScan} from '../../util/CleanupScanStream';
+import {deleteSelectedMedia} from '../../util/data';
 
 const {StatusModule} = NativeModules;
 const screenWidth = Dimensions.get('window').width;
@@ -59,6 +61,12 @@ const MessengerMediaGrid = ({route, toggleTheme}) => {
   const [maxSize, setMaxSize] = useState('');
   const [showStartDatePicker, setShowStartDatePicker] = useState(false);
   const [showEndDatePicker, setShowEndDatePicker] = useState(false);
+  const [showAll, setShowAll] = useState(false);
+  const [streaming, setStreaming] = useState(false);
+  const cancelScanRef = useRef(null);
+
+  // Stop a streamed scan when leaving the screen
+  useEffect(() => () => cancelScanRef.current?.(), []);
 
   useFocusEffect(
     useCallback(() => {
@@ -96,6 +104,8 @@ const MessengerMediaGrid = ({route, toggleTheme}) => {
     );
 
     if (reset) {
+      stopStream();
+      setShowAll(false);
       setLoading(true);
       setOffset(0);
       setMediaFiles([]);
@@ -162,6 +172,47 @@ const MessengerMediaGrid = ({route, toggleTheme}) => {
     }
   };
 
+  const stopStream = () => {
+    cancelScanRef.current?.();
+    cancelScanRef.current = null;
+    setStreaming(false);
+  };
+
+  // Every file of the app, shown chunk by chunk as the native scan finds them
+  const streamAllMedia = async () => {
+    stopStream();
+    setShowAll(true);
+    setMediaFiles([]);
+    setSelectedItems({});
+    setHasMore(false);
+    setLoading(true);
+    setStreaming(true);
+    try {
+      cancelScanRef.current = await streamCleanupScan({
+        appKey: selectedMessenger,
+        onChunk: items => {
+          setLoading(false);
+          setMediaFiles(prev => [...prev, ...items]);
+        },
+        onDone: ({cancelled, error}) => {
+          cancelScanRef.current = null;
+          setLoading(false);
+          setStreaming(false);
+          if (error) {
+            setSnackbarMsg('Failed to load media files');
+          } else if (!cancelled) {
+            setMediaFiles(prev => sortItems(prev));
+          }
+        },
+      });
+    } catch (e) {
+      console.error('❌ Stream scan error:', e);
+      setLoading(false);
+      setStreaming(false);
+      setSnackbarMsg('Failed to load media files');
+    }
+  };
+
   const sortItems = items => {
     const {by, order} = sortOption;
     return [...items].sort((a, b) => {
@@ -206,12 +257,11 @@ const MessengerMediaGrid = ({route, toggleTheme}) => {
         {text: 'Cancel'},
         {
           text: 'Delete',
-          onPress: () => {
-            StatusModule.deleteMediaBatch(uris);
-            const updated = mediaFiles.filter(f => !uris.includes(f.uri));
-            setMediaFiles(updated);
+          onPress: async () => {
+            const {deleted, message} = await deleteSelectedMedia(uris);
+            setMediaFiles(prev => prev.filter(f => !deleted.has(f.uri)));
             setSelectedItems({});
-            setSnackbarMsg(`${uris.length} items deleted`);
+            setSnackbarMsg(message);
           },
         },
       ],
@@ -439,7 +489,8 @@ const MessengerMediaGrid = ({route, toggleTheme}) => {
           styles.listContainer,
           {backgroundColor: theme.colors.background},
         ]}>
-        {selectedFolder && (startDate || endDate || minSize || maxSize) ? (
+        {showAll ||
+        (selectedFolder && (startDate || endDate || minSize || maxSize)) ? (
           loading ? (
             <ActivityIndicator
               size="large"
@@ -462,7 +513,12 @@ const MessengerMediaGrid = ({route, toggleTheme}) => {
                 extraData={selectedItems}
                 numColumns={1}
                 ListFooterComponent={
-                  hasMore && mediaFiles.length > 0 ? (
+                  streaming ? (
+                    <ActivityIndicator
+                      color={theme.colors.primary}
+                      style={{marginVertical: 16}}
+                    />
+                  ) : hasMore && mediaFiles.length > 0 ? (
                     <Button
                       mode="contained"
                       onPress={() => loadFilesInFolder(selectedFolder)}
@@ -482,7 +538,7 @@ const MessengerMediaGrid = ({route, toggleTheme}) => {
               variant="bodyLarge"
               style={{color: theme.colors.onBackground}}>
               Please select a folder and apply a date or size filter to load
-              media.
+              media, or show all of this app's media.
             </Text>
             <Button
               mode="contained"
@@ -490,6 +546,12 @@ const MessengerMediaGrid = ({route, toggleTheme}) => {
               style={styles.filterButton}>
               Set Filter
             </Button>
+            <Button
+              mode="outlined"
+              onPress={streamAllMedia}
+              style={styles.filterButton}>
+              Show All Media
+            </Button>
           </View>
         )}
       </View>
@@ -31,6 +31,7 @@ import Video from 'react-native-video';
 import {FlashList} from '@shopify/flash-list';
 import {BannerAd, BannerAdSize} from 'react-native-google-mobile-ads';
 import DateTimePicker from '@react-native-community/datetimepicker';
+import {deleteSelectedMedia} from '../../util/data';
 
 const {StatusModule} = NativeModules;
 const screenWidth = Dimensions.get('window').width;
@@ -170,12 +171,11 @@ const MessengerMediaGrid = ({route, toggleTheme}) => {
         {text: 'Cancel'},
         {
           text: 'Delete',
-          onPress: () => {
-            StatusModule.deleteMediaBatch(uris);
-            const updated = mediaFiles.filter(f => !uris.includes(f.uri));
-            setMediaFiles(updated);
+          onPress: async () => {
+            const {deleted, message} = await deleteSelectedMedia(uris);
+            setMediaFiles(prev => prev.filter(f => !deleted.has(f.uri)));
             setSelectedItems({});
-            setSnackbarMsg(`${uris.length} items deleted`);
+            setSnackbarMsg(message);
           },
         },
       ],
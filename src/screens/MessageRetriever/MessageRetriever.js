@@ -1,10 +1,131 @@
-import {View, Text} from 'react-native';
-import React from 'react';
+import {View, FlatList, StyleSheet, Image, Alert} from 'react-native';
+import React, {useState, useEffect, useCallback} from 'react';
+import {Text, Card, ActivityIndicator, useTheme} from 'react-native-paper';
+import {getRecoveredMessages, showRewardedAd} from '../../util/data';
 
+const PAGE_SIZE = 50;
+
+// Messages the sender deleted after the backup service had already saved them
 export default function MessageRetriever() {
+  const theme = useTheme();
+  const [items, setItems] = useState([]);
+  const [cursor, setCursor] = useState(null);
+  const [hasMore, setHasMore] = useState(true);
+  const [loading, setLoading] = useState(false);
+  const [refreshing, setRefreshing] = useState(false);
+
+  const loadPage = useCallback(
+    async (reset = false) => {
+      if (loading || (!reset && !hasMore)) return;
+      setLoading(true);
+      try {
+        const page = await getRecoveredMessages(
+          null,
+          PAGE_SIZE,
+          reset ? null : cursor,
+        );
+        setItems(prev => (reset ? page.items : [...prev, ...page.items]));
+        setCursor(page.nextCursor);
+        setHasMore(page.nextCursor != null);
+      } catch (e) {
+        if (e.message?.includes('INSUFFICIENT_POINTS')) {
+          Alert.alert('Low Points', 'Watch an ad to load recovered messages?', [
+            {text: 'Cancel'},
+            {
+              text: 'Watch Ad',
+              onPress: async () => {
+                try {
+                  await showRewardedAd();
+                  loadPage(reset); // Retry
+                } catch (err) {
+                  Alert.alert('Ad Error', 'Failed to load ad');
+                }
+              },
+            },
+          ]);
+        } else {
+          Alert.alert(
+            'Error',
+            'Failed to load recovered messages: ' + (e.message || 'Unknown error'),
+          );
+        }
+      } finally {
+        setLoading(false);
+      }
+    },
+    [loading, hasMore, cursor],
+  );
+
+  useEffect(() => {
+    loadPage(true);
+    // eslint-disable-next-line react-hooks/exhaustive-deps
+  }, []);
+
+  const onRefresh = async () => {
+    setRefreshing(true);
+    await loadPage(true);
+    setRefreshing(false);
+  };
+
+  const renderItem = ({item}) => (
+    <Card style={[styles.card, {backgroundColor: theme.colors.surface}]}>
+      <Card.Content>
+        <Text variant="titleSmall" style={{color: theme.colors.onSurface}}>
+          {item.sender ? `${item.sender} · ${item.name}` : item.name}
+        </Text>
+        <Text
+          variant="bodySmall"
+          style={[styles.meta, {color: theme.colors.onSurfaceVariant}]}>
+          {item.app} · sent {new Date(Number(item.timestamp)).toLocaleString()}
+        </Text>
+        {item.mediaUri ? (
+          <Image source={{uri: item.mediaUri}} style={styles.media} />
+        ) : null}
+        <Text variant="bodyMedium" style={{color: theme.colors.onSurface}}>
+          {item.content}
+        </Text>
+        <Text
+          variant="bodySmall"
+          style={[styles.meta, {color: theme.colors.onSurfaceVariant}]}>
+          Deleted {new Date(Number(item.deletedAt)).toLocaleString()}
+        </Text>
+      </Card.Content>
+    </Card>
+  );
+
   return (
-    <View>
-      <Text>MessageRetriever</Text>
+    <View style={[styles.container, {backgroundColor: theme.colors.background}]}>
+      <FlatList
+        data={items}
+        keyExtractor={item => String(item.id)}
+        renderItem={renderItem}
+        onEndReached={() => loadPage(false)}
+        onEndReachedThreshold={0.5}
+        refreshing={refreshing}
+        onRefresh={onRefresh}
+        ListFooterComponent={
+          loading && !refreshing ? <ActivityIndicator style={styles.footer} /> : null
+        }
+        ListEmptyComponent={
+          !loading ? (
+            <Text
+              variant="bodyMedium"
+              style={[styles.empty, {color: theme.colors.onBackground}]}>
+              No deleted messages recovered yet. Messages backed up before the
+              sender deletes them will appear here.
+            </Text>
+          ) : null
+        }
+      />
     </View>
   );
 }
+
+const styles = StyleSheet.create({
+  container: {flex: 1},
+  card: {marginHorizontal: 12, marginVertical: 6},
+  meta: {marginVertical: 4},
+  media: {width: 200, height: 200, borderRadius: 8, marginVertical: 6},
+  footer: {marginVertical: 16},
+  empty: {padding: 24, textAlign: 'center'},
+});
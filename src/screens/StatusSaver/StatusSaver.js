@@ -18,6 +18,7 @@ import {useFocusEffect, useNavigation} from '@react-navigation/native';
 import {BannerAd, BannerAdSize} from 'react-native-google-mobile-ads';
 import {FlashList} from '@shopify/flash-list';
 import {Snackbar, Button, Checkbox} from 'react-native-paper';
+import {deleteSelectedMedia} from '../../util/data';
 
 const {StatusModule} = NativeModules;
 const screenWidth = Dimensions.get('window').width;
@@ -356,12 +357,11 @@ export default function StatusSaver() {
         {text: 'Cancel'},
         {
           text: 'Delete',
-          onPress: () => {
-            StatusModule.deleteMediaBatch(uris);
-            const updated = files.filter(f => !uris.includes(f.uri));
-            setFiles(updated);
+          onPress: async () => {
+            const {deleted, message} = await deleteSelectedMedia(uris);
+            setFiles(prev => prev.filter(f => !deleted.has(f.uri)));
             setSelectedItems({});
-            setSnackbarMsg(`${uris.length} items deleted`);
+            setSnackbarMsg(message);
           },
         },
       ],
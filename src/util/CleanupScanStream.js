@@ -0,0 +1,68 @@
+import {DeviceEventEmitter, NativeModules} from 'react-native';
+
+const {StatusModule} = NativeModules;
+
+// Starts a streamed cleanup scan of every app, or of appKey's folder only. onChunk gets
+// each batch of items as soon as the native side finds them; onDone gets {total, chunks,
+// durationMs, cancelled, error}. Resolves to a cancel function.
+export async function streamCleanupScan({
+  appKey = null,
+  chunkSize = 200,
+  onChunk,
+  onDone,
+}) {
+  let scanId = null;
+  let finished = false;
+  const early = [];
+
+  const handleChunk = chunk => {
+    if (scanId === null) {
+      early.push(chunk);
+      return;
+    }
+    if (chunk.scanId !== scanId || finished) return;
+    onChunk?.(chunk.items, chunk.index);
+  };
+
+  const handleDone = done => {
+    if (scanId === null) {
+      early.push(done);
+      return;
+    }
+    if (done.scanId !== scanId || finished) return;
+    finished = true;
+    chunkSub.remove();
+    doneSub.remove();
+    onDone?.(done);
+  };
+
+  const chunkSub = DeviceEventEmitter.addListener(
+    'onCleanupScanChunk',
+    handleChunk,
+  );
+  const doneSub = DeviceEventEmitter.addListener(
+    'onCleanupScanDone',
+    handleDone,
+  );
+
+  try {
+    scanId = await StatusModule.startCleanupScan(appKey, chunkSize);
+  } catch (e) {
+    chunkSub.remove();
+    doneSub.remove();
+    throw e;
+  }
+
+  // Events that arrived before the scan id did
+  early.forEach(event =>
+    event.items ? handleChunk(event) : handleDone(event),
+  );
+
+  return () => {
+    if (finished) return;
+    finished = true;
+    chunkSub.remove();
+    doneSub.remove();
+    StatusModule.cancelCleanupScan(scanId);
+  };
+}
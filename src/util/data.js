@@ -1,6 +1,6 @@
 // src/util/data.js
 import {NativeModules} from 'react-native';
-const {CampaignsModule} = NativeModules;
+const {CampaignsModule, StatusModule} = NativeModules;
 import Contacts from 'react-native-contacts';
 // Helpers to normalize native responses
 const toNumber = val => {
@@ -337,6 +337,197 @@ export const getChatMessages = async (app, contactIdentifier) => {
   }
 };
 
+// Messages of one chat between two epoch-ms bounds [fromMs, toMs) (deducts view points)
+export const getChatMessagesInRange = async (
+  app,
+  contactIdentifier,
+  fromMs,
+  toMs,
+) => {
+  try {
+    const arr = await CampaignsModule.getChatMessagesInRange(
+      app,
+      contactIdentifier,
+      fromMs,
+      toMs,
+    );
+    return Array.isArray(arr) ? arr : [];
+  } catch (e) {
+    console.warn('getChatMessagesInRange failed', e);
+    throw e; // Handle insufficient points in UI
+  }
+};
+
+// Messages across all chats between two epoch-ms bounds, newest first (deducts view points)
+export const getMessagesBetween = async (
+  fromMs,
+  toMs,
+  {app = null, limit = 200} = {},
+) => {
+  try {
+    const arr = await CampaignsModule.getMessagesBetween(
+      fromMs,
+      toMs,
+      app,
+      limit,
+    );
+    return Array.isArray(arr) ? arr : [];
+  } catch (e) {
+    console.warn('getMessagesBetween failed', e);
+    throw e; // Handle insufficient points in UI
+  }
+};
+
+// Full-text search over backed-up messages (app/contact optional, null for all).
+// Pass the returned nextCursor back in to fetch the next page.
+export const searchMessages = async (
+  query,
+  {app = null, contactIdentifier = null, limit = 50, cursor = null} = {},
+) => {
+  try {
+    return await CampaignsModule.searchMessages(
+      query,
+      app,
+      contactIdentifier,
+      limit,
+      cursor,
+    );
+  } catch (e) {
+    console.warn('searchMessages failed', e);
+    return {hits: [], nextCursor: null};
+  }
+};
+
+// Retention overrides: contactIdentifier '*' applies to the whole app, days 0 keeps forever
+export const setRetentionPolicy = async (app, contactIdentifier, days) => {
+  try {
+    return await CampaignsModule.setRetentionPolicy(app, contactIdentifier, days);
+  } catch (e) {
+    console.warn('setRetentionPolicy failed', e);
+    return false;
+  }
+};
+
+export const removeRetentionPolicy = async (app, contactIdentifier) => {
+  try {
+    return await CampaignsModule.removeRetentionPolicy(app, contactIdentifier);
+  } catch (e) {
+    console.warn('removeRetentionPolicy failed', e);
+    return false;
+  }
+};
+
+export const getRetentionPolicies = async () => {
+  try {
+    const arr = await CampaignsModule.getRetentionPolicies();
+    return Array.isArray(arr) ? arr : [];
+  } catch (e) {
+    console.warn('getRetentionPolicies failed', e);
+    return [];
+  }
+};
+
+// Run retention now; resolves {rowsDeleted, bytesReclaimed, chatsTrimmed, completed, durationMs}
+export const runRetentionNow = async () => {
+  try {
+    return await CampaignsModule.runRetentionNow();
+  } catch (e) {
+    console.warn('runRetentionNow failed', e);
+    return null;
+  }
+};
+
+// Export one chat to JSONL or CSV (optionally gzipped). destUri null writes to the
+// app's exports dir; resolves {uri, rows} or null on failure.
+export const exportChat = async (
+  app,
+  contactIdentifier,
+  {format = 'jsonl', gzip = false, destUri = null} = {},
+) => {
+  try {
+    return await CampaignsModule.exportChat(
+      app,
+      contactIdentifier,
+      format,
+      gzip,
+      destUri,
+    );
+  } catch (e) {
+    console.warn('exportChat failed', e);
+    return null;
+  }
+};
+
+export const exportAllChats = async ({
+  format = 'jsonl',
+  gzip = false,
+  destUri = null,
+} = {}) => {
+  try {
+    return await CampaignsModule.exportAllChats(format, gzip, destUri);
+  } catch (e) {
+    console.warn('exportAllChats failed', e);
+    return null;
+  }
+};
+
+// Import a file produced by exportChat/exportAllChats; resolves {read, inserted, skipped}
+export const importChats = async source => {
+  try {
+    return await CampaignsModule.importChats(source);
+  } catch (e) {
+    console.warn('importChats failed', e);
+    return null;
+  }
+};
+
+// Age in days after which messages move to compressed cold storage (0 disables)
+export const getColdStorageDays = async () => {
+  try {
+    return await CampaignsModule.getColdStorageDays();
+  } catch (e) {
+    console.warn('getColdStorageDays failed', e);
+    return 30;
+  }
+};
+
+export const setColdStorageDays = async days => {
+  try {
+    return await CampaignsModule.setColdStorageDays(days);
+  } catch (e) {
+    console.warn('setColdStorageDays failed', e);
+    return null;
+  }
+};
+
+export const compactColdStorageNow = async () => {
+  try {
+    return await CampaignsModule.compactColdStorageNow();
+  } catch (e) {
+    console.warn('compactColdStorageNow failed', e);
+    return null;
+  }
+};
+
+export const getColdStorageStats = async () => {
+  try {
+    return await CampaignsModule.getColdStorageStats();
+  } catch (e) {
+    console.warn('getColdStorageStats failed', e);
+    return null;
+  }
+};
+
+export const getLastRetentionReport = async () => {
+  try {
+    const json = await CampaignsModule.getLastRetentionReport();
+    return json ? JSON.parse(json) : null;
+  } catch (e) {
+    console.warn('getLastRetentionReport failed', e);
+    return null;
+  }
+};
+
 // Schedule the daily low points check (call once on app start or after DB init)
 export const scheduleDailyLowPointsCheck = async () => {
   try {
@@ -357,6 +548,28 @@ export const getRecentChats = async (app = null) => {
   }
 };
 
+// Clear a chat's unread count (getChatMessages already does this when a chat is opened)
+export const markChatRead = async (app, contactIdentifier) => {
+  try {
+    return await CampaignsModule.markChatRead(app, contactIdentifier);
+  } catch (e) {
+    console.warn('markChatRead failed', e);
+    return false;
+  }
+};
+
+// Messages deleted by the sender after they were backed up, newest deletion first.
+// Pass the previous page's nextCursor to continue; nextCursor is null on the last page.
+// Each page deducts view points.
+export const getRecoveredMessages = async (app = null, limit = 50, cursor = null) => {
+  try {
+    return await CampaignsModule.getRecoveredMessages(app, limit, cursor);
+  } catch (e) {
+    console.warn('getRecoveredMessages failed', e);
+    throw e; // Handle insufficient points in UI
+  }
+};
+
 // Get device contacts using react-native-contacts (handle permissions)
 export const getDeviceContacts = async () => {
   try {
@@ -613,3 +826,23 @@ export const cancelScheduledMessage = async rowId => {
     });
   });
 };
+
+// Media cleanup
+// Deletes the given uris natively. Resolves {deleted, message}: the Set of uris that
+// were actually removed, and a summary for a snackbar. Never rejects.
+export const deleteSelectedMedia = async uris => {
+  try {
+    const result = await StatusModule.deleteMediaBatch(uris);
+    const deleted = new Set(
+      result.results.filter(r => r.success).map(r => r.uri),
+    );
+    const freedMb = (result.bytesFreed / (1024 * 1024)).toFixed(1);
+    const message = result.failed
+      ? `${result.deleted} deleted, ${result.failed} failed (${freedMb} MB freed)`
+      : `${result.deleted} items deleted (${freedMb} MB freed)`;
+    return {deleted, message};
+  } catch (e) {
+    console.warn('deleteSelectedMedia error', e);
+    return {deleted: new Set(), message: 'Delete failed'};
+  }
+};